@@ -0,0 +1,74 @@
+package com.iapp.lib.chess_engine;
+
+import com.alonsoruibal.chess.Config;
+import com.alonsoruibal.chess.search.SearchEngine;
+import com.alonsoruibal.chess.search.SearchParameters;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches of both engines at fixed depths, each search starts with an empty transposition table.
+ * The engines are created once per trial, their tables are cleared before each search.
+ * The tasks of IgorChessEngine run in the benchmark thread.
+ * @version 1.0
+ * @author Igor Ivanov
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EngineBenchmark {
+
+    private static final String KIWIPETE = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq";
+
+    @Param({"2", "3", "4"})
+    private int depth;
+
+    @Param({"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq", KIWIPETE})
+    private String fen;
+
+    private IgorChessEngine engine;
+    private SearchEngine carballo;
+    private Game game;
+    private Move bestMove;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new IgorChessEngine(4, 1, Runnable::run);
+
+        Config config = new Config();
+        config.setTranspositionTableSize(10);
+        carballo = new SearchEngine(config);
+    }
+
+    /** the table is cleared out of the measured time, so only the search is measured */
+    @Setup(Level.Invocation)
+    public void clearIgorTable() {
+        engine.clearTable();
+        game = new Game(Color.BLACK, fen);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        carballo.destroy();
+    }
+
+    @Benchmark
+    public Move igorSearch() {
+        bestMove = null;
+        engine.getMove(game, depth, game.getColorMove(), (move, typePiece) -> bestMove = move);
+        return bestMove;
+    }
+
+    @Benchmark
+    public int carballoSearch() {
+        carballo.clear();
+        carballo.getBoard().setFen(fen);
+
+        SearchParameters searchParams = new SearchParameters();
+        // carballo counts the depth in plies like the other engine
+        searchParams.setDepth(depth);
+        carballo.go(searchParams);
+        return carballo.getBestMove();
+    }
+}
@@ -0,0 +1,51 @@
+package com.iapp.lib.chess_engine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying of games and reading of positions from fen.
+ * @version 1.0
+ * @author Igor Ivanov
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GameBenchmark {
+
+    private static final String FEN = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq";
+
+    /** the count of moves made before the copying, the history is copied too */
+    @Param({"0", "40"})
+    private int moves;
+
+    private Game game;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        game = new Game(Color.BLACK);
+        int[] buffer = new int[Game.MAX_MOVES];
+
+        // always the first legal move, so the game is the same in every run
+        for (int i = 0; i < moves; i++) {
+            if (game.generateLegalMoves(buffer, 0) == 0) break;
+            game.makeMove(buffer[0]);
+        }
+    }
+
+    @Benchmark
+    public Game cloneGame() {
+        return game.cloneGame();
+    }
+
+    @Benchmark
+    public boolean isValidFen() {
+        return Game.isValidFEN(FEN);
+    }
+
+    @Benchmark
+    public BoardMatrix parseFen() {
+        return new BoardMatrix(Color.BLACK, FEN);
+    }
+}
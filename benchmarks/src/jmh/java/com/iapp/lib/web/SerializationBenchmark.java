@@ -0,0 +1,84 @@
+package com.iapp.lib.web;
+
+import com.google.gson.Gson;
+import com.iapp.ageofchess.multiplayer.Match;
+import com.iapp.ageofchess.multiplayer.TurnMode;
+import com.iapp.lib.chess_engine.Move;
+import com.iapp.lib.chess_engine.TypePiece;
+import com.iapp.lib.util.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gson round-trips of the objects sent between the client and the server
+ * and the binary encoding of avatars.
+ * @version 1.0
+ * @author Igor Ivanov
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    private static final byte AVATAR_OPERATION = 1;
+
+    /** the size of the avatar in bytes */
+    @Param({"16384", "262144"})
+    private int avatarSize;
+
+    private final Gson gson = new Gson();
+    private String matchJson;
+    private String accountJson;
+    private String requestJson;
+    private byte[] avatar;
+    private byte[] avatarMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Match match = new Match(1_000_001, "Match", 100, RankType.BLITZ, 7, 7, 8,
+            300_000, 300_000, 30_000, TurnMode.ALTERNATELY, 200, false,
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq");
+        for (int i = 0; i < 40; i++) {
+            match.getMoves().add(new Pair<>(Move.valueOf(i % 8, 6, i % 8, 4), i == 39 ? TypePiece.QUEEN : null));
+            match.getLobbyMessages().add(new LobbyMessage(i, i % 2 == 0 ? 7 : 8, "Message " + i));
+        }
+        matchJson = gson.toJson(match);
+
+        Account account = new Account(7, 1_500, 1_210.5, 1_180, 1_305, 1_000,
+            "Player", "password hash", "player", "n/d", Gender.ND, 0, System.currentTimeMillis());
+        accountJson = gson.toJson(account);
+
+        requestJson = gson.toJson(new SocketRequest("/api/v1/games/makeMove", "1000001", matchJson));
+
+        avatar = new byte[avatarSize];
+        new Random(0).nextBytes(avatar);
+        avatarMessage = BinaryRequests.updateAvatar(AVATAR_OPERATION, 7, avatar);
+    }
+
+    @Benchmark
+    public String matchRoundTrip() {
+        return gson.toJson(gson.fromJson(matchJson, Match.class));
+    }
+
+    @Benchmark
+    public String accountRoundTrip() {
+        return gson.toJson(gson.fromJson(accountJson, Account.class));
+    }
+
+    @Benchmark
+    public String socketRequestRoundTrip() {
+        return gson.toJson(gson.fromJson(requestJson, SocketRequest.class));
+    }
+
+    @Benchmark
+    public byte[] encodeAvatar() {
+        return BinaryRequests.updateAvatar(AVATAR_OPERATION, 7, avatar);
+    }
+
+    @Benchmark
+    public Pair<Long, byte[]> decodeAvatar() {
+        return BinaryRequests.parseUpdateAvatar(avatarMessage);
+    }
+}
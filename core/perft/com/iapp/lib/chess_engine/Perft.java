@@ -0,0 +1,125 @@
+package com.iapp.lib.chess_engine;
+
+import java.util.Locale;
+
+/**
+ * Counts the leaf nodes of the move generation tree of Game on the reference positions
+ * and checks them against the known counts, so the speed and the correctness are measured together.
+ * The castling and en passant fields of the positions are trimmed to what the fen of Game supports,
+ * each position is counted with both colors at the top of the board.
+ * Run with gradlew core:perft, -PperftDepth=N changes the maximal depth.
+ * @version 1.0
+ * @author Igor Ivanov
+ * */
+public final class Perft {
+
+    private static final int DEFAULT_DEPTH = 4;
+    private static final byte[] PROMOTIONS = {BoardMatrix.QUEEN, BoardMatrix.ROOK, BoardMatrix.BISHOP, BoardMatrix.KNIGHT};
+
+    private static final Position[] POSITIONS = {
+        new Position("start", "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq",
+            20, 400, 8_902, 197_281, 4_865_609),
+        new Position("kiwipete", "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq",
+            48, 2_039, 97_862, 4_085_603),
+        new Position("position 3", "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w",
+            14, 191, 2_812, 43_238, 674_624),
+        new Position("position 4", "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq",
+            6, 264, 9_467, 422_333),
+        new Position("position 5", "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ",
+            44, 1_486, 62_379, 2_103_487),
+        new Position("position 6", "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w",
+            46, 2_079, 89_890, 3_894_594)
+    };
+
+    private final int[][] buffers;
+    private long nodes, captures, enPassant, castles, promotions;
+
+    private Perft(int maxDepth) {
+        buffers = new int[maxDepth][Game.MAX_MOVES];
+    }
+
+    public static void main(String[] args) {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+        boolean correct = true;
+
+        System.out.printf(Locale.ROOT, "%-11s %5s %5s %12s %10s %8s %8s %8s %9s %12s%n",
+            "position", "upper", "depth", "nodes", "captures", "e.p.", "castles", "promos", "ms", "nodes/s");
+        for (Position position : POSITIONS) {
+            for (Color upper : Color.values()) {
+                correct &= count(position, upper, maxDepth);
+            }
+        }
+
+        if (!correct) {
+            System.out.println("perft failed");
+            System.exit(1);
+        }
+    }
+
+    private static boolean count(Position position, Color upper, int maxDepth) {
+        boolean correct = true;
+        for (int depth = 1; depth <= Math.min(maxDepth, position.nodes.length); depth++) {
+            Perft perft = new Perft(depth);
+            Game game = new Game(upper, position.fen);
+
+            long start = System.nanoTime();
+            perft.count(game, depth, 0);
+            long nanos = Math.max(System.nanoTime() - start, 1);
+
+            boolean matches = perft.nodes == position.nodes[depth - 1];
+            correct &= matches;
+            System.out.printf(Locale.ROOT, "%-11s %5s %5d %12d %10d %8d %8d %8d %9d %12d %s%n",
+                position.name, upper.name().toLowerCase(Locale.ROOT), depth, perft.nodes, perft.captures,
+                perft.enPassant, perft.castles, perft.promotions, nanos / 1_000_000,
+                perft.nodes * 1_000_000_000L / nanos, matches ? "ok" : "expected " + position.nodes[depth - 1]);
+        }
+        return correct;
+    }
+
+    private void count(Game game, int depth, int ply) {
+        int[] moves = buffers[ply];
+        int end = game.generateLegalMoves(moves, 0);
+
+        for (int i = 0; i < end; i++) {
+            int move = moves[i];
+            int pieceX = move & 7, pieceY = (move >>> 3) & 7;
+            int moveX = (move >>> 6) & 7, moveY = (move >>> 9) & 7;
+            // a pawn stays a pawn until the player chooses the piece, each choice is a move
+            int variants = game.isUpdated(Move.unpack(move)) ? PROMOTIONS.length : 1;
+
+            if (depth == 1) {
+                nodes += variants;
+                if (game.isTakeOnPass(pieceX, pieceY, moveX, moveY)) {
+                    enPassant++;
+                    captures++;
+                } else if (!game.isCage(moveX, moveY)) {
+                    captures += variants;
+                }
+                if (game.isCastleMove(pieceX, pieceY, moveX, moveY)) castles++;
+                if (variants != 1) promotions += variants;
+                continue;
+            }
+
+            for (int variant = 0; variant < variants; variant++) {
+                game.makeMove(move);
+                if (variants != 1) game.updatePawn(moveX, moveY, PROMOTIONS[variant]);
+                count(game, depth - 1, ply + 1);
+                game.cancelMove();
+            }
+        }
+    }
+
+    private static final class Position {
+
+        private final String name;
+        private final String fen;
+        /** the known counts of the leaf nodes by depth from 1 */
+        private final long[] nodes;
+
+        private Position(String name, String fen, long... nodes) {
+            this.name = name;
+            this.fen = fen;
+            this.nodes = nodes;
+        }
+    }
+}
@@ -259,7 +259,7 @@ public class MultiplayerMenuActivity extends Activity {
 
         for (Account account : accounts.values()) {
 
-            MultiplayerEngine.self().requireAvatar(account, bytes -> {
+            MultiplayerEngine.self().requireThumbnail(account, bytes -> {
                 List<MessageView> res = idByMessages.get(account.getId());
                 if (res == null) return;
                 for (MessageView message : res) {
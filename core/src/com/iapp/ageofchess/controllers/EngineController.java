@@ -18,6 +18,7 @@ import com.iapp.lib.ui.screens.RdLogger;
 
 import java.util.LinkedList;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 public abstract class EngineController extends Controller implements Chess2dController {
 
@@ -27,6 +28,9 @@ public abstract class EngineController extends Controller implements Chess2dCont
             'p', 'r', 'n', 'b', 'q', 'k',
     };
 
+    /** the thinking time of a hint, its depth stops it earlier on a fast device */
+    private static final long HINT_MILLIS = 1500;
+
     private static final java.util.Map<Character, Integer> vertical = java.util.Map.of(
             'a', 0, 'b', 1,
             'c', 2, 'd', 3,
@@ -37,7 +41,10 @@ public abstract class EngineController extends Controller implements Chess2dCont
     private MatchState state;
     protected final LocalMatch localMatch;
     private ChessEngine whiteEngine, blackEngine, hintWhiteEngine, hintBlackEngine;
-    private int depth;
+    /** the search stops at this depth even if the time is not over, it keeps the strength of the level */
+    private int maxDepth;
+    /** the thinking time of the engine, the higher levels think longer */
+    private long thinkingMillis;
     private boolean aiMakeMove;
     final LinkedList<Move> lastMoves = new LinkedList<>();
     Result result = Result.NONE;
@@ -284,52 +291,63 @@ public abstract class EngineController extends Controller implements Chess2dCont
     void makeAIMove() {
         aiMakeMove = true;
         getEngine().setFen(parseBoardToFen());
-        getEngine().getBestMoves(depth, textMove -> {
+
+        Consumer<String> onGetting = textMove -> {
             try {
                 var pair = parsePosition(textMove);
-                var move = pair.getKey();
-
-                if (localMatch.getUpperColor() == Color.WHITE) {
-                    move = Move.valueOf(move.getPieceX(), 7 - move.getPieceY(),
-                            move.getMoveX(), 7 - move.getMoveY());
-                }
-
-                makeMove(move, pair.getValue());
+                makeMove(getBoardMove(pair.getKey()), pair.getValue());
                 aiMakeMove = false;
             } catch (Throwable t) {
                 Gdx.app.error("makeAIMove", RdLogger.self().getDescription(t));
                 RdLogger.self().showFatalScreen(t);
             }
-        }, 2000);
+        };
+
+        // the tentative moves of the engine are not shown to the player
+        getEngine().getBestMovesByTime(maxDepth, thinkingMillis, textMove -> {}, onGetting);
     }
 
-    void getHint(int depth, OnGettingMove onGettingMove) {
+    /**
+     * searches the hint by time up to the depth
+     * @param onIntermediate gets the best move of every completed depth, may be null
+     * */
+    void getHint(int depth, OnGettingMove onIntermediate, OnGettingMove onGettingMove) {
         if (blockedHint) return;
 
         blockedHint = true;
+        int turn = getTurn();
         getHintEngine().setFen(parseBoardToFen());
-        getHintEngine().getBestMoves(depth, textMove -> {
+        getHintEngine().getBestMovesByTime(depth, HINT_MILLIS, textMove -> {
+            // the hint of a previous position is not shown
+            if (onIntermediate == null || !blockedHint || turn != getTurn()) return;
             try {
-                var move = parsePosition(textMove).getKey();
-                if (localMatch.getUpperColor() == Color.WHITE) {
-                    move = Move.valueOf(move.getPieceX(), 7 - move.getPieceY(),
-                            move.getMoveX(), 7 - move.getMoveY());
-                }
-
-                onGettingMove.onGetting(move, null);
+                onIntermediate.onGetting(getBoardMove(parsePosition(textMove).getKey()), null);
+            } catch (Throwable t) {
+                Gdx.app.error("getHint", RdLogger.self().getDescription(t));
+            }
+        }, textMove -> {
+            try {
+                onGettingMove.onGetting(getBoardMove(parsePosition(textMove).getKey()), null);
                 blockedHint = false;
             } catch (Throwable t) {
                 Gdx.app.error("getHint", RdLogger.self().getDescription(t));
                 RdLogger.self().showFatalScreen(t);
 
             }
-        }, 0);
+        });
     }
 
     private void update(Move move, byte type) {
         game.updatePawn(move.getMoveX(), 7 - move.getMoveY(), type);
     }
 
+    /** the board of the engine is flipped if the upper color is white */
+    private Move getBoardMove(Move move) {
+        if (localMatch.getUpperColor() != Color.WHITE) return move;
+        return Move.valueOf(move.getPieceX(), 7 - move.getPieceY(),
+                move.getMoveX(), 7 - move.getMoveY());
+    }
+
     private Pair<Move, TypePiece> parsePosition(String position) {
         var main = position.split(" ")[0];
 
@@ -403,48 +421,56 @@ public abstract class EngineController extends Controller implements Chess2dCont
                 blackEngine = new CarballoChessEngine();
                 return;
             case NOVICE:
-                whiteEngine = new IgorChessEngineAdapter();
-                blackEngine = new IgorChessEngineAdapter();
+                whiteEngine = new IgorChessEngineAdapter(1);
+                blackEngine = new IgorChessEngineAdapter(1);
                 hintWhiteEngine = new CarballoChessEngine();
                 hintBlackEngine = new CarballoChessEngine();
-                depth = 1;
+                maxDepth = 1;
+                thinkingMillis = 1000;
                 return;
             case EASY:
-                whiteEngine = new IgorChessEngineAdapter();
-                blackEngine = new IgorChessEngineAdapter();
+                whiteEngine = new IgorChessEngineAdapter(2);
+                blackEngine = new IgorChessEngineAdapter(2);
                 hintWhiteEngine = new CarballoChessEngine();
                 hintBlackEngine = new CarballoChessEngine();
-                depth = 2;
+                maxDepth = 2;
+                thinkingMillis = 1000;
                 return;
             case AVERAGE:
                 whiteEngine = new CarballoChessEngine();
                 blackEngine = new CarballoChessEngine();
-                depth = 1;
+                maxDepth = 1;
+                thinkingMillis = 1500;
                 return;
             case HARD:
                 whiteEngine = new CarballoChessEngine();
                 blackEngine = new CarballoChessEngine();
-                depth = 2;
+                maxDepth = 2;
+                thinkingMillis = 1500;
                 return;
             case EPIC:
                 whiteEngine = new CarballoChessEngine();
                 blackEngine = new CarballoChessEngine();
-                depth = 3;
+                maxDepth = 3;
+                thinkingMillis = 2000;
                 return;
             case MASTER_CANDIDATE:
                 whiteEngine = new CarballoChessEngine();
                 blackEngine = new CarballoChessEngine();
-                depth = 4;
+                maxDepth = 4;
+                thinkingMillis = 3000;
                 return;
             case MASTER:
                 whiteEngine = new CarballoChessEngine();
                 blackEngine = new CarballoChessEngine();
-                depth = 5;
+                maxDepth = 5;
+                thinkingMillis = 4000;
                 return;
             case GRADMASTER:
                 whiteEngine = new CarballoChessEngine();
                 blackEngine = new CarballoChessEngine();
-                depth = 8;
+                maxDepth = Integer.MAX_VALUE;
+                thinkingMillis = 5000;
                 return;
             default:
                 throw new IllegalArgumentException("Unknown game mode");
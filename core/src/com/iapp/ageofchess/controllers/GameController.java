@@ -6,6 +6,7 @@ import com.iapp.ageofchess.activity.ScenariosActivity;
 import com.iapp.ageofchess.services.SettingsUtil;
 import com.iapp.lib.chess_engine.Color;
 import com.iapp.lib.chess_engine.Move;
+import com.iapp.lib.chess_engine.OnGettingMove;
 import com.iapp.lib.chess_engine.Result;
 import com.iapp.lib.chess_engine.TypePiece;
 import com.iapp.lib.ui.widgets.BoardView;
@@ -222,13 +223,14 @@ public class GameController extends EngineController {
 
     public void showHint() {
         if (boardView.isBlockedMove() || result != Result.NONE || getMatch().isBlockedHints()) return;
-        getHint(4, (move, type) -> boardView.showHint(move));
+        OnGettingMove onHint = (move, type) -> boardView.showHint(move);
+        getHint(4, onHint, onHint);
     }
 
     public void makeHint() {
         if (boardView.isBlocked() || boardView.isBlockedMove() || result != Result.NONE ||
                 (getMatch().getGameMode() != GameMode.TWO_PLAYERS && getColorMove() == getMatch().getUpperColor())) return;
-        getHint(4, (move, type) -> makeMove(move, null));
+        getHint(4, null, (move, type) -> makeMove(move, null));
     }
 
     public void flipPieces() {
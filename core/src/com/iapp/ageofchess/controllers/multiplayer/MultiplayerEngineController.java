@@ -220,7 +220,7 @@ public abstract class MultiplayerEngineController extends Controller implements
 
     void makeAIMove() {}
 
-    void getHint(int depth, OnGettingMove onGettingMove) {}
+    void getHint(int depth, OnGettingMove onIntermediate, OnGettingMove onGettingMove) {}
 
     String getFenMove(Move move, TypePiece typePiece) {
         String transition = "";
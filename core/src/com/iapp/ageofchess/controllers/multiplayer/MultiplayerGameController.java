@@ -27,6 +27,8 @@ public class MultiplayerGameController extends MultiplayerEngineController {
     private final long matchId;
 
     private Match currentMatch;
+    /** the local time of receiving the current match, the clocks run from it */
+    private long receivedTime;
     private Account firstPlayer, secondPlayer;
     private boolean initMatchListener;
 
@@ -34,6 +36,7 @@ public class MultiplayerGameController extends MultiplayerEngineController {
         super(activity, localMatch, match);
         this.matchId = match.getId();
         currentMatch = match;
+        receivedTime = System.currentTimeMillis();
         ChessConstants.chatView.setMatchId(this.currentMatch.getId());
     }
 
@@ -106,7 +109,7 @@ public class MultiplayerGameController extends MultiplayerEngineController {
     @SuppressWarnings("DefaultLocale")
     public String getTimeByTurn() {
         if (currentMatch.getTimeByTurn() == -1) return "";
-        var leftSeconds = currentMatch.getTimeByTurn() / 1000;
+        var leftSeconds = getLeftTimeByTurn() / 1000;
         var leftMinutes = leftSeconds / 60;
         return String.format("%d:%02d", leftMinutes, leftSeconds % 60);
     }
@@ -114,7 +117,7 @@ public class MultiplayerGameController extends MultiplayerEngineController {
     @SuppressWarnings("DefaultLocale")
     public String getBlackTime() {
         if (currentMatch.getTimeByBlack() == -1) return "";
-        var leftSeconds = currentMatch.getTimeByBlack() / 1000;
+        var leftSeconds = getLeftTime(Color.BLACK) / 1000;
         var leftMinutes = leftSeconds / 60;
         var leftHours = leftMinutes / 60;
         return String.format("%d:%02d:%02d", leftHours, leftMinutes % 60, leftSeconds % 60 % 60);
@@ -123,22 +126,22 @@ public class MultiplayerGameController extends MultiplayerEngineController {
     @SuppressWarnings("DefaultLocale")
     public String getWhiteTime() {
         if (currentMatch.getTimeByWhite() == -1) return "";
-        var leftSeconds = currentMatch.getTimeByWhite() / 1000;
+        var leftSeconds = getLeftTime(Color.WHITE) / 1000;
         var leftMinutes = leftSeconds / 60;
         var leftHours = leftMinutes / 60;
         return String.format("%d:%02d:%02d", leftHours, leftMinutes % 60, leftSeconds % 60 % 60);
     }
 
     public boolean isFewTimeByTurn() {
-        return currentMatch.getTimeByTurn() != -1 && currentMatch.getTimeByTurn() / 1000 <= 20 && currentMatch.getTimeByTurn() > 0;
+        return currentMatch.getTimeByTurn() != -1 && getLeftTimeByTurn() / 1000 <= 20 && getLeftTimeByTurn() > 0;
     }
 
     public boolean isFewBlackTime() {
-        return currentMatch.getTimeByBlack() != -1 && currentMatch.getTimeByBlack() / 1000 <= 60 && currentMatch.getTimeByBlack() > 0;
+        return currentMatch.getTimeByBlack() != -1 && getLeftTime(Color.BLACK) / 1000 <= 60 && getLeftTime(Color.BLACK) > 0;
     }
 
     public boolean isFewWhiteTime() {
-        return currentMatch.getTimeByWhite() != -1 && currentMatch.getTimeByWhite() / 1000 <= 60 && currentMatch.getTimeByWhite() > 0;
+        return currentMatch.getTimeByWhite() != -1 && getLeftTime(Color.WHITE) / 1000 <= 60 && getLeftTime(Color.WHITE) > 0;
     }
 
     public boolean isTurnTimeOver() {
@@ -150,6 +153,27 @@ public class MultiplayerGameController extends MultiplayerEngineController {
                 || (currentMatch.getTimeByWhite() != -1 && currentMatch.getTimeByWhite() <= 0);
     }
 
+    /**
+     * the server sends the clocks only with the changes of the match,
+     * in between they run locally from the time of receiving
+     * */
+    private long getLeftTimeByTurn() {
+        if (!isClockRunning()) return currentMatch.getTimeByTurn();
+        return Math.max(currentMatch.getTimeByTurn() - (System.currentTimeMillis() - receivedTime), 0);
+    }
+
+    private long getLeftTime(Color color) {
+        long time = color == Color.WHITE ? currentMatch.getTimeByWhite() : currentMatch.getTimeByBlack();
+        // only the clock of the player to move is running, the fen of the server ends with " w" or " b"
+        boolean whiteMove = currentMatch.getFen().contains(" w");
+        if (!isClockRunning() || whiteMove != (color == Color.WHITE)) return time;
+        return Math.max(time - (System.currentTimeMillis() - receivedTime), 0);
+    }
+
+    private boolean isClockRunning() {
+        return currentMatch.isStarted() && currentMatch.getResult() == Result.NONE;
+    }
+
     @Override
     public void makeMove(Move move, TypePiece updated) {
         makeMove(move, updated, true);
@@ -347,6 +371,7 @@ public class MultiplayerGameController extends MultiplayerEngineController {
             Match last = currentMatch;
             if (newMatch != null) {
                 currentMatch = newMatch;
+                receivedTime = System.currentTimeMillis();
                 update(last);
             }
             updateAccounts(last);
@@ -0,0 +1,139 @@
+package com.iapp.ageofchess.multiplayer;
+
+import com.iapp.lib.chess_engine.Move;
+import com.iapp.lib.chess_engine.Result;
+import com.iapp.lib.chess_engine.TypePiece;
+import com.iapp.lib.util.Pair;
+import com.iapp.lib.web.RankType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A finished match kept by the server after it is removed from the live matches
+ * @author Igor Ivanov
+ * The moves are in the coordinates of Match, the start position is null for the standard one
+ * */
+public class ArchivedGame {
+
+    /** the standard arrangement, not stored with the games */
+    public static final String STANDARD_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq";
+
+    private long id;
+    private long whitePlayerId;
+    private long blackPlayerId;
+    private RankType rankType;
+    private Result result;
+    private String startFen;
+    private List<Pair<Move, TypePiece>> moves = new ArrayList<>();
+    private long finishTime;
+    private double rankPlus, rankMinus;
+
+    public ArchivedGame() {}
+
+    public ArchivedGame(Match match, String startFen) {
+        whitePlayerId = match.getWhitePlayerId();
+        blackPlayerId = match.getBlackPlayerId();
+        rankType = match.getRankType();
+        result = match.getResult();
+        this.startFen = STANDARD_FEN.equals(startFen) ? null : startFen;
+        moves = new ArrayList<>(match.getMoves());
+        finishTime = match.getFinishTime() != -1 ? match.getFinishTime() : System.currentTimeMillis();
+        rankPlus = match.getRankPlus();
+        rankMinus = match.getRankMinus();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getWhitePlayerId() {
+        return whitePlayerId;
+    }
+
+    public void setWhitePlayerId(long whitePlayerId) {
+        this.whitePlayerId = whitePlayerId;
+    }
+
+    public long getBlackPlayerId() {
+        return blackPlayerId;
+    }
+
+    public void setBlackPlayerId(long blackPlayerId) {
+        this.blackPlayerId = blackPlayerId;
+    }
+
+    public RankType getRankType() {
+        return rankType;
+    }
+
+    public void setRankType(RankType rankType) {
+        this.rankType = rankType;
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    public void setResult(Result result) {
+        this.result = result;
+    }
+
+    /** the start position, null if it is the standard one */
+    public String getStartFen() {
+        return startFen;
+    }
+
+    public void setStartFen(String startFen) {
+        this.startFen = startFen;
+    }
+
+    public List<Pair<Move, TypePiece>> getMoves() {
+        return moves;
+    }
+
+    public void setMoves(List<Pair<Move, TypePiece>> moves) {
+        this.moves = moves;
+    }
+
+    public long getFinishTime() {
+        return finishTime;
+    }
+
+    public void setFinishTime(long finishTime) {
+        this.finishTime = finishTime;
+    }
+
+    public double getRankPlus() {
+        return rankPlus;
+    }
+
+    public void setRankPlus(double rankPlus) {
+        this.rankPlus = rankPlus;
+    }
+
+    public double getRankMinus() {
+        return rankMinus;
+    }
+
+    public void setRankMinus(double rankMinus) {
+        this.rankMinus = rankMinus;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedGame{" +
+                "id=" + id +
+                ", whitePlayerId=" + whitePlayerId +
+                ", blackPlayerId=" + blackPlayerId +
+                ", rankType=" + rankType +
+                ", result=" + result +
+                ", moves=" + moves.size() +
+                ", finishTime=" + finishTime +
+                '}';
+    }
+}
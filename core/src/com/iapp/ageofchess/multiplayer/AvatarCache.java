@@ -0,0 +1,83 @@
+package com.iapp.ageofchess.multiplayer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Avatars received from the server, limited by their total size
+ * @author Igor Ivanov
+ * The least recently used avatars are evicted first.
+ * An avatar is kept with its hash, so the server sends it again only if it is changed
+ * */
+class AvatarCache {
+
+    private final long maxBytes;
+    /** guarded by this */
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    AvatarCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** returns the cached avatar, null if there is none */
+    synchronized Entry get(long id, boolean thumbnail) {
+        return entries.get(getKey(id, thumbnail));
+    }
+
+    /** caches the avatar checked by the server at this time */
+    synchronized void put(long id, boolean thumbnail, String hash, byte[] avatar, long checkedTime) {
+        String key = getKey(id, thumbnail);
+        Entry previous = entries.remove(key);
+        if (previous != null) bytes -= previous.avatar.length;
+        if (avatar.length > maxBytes) return;
+
+        entries.put(key, new Entry(hash, avatar, checkedTime));
+        bytes += avatar.length;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().avatar.length;
+            eldest.remove();
+        }
+    }
+
+    /** forgets the avatar and the thumbnail of the account */
+    synchronized void remove(long id) {
+        for (String key : new String[] {getKey(id, false), getKey(id, true)}) {
+            Entry removed = entries.remove(key);
+            if (removed != null) bytes -= removed.avatar.length;
+        }
+    }
+
+    static String getKey(long id, boolean thumbnail) {
+        return thumbnail ? id + "t" : String.valueOf(id);
+    }
+
+    static final class Entry {
+
+        private final String hash;
+        private final byte[] avatar;
+        private final long checkedTime;
+
+        private Entry(String hash, byte[] avatar, long checkedTime) {
+            this.hash = hash;
+            this.avatar = avatar;
+            this.checkedTime = checkedTime;
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        byte[] getAvatar() {
+            return avatar;
+        }
+
+        /** the time when the server confirmed the hash */
+        long getCheckedTime() {
+            return checkedTime;
+        }
+    }
+}
@@ -38,6 +38,8 @@ public class Match {
     private final List<LobbyMessage> lobbyMessages = new CopyOnWriteArrayList<>();
     private boolean alternately;
     private transient Lobby lobby;
+    /** the version of the state, each broadcast of the changes makes a new one */
+    private long version;
 
     public Match() {}
 
@@ -65,6 +67,14 @@ public class Match {
         this.fen = fen;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public Lobby getLobby() {
         return lobby;
     }
@@ -113,6 +123,10 @@ public class Match {
         return createdTime;
     }
 
+    public void setCreatedTime(long createdTime) {
+        this.createdTime = createdTime;
+    }
+
     public RankType getRankType() {
         return rankType;
     }
@@ -126,7 +140,7 @@ public class Match {
     }
 
     public void setSponsored(long coins) {
-        this.sponsored = sponsored;
+        this.sponsored = coins;
     }
 
     public List<Long> getEntered() {
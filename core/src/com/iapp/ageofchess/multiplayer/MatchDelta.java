@@ -0,0 +1,285 @@
+package com.iapp.ageofchess.multiplayer;
+
+import com.iapp.lib.chess_engine.Move;
+import com.iapp.lib.chess_engine.Result;
+import com.iapp.lib.chess_engine.TypePiece;
+import com.iapp.lib.util.Pair;
+import com.iapp.lib.web.Lobby;
+import com.iapp.lib.web.LobbyMessage;
+import com.iapp.lib.web.WireReader;
+import com.iapp.lib.web.WireWriter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Changes of a match from the previous version to the next one,
+ * the spectators may get the changes of several versions at once
+ * @author Igor Ivanov
+ * @version 1.0
+ * Only the changed fields are set, the others are null and are not serialized.
+ * The fields hold the new values, not the differences,
+ * so a delta can also be applied to a snapshot that is newer than the previous version
+ * */
+public class MatchDelta {
+
+    private long matchId;
+    private long version;
+    /** the version the changes are counted from, null for the previous one */
+    private Long baseVersion;
+
+    /** the moves from the index are replaced by the new ones */
+    private Integer movesFrom;
+    private List<Pair<Move, TypePiece>> moves;
+    private String fen;
+    private Integer turn;
+    private Boolean alternately;
+
+    /** clock snapshot */
+    private Long timeByWhite, timeByBlack, timeByTurn;
+
+    private Result result;
+    private Long finishTime;
+    private Double rankPlus, rankMinus;
+
+    private Boolean started;
+    private Long whitePlayerId, blackPlayerId;
+    private List<Long> entered;
+
+    /** the messages appended to the lobby */
+    private List<LobbyMessage> lobbyMessages;
+
+    public MatchDelta() {}
+
+    public MatchDelta(long matchId, long version) {
+        this.matchId = matchId;
+        this.version = version;
+    }
+
+    /** the changes of several versions, the versions between them are skipped */
+    public MatchDelta(long matchId, long version, long baseVersion) {
+        this(matchId, version);
+        if (baseVersion != version - 1) this.baseVersion = baseVersion;
+    }
+
+    public long getMatchId() {
+        return matchId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getBaseVersion() {
+        return baseVersion != null ? baseVersion : version - 1;
+    }
+
+    /**
+     * applies the changes to the match of the base version or a newer one before this,
+     * returns false if a version is missed and a snapshot is needed
+     * */
+    public boolean applyTo(Match match) {
+        if (match.getId() != matchId || match.getVersion() < getBaseVersion()
+            || match.getVersion() >= version) return false;
+
+        if (moves != null) {
+            List<Pair<Move, TypePiece>> matchMoves = match.getMoves();
+            while (matchMoves.size() > movesFrom) matchMoves.remove(matchMoves.size() - 1);
+            matchMoves.addAll(moves);
+        }
+        if (fen != null) match.setFen(fen);
+        if (turn != null) match.setTurn(turn);
+        if (alternately != null) match.setAlternately(alternately);
+
+        if (timeByWhite != null) match.setTimeByWhite(timeByWhite);
+        if (timeByBlack != null) match.setTimeByBlack(timeByBlack);
+        if (timeByTurn != null) match.setTimeByTurn(timeByTurn);
+
+        if (result != null) match.setResult(result);
+        if (finishTime != null) match.setFinishTime(finishTime);
+        if (rankPlus != null) match.setRankPlus(rankPlus);
+        if (rankMinus != null) match.setRankMinus(rankMinus);
+
+        if (started != null) match.setStarted(started);
+        if (whitePlayerId != null) match.setWhitePlayerId(whitePlayerId);
+        if (blackPlayerId != null) match.setBlackPlayerId(blackPlayerId);
+        if (entered != null) {
+            match.getEntered().clear();
+            match.getEntered().addAll(entered);
+        }
+
+        if (lobbyMessages != null) appendLobby(match.getLobbyMessages());
+
+        match.setVersion(version);
+        return true;
+    }
+
+    /** returns true if no field is changed */
+    public boolean isEmpty() {
+        return moves == null && fen == null && turn == null && alternately == null
+            && timeByWhite == null && timeByBlack == null && timeByTurn == null
+            && result == null && finishTime == null && rankPlus == null && rankMinus == null
+            && started == null && whitePlayerId == null && blackPlayerId == null && entered == null
+            && lobbyMessages == null;
+    }
+
+    /** returns true if only the clocks are changed */
+    public boolean isClockOnly() {
+        return (timeByWhite != null || timeByBlack != null || timeByTurn != null)
+            && moves == null && fen == null && turn == null && alternately == null
+            && result == null && finishTime == null && rankPlus == null && rankMinus == null
+            && started == null && whitePlayerId == null && blackPlayerId == null && entered == null
+            && lobbyMessages == null;
+    }
+
+    /** writes the set fields after the mask of them */
+    void write(WireWriter writer) {
+        writer.writeLong(matchId);
+        writer.writeVarLong(version);
+
+        Object[] fields = getFields();
+        int mask = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) mask |= 1 << i;
+        }
+        writer.writeVarLong(mask);
+
+        if (moves != null) {
+            writer.writeVarLong(movesFrom);
+            WireProtocol.writeMoves(writer, moves);
+        }
+        if (fen != null) writer.writeString(fen);
+        if (turn != null) writer.writeInt(turn);
+        if (alternately != null) writer.writeBoolean(alternately);
+        if (timeByWhite != null) writer.writeLong(timeByWhite);
+        if (timeByBlack != null) writer.writeLong(timeByBlack);
+        if (timeByTurn != null) writer.writeLong(timeByTurn);
+        if (result != null) writer.writeEnum(result);
+        if (finishTime != null) writer.writeLong(finishTime);
+        if (rankPlus != null) writer.writeDouble(rankPlus);
+        if (rankMinus != null) writer.writeDouble(rankMinus);
+        if (started != null) writer.writeBoolean(started);
+        if (whitePlayerId != null) writer.writeLong(whitePlayerId);
+        if (blackPlayerId != null) writer.writeLong(blackPlayerId);
+        if (entered != null) WireProtocol.writeIds(writer, entered);
+        if (lobbyMessages != null) WireProtocol.writeLobbyMessages(writer, lobbyMessages);
+        if (baseVersion != null) writer.writeVarLong(baseVersion);
+    }
+
+    static MatchDelta read(WireReader reader) {
+        var delta = new MatchDelta(reader.readLong(), reader.readVarLong());
+        int mask = (int) reader.readVarLong();
+
+        if ((mask & 1) != 0) {
+            delta.movesFrom = (int) reader.readVarLong();
+            delta.moves = WireProtocol.readMoves(reader);
+        }
+        if ((mask & 1 << 1) != 0) delta.fen = reader.readString();
+        if ((mask & 1 << 2) != 0) delta.turn = reader.readInt();
+        if ((mask & 1 << 3) != 0) delta.alternately = reader.readBoolean();
+        if ((mask & 1 << 4) != 0) delta.timeByWhite = reader.readLong();
+        if ((mask & 1 << 5) != 0) delta.timeByBlack = reader.readLong();
+        if ((mask & 1 << 6) != 0) delta.timeByTurn = reader.readLong();
+        if ((mask & 1 << 7) != 0) delta.result = reader.readEnum(Result.values());
+        if ((mask & 1 << 8) != 0) delta.finishTime = reader.readLong();
+        if ((mask & 1 << 9) != 0) delta.rankPlus = reader.readDouble();
+        if ((mask & 1 << 10) != 0) delta.rankMinus = reader.readDouble();
+        if ((mask & 1 << 11) != 0) delta.started = reader.readBoolean();
+        if ((mask & 1 << 12) != 0) delta.whitePlayerId = reader.readLong();
+        if ((mask & 1 << 13) != 0) delta.blackPlayerId = reader.readLong();
+        if ((mask & 1 << 14) != 0) delta.entered = WireProtocol.readIds(reader);
+        if ((mask & 1 << 15) != 0) delta.lobbyMessages = WireProtocol.readLobbyMessages(reader);
+        if ((mask & 1 << 16) != 0) delta.baseVersion = reader.readVarLong();
+        return delta;
+    }
+
+    /** the optional fields in the order of the bits of the mask */
+    private Object[] getFields() {
+        return new Object[] {moves, fen, turn, alternately, timeByWhite, timeByBlack, timeByTurn,
+            result, finishTime, rankPlus, rankMinus, started, whitePlayerId, blackPlayerId,
+            entered, lobbyMessages, baseVersion};
+    }
+
+    public void setMoves(int movesFrom, List<Pair<Move, TypePiece>> moves) {
+        this.movesFrom = movesFrom;
+        this.moves = moves;
+    }
+
+    public void setFen(String fen) {
+        this.fen = fen;
+    }
+
+    public void setTurn(int turn) {
+        this.turn = turn;
+    }
+
+    public void setAlternately(boolean alternately) {
+        this.alternately = alternately;
+    }
+
+    public void setTimeByWhite(long timeByWhite) {
+        this.timeByWhite = timeByWhite;
+    }
+
+    public void setTimeByBlack(long timeByBlack) {
+        this.timeByBlack = timeByBlack;
+    }
+
+    public void setTimeByTurn(long timeByTurn) {
+        this.timeByTurn = timeByTurn;
+    }
+
+    public void setResult(Result result) {
+        this.result = result;
+    }
+
+    public void setFinishTime(long finishTime) {
+        this.finishTime = finishTime;
+    }
+
+    public void setRankPlus(double rankPlus) {
+        this.rankPlus = rankPlus;
+    }
+
+    public void setRankMinus(double rankMinus) {
+        this.rankMinus = rankMinus;
+    }
+
+    public void setStarted(boolean started) {
+        this.started = started;
+    }
+
+    public void setWhitePlayerId(long whitePlayerId) {
+        this.whitePlayerId = whitePlayerId;
+    }
+
+    public void setBlackPlayerId(long blackPlayerId) {
+        this.blackPlayerId = blackPlayerId;
+    }
+
+    public void setEntered(List<Long> entered) {
+        this.entered = entered;
+    }
+
+    public void setLobbyMessages(List<LobbyMessage> lobbyMessages) {
+        this.lobbyMessages = lobbyMessages;
+    }
+
+    private void appendLobby(List<LobbyMessage> lobby) {
+        // a newer snapshot may already contain the messages, the ids are unique within the lobby
+        Set<Long> ids = new HashSet<>();
+        for (LobbyMessage message : lobby) ids.add(message.getId());
+
+        List<LobbyMessage> appended = new ArrayList<>();
+        for (LobbyMessage message : lobbyMessages) {
+            if (!ids.contains(message.getId())) appended.add(message);
+        }
+        lobby.addAll(appended);
+
+        if (lobby.size() > Lobby.MAX_LOBBY_SIZE) {
+            lobby.subList(0, lobby.size() - Lobby.MAX_LOBBY_SIZE).clear();
+        }
+    }
+}
@@ -37,17 +37,31 @@ import java.util.function.Consumer;
  * 0 (update avatar): [0] - request, [1] - id size, [2:n] - id, [n+1:] - avatar;
  * 1 (get avatar): [0] - request, [1] - id size, [2:] - id;
  * 2 (read data): [0] - request, [1] - id request;
+ * 3 (requests after the hello): see WireProtocol;
+ * 4 (get changed avatar): [0] - request, id, thumbnail, known hash; see BinaryRequests;
  * update server:
  * 0 (result update avatar): [0] - request, [1] - RequestStatus ordinal;
  * 1 (result get avatar): [0] - request, [1] - RequestStatus ordinal, [2] - id size, [2:n] - id, [n+1:] - avatar;
+ * 3 (results after the hello): see WireProtocol;
+ * 4 (result get changed avatar): [0] - request, the parts of the avatar; see AvatarChunk;
  *
  * */
 public class MultiplayerEngine implements Client {
 
     private WebSocket socket;
 
+    private static final String ACCOUNTS = "/api/v1/accounts";
+    private static final String MAIN_CHAT = "/api/v1/mainChat";
+    private static final String GAMES = "/api/v1/games";
+    /** the total size of the cached avatars */
+    private static final long AVATAR_CACHE_BYTES = 4 * 1024 * 1024;
+    /** the cached avatar is shown without asking the server during this time */
+    private static final long AVATAR_CHECK_TIME = 3 * 60 * 1000;
+
     private final Gson gson;
     private final AtomicBoolean initEngine = new AtomicBoolean(false);
+    /** the server accepted the binary format, until then JSON is used */
+    private volatile boolean binary;
 
     /** control server listeners */
     private final Map<Byte, Consumer<byte[]>> onPartData = RdApplication.self().getLauncher().concurrentHashMap();
@@ -87,10 +101,14 @@ public class MultiplayerEngine implements Client {
     private volatile Consumer<List<Account>> onBlitz;
     private volatile Consumer<List<Account>> onRapid;
     private volatile Consumer<List<Account>> onLong;
+    /** listener on the place of an account and the accounts around it */
+    private volatile Consumer<Pair<Long, List<Account>>> onPlace;
 
     /** listener on update main chat messages */
     private volatile Pair<List<Message>, Map<Long, Account>> lastMessages;
     private volatile Consumer<Pair<List<Message>, Map<Long, Account>>> mainChatMessages;
+    /** listener on a page of the older main chat messages */
+    private volatile Consumer<Pair<List<Message>, Map<Long, Account>>> onMessagesBefore;
 
     /** listener main lobby */
     private volatile Consumer<List<LobbyMessage>> onMainLobby;
@@ -100,10 +118,25 @@ public class MultiplayerEngine implements Client {
     private final List<Consumer<List<Match>>> listOnMatches = RdApplication.self().getLauncher().copyOnWriteArrayList();
     private volatile List<Match> lastMatches;
 
+    /** listeners on a page of the archived games and on the parts of a PGN export */
+    private volatile Consumer<List<ArchivedGame>> onArchivedGames;
+    private volatile Consumer<String> onPgn;
+
+    /** listener on the number of the watchers of a match and their maximum */
+    private volatile Consumer<Pair<Long, Long>> onWatchers;
+
+    /** listeners of the matchmaking queue */
+    private volatile Consumer<Match> onPaired;
+    private volatile Consumer<String> onQueueError;
+
     /** avatar listeners */
-    private final Map<Long, Pair<Long, byte[]>> accountCache = RdApplication.self().getLauncher().concurrentHashMap();
-    private final Map<Long, List<Consumer<byte[]>>> onAvatars = RdApplication.self().getLauncher().concurrentHashMap();
+    private final AvatarCache avatarCache = new AvatarCache(AVATAR_CACHE_BYTES);
+    /** AvatarCache key -> listeners, the avatar is requested once for all of them */
+    private final Map<String, List<Consumer<byte[]>>> onAvatars = RdApplication.self().getLauncher().concurrentHashMap();
+    /** AvatarCache key -> the avatar being received in parts */
+    private final Map<String, byte[]> avatarParts = RdApplication.self().getLauncher().concurrentHashMap();
     private volatile Consumer<RequestStatus> onChangeAvatar;
+    private volatile long changedAvatarId = -1;
 
     /** enter & remove match listeners */
     private volatile CallListener onSuccessEnter;
@@ -131,14 +164,14 @@ public class MultiplayerEngine implements Client {
 
     public void restartServer() {
         // only developers
-        socket.send(new SocketRequest("/api/v1/server/restart"));
+        send(new SocketRequest("/api/v1/server/restart"));
     }
 
     public void readDataFromServer(String absPath, Consumer<byte[]> onPart) {
         // only developers
         byte id = generateServerDataId();
         onPartData.put(id, onPart);
-        socket.send(new SocketRequest("/api/v1/server/readData",
+        send(new SocketRequest("/api/v1/server/readData",
             Long.toString(id), absPath));
     }
 
@@ -167,7 +200,7 @@ public class MultiplayerEngine implements Client {
             Locale.getDefault().getCountry(),
             SystemValidator.getOperationSystem().replaceAll("\\s", ""));
 
-        socket.send(new SocketRequest("/api/v1/accounts/login",
+        send(new SocketRequest("/api/v1/accounts/login",
             name, password, gson.toJson(login)));
     }
 
@@ -177,33 +210,38 @@ public class MultiplayerEngine implements Client {
 
         this.onSignup = onSignup;
         this.signupError = signupError;
-        socket.send(new SocketRequest("/api/v1/accounts/signup", name, userName, password));
+        send(new SocketRequest("/api/v1/accounts/signup", name, userName, password));
     }
 
     public void changeAccount(Account updated, Consumer<RequestStatus> onResult) {
         onChangeAccount = onResult;
-        socket.send(new SocketRequest("/api/v1/accounts/change", gson.toJson(updated)));
+        send(new SocketRequest("/api/v1/accounts/change", gson.toJson(updated)));
     }
 
     public void changeAvatar(long accountId, byte[] avatar, Consumer<RequestStatus> onChangeAvatar) {
         this.onChangeAvatar = onChangeAvatar;
+        changedAvatarId = accountId;
         socket.send(BinaryRequests.updateAvatar((byte) 0, accountId, avatar));
     }
 
     public void getAccount(long id, Consumer<Account> getAccount) {
         listGetAccount.put(id, getAccount);
-        socket.send(new SocketRequest("/api/v1/accounts/see", String.valueOf(id)));
+        send(new SocketRequest("/api/v1/accounts/see", String.valueOf(id)));
     }
 
     public void getAccounts(long[] ids, Consumer<List<Account>> getAccounts) {
         listGetAccounts.put(getId(ids), getAccounts);
-        socket.send(new SocketRequest("/api/v1/accounts/seeAccounts", gson.toJson(ids)));
+        send(new SocketRequest("/api/v1/accounts/seeAccounts", gson.toJson(ids)));
     }
 
     @Override
     public void requireAvatar(Account account, Consumer<byte[]> getAvatar) {
-        putOnAvatar(account.getId(), getAvatar);
-        socket.send(BinaryRequests.getAvatar((byte) 1, account.getId()));
+        requireAvatar(account.getId(), false, getAvatar);
+    }
+
+    @Override
+    public void requireThumbnail(Account account, Consumer<byte[]> getThumbnail) {
+        requireAvatar(account.getId(), true, getThumbnail);
     }
 
     @Override
@@ -211,52 +249,120 @@ public class MultiplayerEngine implements Client {
         return ChessConstants.accountPanel;
     }
 
-    private byte[] getCacheAvatar(long id) {
-        var pair = accountCache.get(id);
-        if (pair == null || RdApplication.self().getLauncher().currentMillis() - pair.getKey() > 3 * 60 * 1000) return null;
-        return pair.getValue();
+    private void requireAvatar(long id, boolean thumbnail, Consumer<byte[]> getAvatar) {
+        var cached = avatarCache.get(id, thumbnail);
+        if (cached != null && RdApplication.self().getLauncher().currentMillis()
+            - cached.getCheckedTime() <= AVATAR_CHECK_TIME) {
+            getAvatar.accept(cached.getAvatar());
+            return;
+        }
+
+        if (putOnAvatar(AvatarCache.getKey(id, thumbnail), getAvatar)) {
+            // the server sends the avatar only if its hash is changed
+            socket.send(BinaryRequests.getChangedAvatar((byte) 4, id, thumbnail,
+                cached != null ? cached.getHash() : null));
+        }
     }
 
-    private void putOnAvatar(long accountId, Consumer<byte[]> getAvatar) {
-        List<Consumer<byte[]>> list = onAvatars.get(accountId);
-        if (list == null) onAvatars.put(accountId, new CopyOnWriteArrayList<>());
-        onAvatars.get(accountId).add(getAvatar);
+    /** @return true if it is the first listener, the avatar is not requested yet */
+    private boolean putOnAvatar(String key, Consumer<byte[]> getAvatar) {
+        List<Consumer<byte[]>> list = onAvatars.get(key);
+        boolean first = list == null;
+        if (first) {
+            list = new CopyOnWriteArrayList<>();
+            onAvatars.put(key, list);
+        }
+        list.add(getAvatar);
+        return first;
+    }
+
+    private void onAvatarChunk(AvatarChunk chunk) {
+        String key = AvatarCache.getKey(chunk.getId(), chunk.isThumbnail());
+        if (chunk.getStatus() != RequestStatus.DONE) {
+            Gdx.app.error("Get avatar", "for id - " + chunk.getId() + ", status - " + chunk.getStatus());
+            avatarParts.remove(key);
+            RdApplication.postRunnable(() -> onAvatars.remove(key));
+            return;
+        }
+
+        byte[] avatar;
+        if (!chunk.isChanged()) {
+            var cached = avatarCache.get(chunk.getId(), chunk.isThumbnail());
+            if (cached == null) {
+                // evicted while waiting, the listeners are still waiting for the full one
+                socket.send(BinaryRequests.getChangedAvatar((byte) 4, chunk.getId(), chunk.isThumbnail(), null));
+                return;
+            }
+            avatar = cached.getAvatar();
+        } else if (chunk.getOffset() == 0 && chunk.isLast()) {
+            avatar = chunk.getData();
+        } else {
+            byte[] parts = chunk.getOffset() == 0 ? new byte[chunk.getTotal()] : avatarParts.get(key);
+            if (parts == null) return;
+            System.arraycopy(chunk.getData(), 0, parts, chunk.getOffset(), chunk.getData().length);
+            if (!chunk.isLast()) {
+                avatarParts.put(key, parts);
+                return;
+            }
+            avatarParts.remove(key);
+            avatar = parts;
+        }
+
+        avatarCache.put(chunk.getId(), chunk.isThumbnail(), chunk.getHash(), avatar,
+            RdApplication.self().getLauncher().currentMillis());
+        RdApplication.postRunnable(() -> {
+            List<Consumer<byte[]>> list = onAvatars.remove(key);
+            if (list == null) return;
+            for (Consumer<byte[]> onAvatar : list) {
+                onAvatar.accept(avatar);
+            }
+        });
     }
 
     public void searchAccounts(String partName, Consumer<List<Account>> onSearch) {
         this.onSearch = onSearch;
-        socket.send(new SocketRequest("/api/v1/accounts/search", partName));
+        send(new SocketRequest("/api/v1/accounts/search", partName));
     }
 
     public void getBulletTop(Consumer<List<Account>> onBullet) {
         this.onBullet = onBullet;
-        socket.send(new SocketRequest("/api/v1/accounts/bullet"));
+        send(new SocketRequest("/api/v1/accounts/bullet"));
     }
 
     public void getBlitzTop(Consumer<List<Account>> onBlitz) {
         this.onBlitz = onBlitz;
-        socket.send(new SocketRequest("/api/v1/accounts/blitz"));
+        send(new SocketRequest("/api/v1/accounts/blitz"));
     }
 
     public void getRapidTop(Consumer<List<Account>> onRapid) {
         this.onRapid = onRapid;
-        socket.send(new SocketRequest("/api/v1/accounts/rapid"));
+        send(new SocketRequest("/api/v1/accounts/rapid"));
     }
 
     public void getLongTop(Consumer<List<Account>> onLong) {
         this.onLong = onLong;
-        socket.send(new SocketRequest("/api/v1/accounts/long"));
+        send(new SocketRequest("/api/v1/accounts/long"));
+    }
+
+    /**
+     * requests the place of the account in the rank mode from 1
+     * and the accounts around it from the best, count before and after it
+     * */
+    public void getPlace(RankType rankType, long accountId, int count, Consumer<Pair<Long, List<Account>>> onPlace) {
+        this.onPlace = onPlace;
+        send(new SocketRequest("/api/v1/accounts/place", rankType.name(), String.valueOf(accountId),
+            String.valueOf(count)));
     }
 
     public void punish(long punishableId, Punishment punishment, Consumer<String> onPunishError) {
         this.onPunishError = onPunishError;
-        socket.send(new SocketRequest("/api/v1/accounts/punish",
+        send(new SocketRequest("/api/v1/accounts/punish",
             String.valueOf(punishableId), gson.toJson(punishment)));
     }
 
     public void makeInactivePunish(long punishableId, long punishId, Consumer<String> onInactivePunishError) {
         this.onInactivePunishError = onInactivePunishError;
-        socket.send(new SocketRequest("/api/v1/accounts/makeInactive",
+        send(new SocketRequest("/api/v1/accounts/makeInactive",
             String.valueOf(punishableId), String.valueOf(punishId)));
     }
 
@@ -265,19 +371,19 @@ public class MultiplayerEngine implements Client {
     @Override
     public void requireMainLobbyList(Consumer<List<LobbyMessage>> onMainLobbyList) {
         this.onMainLobbyList = onMainLobbyList;
-        socket.send(new SocketRequest("/api/v1/mainChat/list"));
+        send(new SocketRequest("/api/v1/mainChat/list"));
     }
 
     @Override
     public void sendMainLobbyMessage(String message) {
-        socket.send(new SocketRequest("/api/v1/mainChat/sendLobby", message));
+        send(new SocketRequest("/api/v1/mainChat/sendLobby", message));
     }
 
     public void setOnMainLobby(Consumer<List<LobbyMessage>> onMainLobby) {
         this.onMainLobby = onMainLobby;
         if (onMainLobby == null) return;
         if (lastMainLobby == null) {
-            socket.send(new SocketRequest("/api/v1/mainChat/readLobby"));
+            send(new SocketRequest("/api/v1/mainChat/readLobby"));
         } else {
             onMainLobby.accept(new ArrayList<>(lastMainLobby));
         }
@@ -290,24 +396,34 @@ public class MultiplayerEngine implements Client {
         if (lastMessages != null) {
             mainChatMessages.accept(lastMessages);
         } else {
-            socket.send(new SocketRequest("/api/v1/mainChat/readAll"));
+            send(new SocketRequest("/api/v1/mainChat/readAll"));
         }
     }
 
+    /**
+     * requests a page of the main chat messages older than the message,
+     * the messages are from new to old as the main chat messages
+     * */
+    public void requireMessagesBefore(long beforeId, int limit,
+                                      Consumer<Pair<List<Message>, Map<Long, Account>>> onMessagesBefore) {
+        this.onMessagesBefore = onMessagesBefore;
+        send(new SocketRequest("/api/v1/mainChat/readBefore", String.valueOf(beforeId), String.valueOf(limit)));
+    }
+
     public void sendMessage(String text) {
-        socket.send(new SocketRequest("/api/v1/mainChat/send", text));
+        send(new SocketRequest("/api/v1/mainChat/send", text));
     }
 
     @SuppressWarnings("DefaultLocale")
     public void removeMessage(long messageId) {
-        socket.send(new SocketRequest("/api/v1/mainChat/remove", String.valueOf(messageId)));
+        send(new SocketRequest("/api/v1/mainChat/remove", String.valueOf(messageId)));
     }
 
     // match requests -------------------------------------------------------------------------------------------------
     @Override
     public void requireGameLobbyList(long matchId, Consumer<List<LobbyMessage>> onGameLobbyList) {
         this.onGameLobbyList = onGameLobbyList;
-        socket.send(new SocketRequest("/api/v1/games/list", String.valueOf(matchId)));
+        send(new SocketRequest("/api/v1/games/list", String.valueOf(matchId)));
     }
 
     public void addOnMatches(Consumer<List<Match>> onMatches) {
@@ -316,7 +432,7 @@ public class MultiplayerEngine implements Client {
         if (lastMatches != null) {
             onMatches.accept(lastMatches);
         } else {
-            socket.send(new SocketRequest("/api/v1/games/getGames"));
+            send(new SocketRequest("/api/v1/games/getGames"));
         }
     }
 
@@ -324,13 +440,54 @@ public class MultiplayerEngine implements Client {
         listOnMatches.remove(onMatches);
     }
 
+    /**
+     * requests a page of the finished games of the player older than the game, from new to old
+     * @param rankType null for the games of all rank types
+     * */
+    public void requireArchivedGames(long playerId, long beforeId, int limit, RankType rankType,
+                                     Consumer<List<ArchivedGame>> onArchivedGames) {
+        this.onArchivedGames = onArchivedGames;
+        send(new SocketRequest("/api/v1/games/archive", String.valueOf(playerId), String.valueOf(beforeId),
+            String.valueOf(limit), rankType == null ? "" : rankType.name()));
+    }
+
+    /**
+     * requests the finished games of the player as PGN, from new to old,
+     * the text comes in parts and an empty part ends it
+     * */
+    public void requirePgn(long playerId, Consumer<String> onPgn) {
+        this.onPgn = onPgn;
+        send(new SocketRequest("/api/v1/games/pgn", String.valueOf(playerId)));
+    }
+
+    /**
+     * waits in the queue of the rank type for a player with a near rating,
+     * the match is started by the server and given once, then it is entered as usual
+     * */
+    public void joinQueue(RankType rankType, long timeByPlayer, Consumer<Match> onPaired,
+                          Consumer<String> onQueueError) {
+        if (!socket.isOpen()) {
+            onQueueError.accept("no connection");
+            return;
+        }
+        this.onPaired = onPaired;
+        this.onQueueError = onQueueError;
+        send(new SocketRequest("/api/v1/games/queue", rankType.name(), String.valueOf(timeByPlayer)));
+    }
+
+    public void leaveQueue() {
+        onPaired = null;
+        onQueueError = null;
+        send(new SocketRequest("/api/v1/games/leaveQueue"));
+    }
+
     public void removeMatch(long matchId, Consumer<String> onErrorRemoveMatch) {
         if (!socket.isOpen()) {
             onErrorRemoveMatch.accept("no connection");
             return;
         }
         this.onErrorRemoveMatch = onErrorRemoveMatch;
-        socket.send(new SocketRequest("/api/v1/games/removeMatch", String.valueOf(matchId)));
+        send(new SocketRequest("/api/v1/games/removeMatch", String.valueOf(matchId)));
     }
 
     public void createMatch(LocalMatch localMatch, Consumer<Match> onMatch,
@@ -353,7 +510,7 @@ public class MultiplayerEngine implements Client {
             localMatch.isRandomColor(),
             localMatch.getMatchData().getScenarios()[localMatch.getNumberScenario()]);
 
-        socket.send(new SocketRequest("/api/v1/games/create", gson.toJson(match)));
+        send(new SocketRequest("/api/v1/games/create", gson.toJson(match)));
     }
 
     public void enterMatch(long matchId, CallListener done, Consumer<String> error) {
@@ -364,23 +521,32 @@ public class MultiplayerEngine implements Client {
 
         onSuccessEnter = done;
         onErrorEnter = error;
-        socket.send(new SocketRequest("/api/v1/games/enter", String.valueOf(matchId)));
+        send(new SocketRequest("/api/v1/games/enter", String.valueOf(matchId)));
+    }
+
+    /**
+     * requests the number of the watchers of the match and their maximum,
+     * a match with the maximum is not entered by the other watchers
+     * */
+    public void requireWatchers(long matchId, Consumer<Pair<Long, Long>> onWatchers) {
+        this.onWatchers = onWatchers;
+        send(new SocketRequest("/api/v1/games/watchers", String.valueOf(matchId)));
     }
 
     public void exitMatch(long matchId) {
-        socket.send(new SocketRequest("/api/v1/games/exit", String.valueOf(matchId)));
+        send(new SocketRequest("/api/v1/games/exit", String.valueOf(matchId)));
     }
 
     public void makeMove(long matchId, String fen) {
-        socket.send(new SocketRequest("/api/v1/games/makeMove", String.valueOf(matchId), fen));
+        send(new SocketRequest("/api/v1/games/makeMove", String.valueOf(matchId), fen));
     }
 
     public void join(long matchId, Color color) {
-        socket.send(new SocketRequest("/api/v1/games/join", String.valueOf(matchId), color.toString()));
+        send(new SocketRequest("/api/v1/games/join", String.valueOf(matchId), color.toString()));
     }
 
     public void disjoin(long matchId) {
-        socket.send(new SocketRequest("/api/v1/games/disjoin", String.valueOf(matchId)));
+        send(new SocketRequest("/api/v1/games/disjoin", String.valueOf(matchId)));
     }
 
     public void setOnUpdateMatch(long matchId, Consumer<Match> onUpdate) {
@@ -389,12 +555,12 @@ public class MultiplayerEngine implements Client {
     }
 
     public void start(long matchId) {
-        socket.send(new SocketRequest("/api/v1/games/start", String.valueOf(matchId)));
+        send(new SocketRequest("/api/v1/games/start", String.valueOf(matchId)));
     }
 
     @Override
     public void sendGameLobbyMessage(long matchId, String message) {
-        socket.send(new SocketRequest("/api/v1/games/sendMessage", String.valueOf(matchId), message));
+        send(new SocketRequest("/api/v1/games/sendMessage", String.valueOf(matchId), message));
     }
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -413,6 +579,9 @@ public class MultiplayerEngine implements Client {
             @Override
             public boolean onOpen(WebSocket webSocket) {
                 Gdx.app.log("Websocket Open", webSocket.getUrl());
+                // the old servers do not know the hello and reply with an error
+                binary = false;
+                socket.send(new SocketRequest(WireProtocol.HELLO));
 
                 if (ChessConstants.chatView != null) {
                     ChessConstants.chatView.clearMessages();
@@ -432,6 +601,10 @@ public class MultiplayerEngine implements Client {
             @Override
             public boolean onClose(WebSocket webSocket, int closeCode, String reason) {
                 Gdx.app.log("Websocket Close", "reason - " + reason + ", closeCode - " + closeCode);
+                binary = false;
+                // the requested avatars are lost with the connection
+                avatarParts.clear();
+                RdApplication.postRunnable(onAvatars::clear);
                 if (ChessConstants.chatView != null) {
                     RdApplication.postRunnable(() ->
                         ChessConstants.chatView.updateLocalLobbyMessages("error"));
@@ -441,20 +614,7 @@ public class MultiplayerEngine implements Client {
 
             @Override
             public boolean onMessage(WebSocket webSocket, String packet) {
-                var socketRes = gson.fromJson(packet, SocketResult.class);
-                var request = socketRes.getRequest();
-
-                Gdx.app.log("Websocket onStringMessage", socketRes.getRequest()
-                    + ", status = " + socketRes.getStatus() + ", senderId = " + socketRes.getId());
-
-                if (request.startsWith("/api/v1/accounts")) {
-                    onMessageAccounts(request.replaceAll("/api/v1/accounts", ""), socketRes);
-                } else if (request.startsWith("/api/v1/mainChat")) {
-                    onMessageMainChat(request.replaceAll("/api/v1/mainChat", ""), socketRes);
-                } else if (request.startsWith("/api/v1/games")) {
-                    onMessageGames(request.replaceAll("/api/v1/games", ""), socketRes);
-                }
-
+                onResult(gson.fromJson(packet, SocketResult.class));
                 return false;
             }
 
@@ -468,6 +628,8 @@ public class MultiplayerEngine implements Client {
                         RequestStatus result = BinaryRequests.parseResultUpdateAvatar(packet);
                         if (result != RequestStatus.DONE) {
                             Gdx.app.error("Update avatar", result.toString());
+                        } else {
+                            avatarCache.remove(changedAvatarId);
                         }
                         RdApplication.postRunnable(() ->
                             onChangeAvatar.accept(result));
@@ -475,26 +637,13 @@ public class MultiplayerEngine implements Client {
                         break;
                     }
 
-                    case 1: {
-
-                        Pair<RequestStatus, Pair<Long, byte[]>> result = BinaryRequests.parseResultGetAvatar(packet);
-                        var avatarId = result.getValue().getKey();
-                        var avatar = result.getValue().getValue();
-
-                        if (result.getKey() != RequestStatus.DONE) {
-                            Gdx.app.error("Get avatar", "for id - " + result.getValue().getKey()
-                                + ", status - "+  result.getKey().toString());
-                            break;
-                        }
-
-                        RdApplication.postRunnable(() -> {
-                            List<Consumer<byte[]>> list = onAvatars.get(avatarId);
-                            for (Consumer<byte[]> onAvatar : list) {
-                                onAvatar.accept(avatar);
-                            }
-                            list.clear();
-                        });
+                    case 4: {
+                        onAvatarChunk(BinaryRequests.parseResultAvatarChunk(packet));
+                        break;
+                    }
 
+                    case WireProtocol.OPERATION: {
+                        onResult(WireProtocol.decodeResult(packet));
                         break;
                     }
 
@@ -533,12 +682,30 @@ public class MultiplayerEngine implements Client {
         launchConnectListener();
     }
 
+    /** routes the result of both formats, the prefixes are cut without regular expressions */
+    private void onResult(SocketResult socketRes) {
+        var request = socketRes.getRequest();
+
+        Gdx.app.log("Websocket onMessage", request
+            + ", status = " + socketRes.getStatus() + ", senderId = " + socketRes.getId());
+
+        if (request.startsWith(ACCOUNTS)) {
+            onMessageAccounts(request.substring(ACCOUNTS.length()), socketRes);
+        } else if (request.startsWith(MAIN_CHAT)) {
+            onMessageMainChat(request.substring(MAIN_CHAT.length()), socketRes);
+        } else if (request.startsWith(GAMES)) {
+            onMessageGames(request.substring(GAMES.length()), socketRes);
+        } else if (request.equals(WireProtocol.HELLO)) {
+            binary = socketRes.getStatus() == RequestStatus.DONE;
+        }
+    }
+
     private void onMessageAccounts(String reqAccounts, SocketResult socketRes) {
 
         // main chat update
         if (socketRes.getStatus() == RequestStatus.UPDATE_FROM_SERVER) {
 
-            parseJson(socketRes.getResult(), new TypeToken<Pair<List<Message>, Map<Long, Account>>>() {}.getType(),
+            parseResult(socketRes, new TypeToken<Pair<List<Message>, Map<Long, Account>>>() {}.getType(),
                 (Consumer<Pair<List<Message>, Map<Long, Account>>>) res -> {
                     lastMessages = res;
                     Collections.reverse(res.getKey());
@@ -553,7 +720,7 @@ public class MultiplayerEngine implements Client {
 
                 loginTime.set(-1);
                 if (socketRes.getStatus() == RequestStatus.DONE) {
-                    parseJson(socketRes.getResult(), Account.class, loginAccount, loginError);
+                    parseResult(socketRes, Account.class, loginAccount, loginError);
                 } else {
                     RdApplication.postRunnable(() ->
                         loginError.accept(socketRes.getStatus().toString()));
@@ -577,7 +744,7 @@ public class MultiplayerEngine implements Client {
             case "/see": {
 
                 if (socketRes.getStatus() == RequestStatus.DONE) {
-                    parseJson(socketRes.getResult(), Account.class, account -> {
+                    parseResult(socketRes, Account.class, account -> {
                         var callback = listGetAccount.remove(account.getId());
                         if (callback != null) {
                             callback.accept(account);
@@ -595,7 +762,7 @@ public class MultiplayerEngine implements Client {
             case "/seeAccounts": {
 
                 if (socketRes.getStatus() == RequestStatus.DONE) {
-                    parseJson(socketRes.getResult(), new TypeToken<List<Account>>() {}.getType(),
+                    parseResult(socketRes, new TypeToken<List<Account>>() {}.getType(),
                         (Consumer<List<Account>>) accounts -> {
 
                         Consumer<List<Account>> callback = listGetAccounts.remove(getId(accounts));
@@ -631,7 +798,7 @@ public class MultiplayerEngine implements Client {
 
                 if (socketRes.getStatus() == RequestStatus.DONE) {
 
-                    parseJson(socketRes.getResult(), new TypeToken<List<Account>>() {}.getType(),
+                    parseResult(socketRes, new TypeToken<List<Account>>() {}.getType(),
                         (Consumer<List<Account>>) accounts -> {
                             if (onSearch != null) {
                                 onSearch.accept(accounts);
@@ -649,7 +816,7 @@ public class MultiplayerEngine implements Client {
             case "/bullet": {
 
                 if (socketRes.getStatus() == RequestStatus.DONE){
-                    parseJson(socketRes.getResult(), new TypeToken<List<Account>>() {}.getType(),
+                    parseResult(socketRes, new TypeToken<List<Account>>() {}.getType(),
                         (Consumer<List<Account>>) accounts -> {
                             if (onBullet != null) {
                                 RdApplication.postRunnable(() -> onBullet.accept(accounts));
@@ -665,7 +832,7 @@ public class MultiplayerEngine implements Client {
             case "/blitz": {
 
                 if (socketRes.getStatus() == RequestStatus.DONE){
-                    parseJson(socketRes.getResult(), new TypeToken<List<Account>>() {}.getType(),
+                    parseResult(socketRes, new TypeToken<List<Account>>() {}.getType(),
                         (Consumer<List<Account>>) accounts -> {
                             if (onBullet != null) {
                                 RdApplication.postRunnable(() -> onBlitz.accept(accounts));
@@ -681,7 +848,7 @@ public class MultiplayerEngine implements Client {
             case "/rapid": {
 
                 if (socketRes.getStatus() == RequestStatus.DONE){
-                    parseJson(socketRes.getResult(), new TypeToken<List<Account>>() {}.getType(),
+                    parseResult(socketRes, new TypeToken<List<Account>>() {}.getType(),
                         (Consumer<List<Account>>) accounts -> {
                             if (onRapid != null) {
                                 RdApplication.postRunnable(() -> onRapid.accept(accounts));
@@ -697,7 +864,7 @@ public class MultiplayerEngine implements Client {
             case "/long": {
 
                 if (socketRes.getStatus() == RequestStatus.DONE){
-                    parseJson(socketRes.getResult(), new TypeToken<List<Account>>() {}.getType(),
+                    parseResult(socketRes, new TypeToken<List<Account>>() {}.getType(),
                         (Consumer<List<Account>>) accounts -> {
                             if (onLong != null) {
                                 RdApplication.postRunnable(() -> onLong.accept(accounts));
@@ -710,6 +877,20 @@ public class MultiplayerEngine implements Client {
                 break;
             }
 
+            case "/place": {
+
+                if (socketRes.getStatus() == RequestStatus.DONE) {
+                    parseResult(socketRes, new TypeToken<Pair<Long, List<Account>>>() {}.getType(),
+                        (Consumer<Pair<Long, List<Account>>>) place -> {
+                            if (onPlace != null) onPlace.accept(place);
+                        });
+                } else {
+                    Gdx.app.error("error get place", socketRes.getStatus().toString());
+                }
+
+                break;
+            }
+
             case "/punish": {
 
                 if (socketRes.getStatus() != RequestStatus.DONE) {
@@ -746,7 +927,7 @@ public class MultiplayerEngine implements Client {
             if (socketRes.getStatus() == RequestStatus.DONE
                 || socketRes.getStatus() == RequestStatus.UPDATE_FROM_SERVER) {
 
-                parseJson(socketRes.getResult(), new TypeToken<Pair<List<Message>, Map<Long, Account>>>() {}.getType(),
+                parseResult(socketRes, new TypeToken<Pair<List<Message>, Map<Long, Account>>>() {}.getType(),
                     (Consumer<Pair<List<Message>, Map<Long, Account>>>) res -> {
                         lastMessages = res;
                         Collections.reverse(res.getKey());
@@ -757,6 +938,19 @@ public class MultiplayerEngine implements Client {
                 Gdx.app.error("error read messages", socketRes.getStatus().toString());
             }
 
+        }
+        else if (reqMainChat.equals("/readBefore")) {
+
+            if (socketRes.getStatus() == RequestStatus.DONE) {
+                parseResult(socketRes, new TypeToken<Pair<List<Message>, Map<Long, Account>>>() {}.getType(),
+                    (Consumer<Pair<List<Message>, Map<Long, Account>>>) res -> {
+                        Collections.reverse(res.getKey());
+                        if (onMessagesBefore != null) onMessagesBefore.accept(res);
+                    });
+            } else {
+                Gdx.app.error("error read messages before", socketRes.getStatus().toString());
+            }
+
         }
         else if (reqMainChat.equals("/readLobby") || (socketRes.getStatus() == RequestStatus.UPDATE_FROM_SERVER
             && reqMainChat.equals("/sendLobby"))) {
@@ -764,7 +958,7 @@ public class MultiplayerEngine implements Client {
             if (socketRes.getStatus() == RequestStatus.DONE
                 || socketRes.getStatus() == RequestStatus.UPDATE_FROM_SERVER) {
 
-                parseJson(socketRes.getResult(), new TypeToken<List<LobbyMessage>>() {}.getType(),
+                parseResult(socketRes, new TypeToken<List<LobbyMessage>>() {}.getType(),
                     (Consumer<List<LobbyMessage>>) result -> {
                         lastMainLobby = result;
                         if (onMainLobby != null) {
@@ -823,7 +1017,7 @@ public class MultiplayerEngine implements Client {
             if (socketRes.getStatus() == RequestStatus.DONE) {
                 RdApplication.postRunnable(() -> {
                     if (onMainLobbyList != null) {
-                        parseJson(socketRes.getResult(), new TypeToken<List<LobbyMessage>>() {}.getType(),
+                        parseResult(socketRes, new TypeToken<List<LobbyMessage>>() {}.getType(),
                             onMainLobbyList);
                     }
                 });
@@ -842,8 +1036,23 @@ public class MultiplayerEngine implements Client {
 
         if (socketRes.getStatus() == RequestStatus.UPDATE_FROM_SERVER) {
 
-            if (socketRes.getResult().startsWith("[")) {
-                parseJson(socketRes.getResult(), new TypeToken<List<Match>>() {}.getType(),
+            if (reqGames.equals("/delta")) {
+                parseResult(socketRes, MatchDelta.class, this::applyDelta);
+            } else if (reqGames.equals("/listUpdate")) {
+                parseResult(socketRes, Match.class, this::updateMatchInList);
+            } else if (reqGames.equals("/queue")) {
+                parseResult(socketRes, Match.class, match -> {
+                    lastMatch = match;
+                    var listener = onPaired;
+                    onPaired = null;
+                    if (listener != null) listener.accept(match);
+                });
+            } else if (reqGames.equals("/listRemove")) {
+                long removedId = Long.parseLong(socketRes.getResult());
+                RdApplication.postRunnable(() -> removeMatchFromList(removedId));
+            } else if (socketRes.getValue() instanceof List
+                || socketRes.getResult() != null && socketRes.getResult().startsWith("[")) {
+                parseResult(socketRes, new TypeToken<List<Match>>() {}.getType(),
                     (Consumer<List<Match>>) matches -> {
                         lastMatches = matches;
                         Collections.reverse(lastMatches);
@@ -855,7 +1064,7 @@ public class MultiplayerEngine implements Client {
             } else {
 
                 // update current match
-                parseJson(socketRes.getResult(), Match.class,
+                parseResult(socketRes, Match.class,
                     match -> {
                     // > 1 sessions
                     if (match.getId() != matchId) return;
@@ -870,11 +1079,27 @@ public class MultiplayerEngine implements Client {
 
             switch (reqGames) {
 
+                case "/getMatch": {
+
+                    // the snapshot after a missed version of the changes
+                    if (socketRes.getStatus() == RequestStatus.DONE) {
+                        parseResult(socketRes, Match.class, match -> {
+                            if (match.getId() != matchId) return;
+                            lastMatch = match;
+                            if (onUpdateMatch != null) onUpdateMatch.accept(match);
+                        });
+                    } else {
+                        Gdx.app.error("error get match", socketRes.getStatus().toString());
+                    }
+
+                    break;
+                }
+
                 case "/getGames": {
 
                     if (socketRes.getStatus() == RequestStatus.DONE) {
 
-                        parseJson(socketRes.getResult(), new TypeToken<List<Match>>() {}.getType(),
+                        parseResult(socketRes, new TypeToken<List<Match>>() {}.getType(),
                             (Consumer<List<Match>>) matches -> {
                                 lastMatches = matches;
                                 Collections.reverse(lastMatches);
@@ -895,7 +1120,7 @@ public class MultiplayerEngine implements Client {
 
                     if (socketRes.getStatus() == RequestStatus.DONE) {
 
-                        parseJson(socketRes.getResult(), Match.class,
+                        parseResult(socketRes, Match.class,
                             match -> {
                                 lastMatch = match;
                                 if (createdMatch != null) {
@@ -1017,7 +1242,7 @@ public class MultiplayerEngine implements Client {
                     if (socketRes.getStatus() == RequestStatus.DONE) {
                         if (onGameLobbyList != null) {
                             RdApplication.postRunnable(() ->
-                                parseJson(socketRes.getResult(), new TypeToken<List<LobbyMessage>>() {}.getType(),
+                                parseResult(socketRes, new TypeToken<List<LobbyMessage>>() {}.getType(),
                                     onGameLobbyList));
                         }
                     } else {
@@ -1027,6 +1252,70 @@ public class MultiplayerEngine implements Client {
                     break;
                 }
 
+                case "/archive": {
+
+                    if (socketRes.getStatus() == RequestStatus.DONE) {
+                        if (onArchivedGames != null) {
+                            parseResult(socketRes, new TypeToken<List<ArchivedGame>>() {}.getType(),
+                                onArchivedGames);
+                        }
+                    } else {
+                        Gdx.app.error("error archived games", socketRes.getStatus().toString());
+                    }
+
+                    break;
+                }
+
+                case "/watchers": {
+
+                    if (socketRes.getStatus() == RequestStatus.DONE) {
+                        if (onWatchers != null) {
+                            parseResult(socketRes, new TypeToken<Pair<Long, Long>>() {}.getType(), onWatchers);
+                        }
+                    } else {
+                        Gdx.app.error("error watchers", socketRes.getStatus().toString());
+                    }
+
+                    break;
+                }
+
+                case "/queue": {
+
+                    if (socketRes.getStatus() != RequestStatus.DONE) {
+                        Gdx.app.error("error queue", socketRes.getStatus().toString());
+
+                        var listener = onQueueError;
+                        if (listener != null) RdApplication.postRunnable(() ->
+                            listener.accept(socketRes.getStatus().toString()));
+                    }
+
+                    break;
+                }
+
+                case "/leaveQueue": {
+                    if (socketRes.getStatus() != RequestStatus.DONE && socketRes.getStatus() != RequestStatus.NOT_FOUND) {
+                        Gdx.app.error("error leave queue", socketRes.getStatus().toString());
+                    }
+
+                    break;
+                }
+
+                case "/pgn": {
+
+                    if (socketRes.getStatus() == RequestStatus.DONE) {
+                        var part = socketRes.getResult() != null ? socketRes.getResult() : "";
+                        var listener = onPgn;
+                        if (listener != null) RdApplication.postRunnable(() -> listener.accept(part));
+                    } else {
+                        Gdx.app.error("error pgn", socketRes.getStatus().toString());
+                        // the export is denied or broken, it ends as the empty one
+                        var listener = onPgn;
+                        if (listener != null) RdApplication.postRunnable(() -> listener.accept(""));
+                    }
+
+                    break;
+                }
+
                 default: {
                     Gdx.app.error("client unknown games request", socketRes.getRequest());
                 }
@@ -1036,6 +1325,87 @@ public class MultiplayerEngine implements Client {
         }
     }
 
+    /**
+     * applies the changes to a copy of the current match, the listeners compare the old and the new match.
+     * If a version is missed, a full snapshot is requested
+     * */
+    private void applyDelta(MatchDelta delta) {
+        Match current = lastMatch;
+        if (delta.getMatchId() != matchId) return;
+        // already in the snapshot
+        if (current != null && current.getId() == matchId && delta.getVersion() <= current.getVersion()) return;
+
+        Match next = current != null ? gson.fromJson(gson.toJson(current), Match.class) : null;
+        if (next == null || !delta.applyTo(next)) {
+            Gdx.app.error("applyDelta", "missed version before " + delta.getVersion() + " of match " + matchId);
+            send(new SocketRequest("/api/v1/games/getMatch", String.valueOf(matchId)));
+            return;
+        }
+
+        lastMatch = next;
+        if (onUpdateMatch != null) onUpdateMatch.accept(next);
+    }
+
+    /** replaces or adds the match in the list of matches, the newest are first */
+    private void updateMatchInList(Match match) {
+        if (lastMatches == null) return;
+
+        List<Match> matches = new ArrayList<>(lastMatches);
+        int index = matches.indexOf(match);
+        if (index != -1) matches.set(index, match);
+        else matches.add(0, match);
+        updateMatchesList(matches);
+    }
+
+    private void removeMatchFromList(long removedId) {
+        if (lastMatches == null) return;
+
+        List<Match> matches = new ArrayList<>(lastMatches);
+        matches.removeIf(match -> match.getId() == removedId);
+        updateMatchesList(matches);
+    }
+
+    private void updateMatchesList(List<Match> matches) {
+        lastMatches = matches;
+        for (Consumer<List<Match>> onMatches : listOnMatches) {
+            onMatches.accept(matches);
+        }
+    }
+
+    /** sends the request in the format accepted by the server */
+    private void send(SocketRequest request) {
+        if (binary) socket.send(WireProtocol.encodeRequest(request));
+        else socket.send(request);
+    }
+
+    private <T> void parseResult(SocketResult socketRes, Class<T> clazz, Consumer<T> onResult) {
+        parseResult(socketRes, clazz, onResult, s -> {});
+    }
+
+    /** the binary results are already decoded, JSON is parsed */
+    private <T> void parseResult(SocketResult socketRes, Class<T> clazz, Consumer<T> onResult, Consumer<String> onError) {
+        if (socketRes.getValue() == null) {
+            parseJson(socketRes.getResult(), clazz, onResult, onError);
+        } else if (!clazz.isInstance(socketRes.getValue())) {
+            Gdx.app.error("parseResult", clazz + " != " + socketRes.getValue().getClass());
+            RdApplication.postRunnable(() -> onError.accept(clazz + " != " + socketRes.getValue().getClass()));
+        } else {
+            T data = clazz.cast(socketRes.getValue());
+            RdApplication.postRunnable(() -> onResult.accept(data));
+        }
+    }
+
+    private <T> void parseResult(SocketResult socketRes, Type type, Consumer<T> onResult) {
+        if (socketRes.getValue() == null) {
+            parseJson(socketRes.getResult(), type, onResult);
+        } else {
+            // the kind of the value is checked by the format, the type is erased
+            @SuppressWarnings("unchecked")
+            T data = (T) socketRes.getValue();
+            RdApplication.postRunnable(() -> onResult.accept(data));
+        }
+    }
+
     private <T> void parseJson(String json, Class<T> clazz, Consumer<T> onResult) {
         parseJson(json, clazz, onResult, s -> {});
     }
@@ -0,0 +1,456 @@
+package com.iapp.ageofchess.multiplayer;
+
+import com.iapp.lib.chess_engine.Move;
+import com.iapp.lib.chess_engine.Result;
+import com.iapp.lib.chess_engine.TypePiece;
+import com.iapp.lib.util.Pair;
+import com.iapp.lib.web.*;
+
+import java.util.*;
+
+/**
+ * Binary format of the socket requests and results, used instead of JSON
+ * when both sides support it
+ * @author Igor Ivanov
+ * @version 1.0
+ * <p>
+ * request: [0] - 3, varint route, [route 0: the path], varint count of parameters, parameters;
+ * result: [0] - 3, varint route, [route 0: the path], status, zigzag sender id, value.
+ * The routes are the indexes of the paths + 1, a path outside the table is sent as a string.
+ * The value starts with its kind, the entities are written field by field in a fixed order
+ * */
+public final class WireProtocol {
+
+    public static final byte OPERATION = 3;
+    /** the request switching the session to this format */
+    public static final String HELLO = "/api/v1/server/binary";
+
+    /** new paths are appended only, the routes of the old ones must not change */
+    private static final String[] PATHS = {
+        "/api/v1/accounts/online",
+        "/api/v1/accounts/login",
+        "/api/v1/accounts/signup",
+        "/api/v1/accounts/see",
+        "/api/v1/accounts/seeAccounts",
+        "/api/v1/accounts/change",
+        "/api/v1/accounts/getAllData",
+        "/api/v1/accounts/search",
+        "/api/v1/accounts/bullet",
+        "/api/v1/accounts/blitz",
+        "/api/v1/accounts/rapid",
+        "/api/v1/accounts/long",
+        "/api/v1/accounts/punish",
+        "/api/v1/accounts/makeInactive",
+        "/api/v1/mainChat/list",
+        "/api/v1/mainChat/readAll",
+        "/api/v1/mainChat/send",
+        "/api/v1/mainChat/remove",
+        "/api/v1/mainChat/sendLobby",
+        "/api/v1/mainChat/readLobby",
+        "/api/v1/games/list",
+        "/api/v1/games/getGames",
+        "/api/v1/games/getMatch",
+        "/api/v1/games/create",
+        "/api/v1/games/sendMessage",
+        "/api/v1/games/makeMove",
+        "/api/v1/games/enter",
+        "/api/v1/games/exit",
+        "/api/v1/games/join",
+        "/api/v1/games/disjoin",
+        "/api/v1/games/start",
+        "/api/v1/games/removeMatch",
+        "/api/v1/games/delta",
+        "/api/v1/games/listUpdate",
+        "/api/v1/games/listRemove",
+        "/api/v1/games/updateTime",
+        "/api/v1/server/restart",
+        "/api/v1/server/readData",
+        HELLO,
+        "/api/v1/mainChat/readBefore",
+        "/api/v1/games/archive",
+        "/api/v1/games/pgn",
+        "/api/v1/accounts/place",
+        "/api/v1/games/queue",
+        "/api/v1/games/leaveQueue",
+        "/api/v1/games/watchers"
+    };
+    private static final Map<String, Integer> ROUTES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < PATHS.length; i++) ROUTES.put(PATHS[i], i + 1);
+    }
+
+    /** the kinds of values */
+    private static final int NULL = 0, STRING = 1, LONG = 2, LIST = 3, MAP = 4, PAIR = 5,
+        MATCH = 6, MATCH_DELTA = 7, ACCOUNT = 8, LOBBY_MESSAGE = 9, MESSAGE = 10, ARCHIVED_GAME = 11;
+
+    private WireProtocol() {}
+
+    public static byte[] encodeRequest(SocketRequest request) {
+        var writer = new WireWriter();
+        writer.writeByte(OPERATION);
+        writePath(writer, request.getRequest());
+
+        String[] parameters = request.getParameters() != null ? request.getParameters() : new String[0];
+        writer.writeVarLong(parameters.length);
+        for (String parameter : parameters) writer.writeString(parameter);
+        return writer.toArray();
+    }
+
+    /** the sender id is not sent, the server sets it from the session */
+    public static SocketRequest decodeRequest(byte[] data) {
+        var reader = new WireReader(data, 1);
+        String path = readPath(reader);
+
+        String[] parameters = new String[(int) reader.readVarLong()];
+        for (int i = 0; i < parameters.length; i++) parameters[i] = reader.readString();
+        return new SocketRequest(path, parameters);
+    }
+
+    /**
+     * the value of the result is written if it is set, else the string result.
+     * @throws IllegalArgumentException if the value has no binary format
+     * */
+    public static byte[] encodeResult(SocketResult result) {
+        var writer = new WireWriter(128);
+        writer.writeByte(OPERATION);
+        writePath(writer, result.getRequest());
+        writer.writeEnum(result.getStatus());
+        writer.writeLong(result.getId());
+        writeValue(writer, result.getValue() != null ? result.getValue() : result.getResult());
+        return writer.toArray();
+    }
+
+    /** a string value is the result, the other values are set as the value of the result */
+    public static SocketResult decodeResult(byte[] data) {
+        var reader = new WireReader(data, 1);
+        String path = readPath(reader);
+        RequestStatus status = reader.readEnum(RequestStatus.values());
+        long id = reader.readLong();
+        Object value = readValue(reader);
+
+        if (value instanceof String) return new SocketResult(status, (String) value, null, path, id);
+        return new SocketResult(status, null, value, path, id);
+    }
+
+    private static void writePath(WireWriter writer, String path) {
+        Integer route = ROUTES.get(path);
+        writer.writeVarLong(route != null ? route : 0);
+        if (route == null) writer.writeString(path);
+    }
+
+    private static String readPath(WireReader reader) {
+        int route = (int) reader.readVarLong();
+        if (route == 0) return reader.readString();
+        if (route > PATHS.length) throw new IllegalArgumentException("unknown route " + route);
+        return PATHS[route - 1];
+    }
+
+    // values ----------------------------------------------------------------------------------------------------------
+
+    private static void writeValue(WireWriter writer, Object value) {
+        if (value == null) {
+            writer.writeVarLong(NULL);
+        } else if (value instanceof String) {
+            writer.writeVarLong(STRING).writeString((String) value);
+        } else if (value instanceof Long) {
+            writer.writeVarLong(LONG).writeLong((Long) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            writer.writeVarLong(LIST).writeVarLong(list.size());
+            for (Object element : list) writeValue(writer, element);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            writer.writeVarLong(MAP).writeVarLong(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(writer, entry.getKey());
+                writeValue(writer, entry.getValue());
+            }
+        } else if (value instanceof Pair) {
+            Pair<?, ?> pair = (Pair<?, ?>) value;
+            writer.writeVarLong(PAIR);
+            writeValue(writer, pair.getKey());
+            writeValue(writer, pair.getValue());
+        } else if (value instanceof Match) {
+            writeMatch(writer.writeVarLong(MATCH), (Match) value);
+        } else if (value instanceof MatchDelta) {
+            ((MatchDelta) value).write(writer.writeVarLong(MATCH_DELTA));
+        } else if (value instanceof Account) {
+            writeAccount(writer.writeVarLong(ACCOUNT), (Account) value);
+        } else if (value instanceof LobbyMessage) {
+            writeLobbyMessage(writer.writeVarLong(LOBBY_MESSAGE), (LobbyMessage) value);
+        } else if (value instanceof Message) {
+            writeMessage(writer.writeVarLong(MESSAGE), (Message) value);
+        } else if (value instanceof ArchivedGame) {
+            writeArchivedGame(writer.writeVarLong(ARCHIVED_GAME), (ArchivedGame) value);
+        } else {
+            throw new IllegalArgumentException("no binary format for " + value.getClass());
+        }
+    }
+
+    private static Object readValue(WireReader reader) {
+        int kind = (int) reader.readVarLong();
+        switch (kind) {
+            case NULL: return null;
+            case STRING: return reader.readString();
+            case LONG: return reader.readLong();
+            case LIST: {
+                int size = (int) reader.readVarLong();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) list.add(readValue(reader));
+                return list;
+            }
+            case MAP: {
+                int size = (int) reader.readVarLong();
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) map.put(readValue(reader), readValue(reader));
+                return map;
+            }
+            case PAIR: return new Pair<>(readValue(reader), readValue(reader));
+            case MATCH: return readMatch(reader);
+            case MATCH_DELTA: return MatchDelta.read(reader);
+            case ACCOUNT: return readAccount(reader);
+            case LOBBY_MESSAGE: return readLobbyMessage(reader);
+            case MESSAGE: return readMessage(reader);
+            case ARCHIVED_GAME: return readArchivedGame(reader);
+            default: throw new IllegalArgumentException("unknown kind of value " + kind);
+        }
+    }
+
+    // entities --------------------------------------------------------------------------------------------------------
+
+    private static void writeMatch(WireWriter writer, Match match) {
+        writer.writeLong(match.getId());
+        writer.writeVarLong(match.getVersion());
+        writer.writeString(match.getName());
+        writer.writeLong(match.getSponsored());
+        writeIds(writer, match.getEntered());
+        writer.writeLong(match.getCreatorId());
+        writer.writeLong(match.getWhitePlayerId());
+        writer.writeLong(match.getBlackPlayerId());
+        writer.writeLong(match.getTimeByWhite());
+        writer.writeLong(match.getTimeByBlack());
+        writer.writeLong(match.getTimeByTurn());
+        writer.writeEnum(match.getTurnMode());
+        writer.writeInt(match.getTurn());
+        writer.writeInt(match.getMaxTurn());
+        writer.writeBoolean(match.isStarted());
+        writer.writeEnum(match.getResult());
+        writer.writeString(match.getFen());
+        writeMoves(writer, match.getMoves());
+        writer.writeLong(match.getFinishTime());
+        writer.writeLong(match.getCreatedTime());
+        writer.writeEnum(match.getRankType());
+        writer.writeDouble(match.getRankPlus());
+        writer.writeDouble(match.getRankMinus());
+        writer.writeBoolean(match.isRandom());
+        writeLobbyMessages(writer, match.getLobbyMessages());
+        writer.writeBoolean(match.isAlternately());
+    }
+
+    private static Match readMatch(WireReader reader) {
+        var match = new Match();
+        match.setId(reader.readLong());
+        match.setVersion(reader.readVarLong());
+        match.setName(reader.readString());
+        match.setSponsored(reader.readLong());
+        match.getEntered().addAll(readIds(reader));
+        match.setCreatorId(reader.readLong());
+        match.setWhitePlayerId(reader.readLong());
+        match.setBlackPlayerId(reader.readLong());
+        match.setTimeByWhite(reader.readLong());
+        match.setTimeByBlack(reader.readLong());
+        match.setTimeByTurn(reader.readLong());
+        match.setTurnMode(reader.readEnum(TurnMode.values()));
+        match.setTurn(reader.readInt());
+        match.setMaxTurn(reader.readInt());
+        match.setStarted(reader.readBoolean());
+        match.setResult(reader.readEnum(Result.values()));
+        match.setFen(reader.readString());
+        match.getMoves().addAll(readMoves(reader));
+        match.setFinishTime(reader.readLong());
+        match.setCreatedTime(reader.readLong());
+        match.setRankType(reader.readEnum(RankType.values()));
+        match.setRankPlus(reader.readDouble());
+        match.setRankMinus(reader.readDouble());
+        match.setRandom(reader.readBoolean());
+        match.getLobbyMessages().addAll(readLobbyMessages(reader));
+        match.setAlternately(reader.readBoolean());
+        return match;
+    }
+
+    private static void writeAccount(WireWriter writer, Account account) {
+        writer.writeLong(account.getId());
+        writer.writeLong(account.getCoins());
+        writer.writeDouble(account.getBullet());
+        writer.writeDouble(account.getBlitz());
+        writer.writeDouble(account.getRapid());
+        writer.writeDouble(account.getLongRank());
+        writer.writeString(account.getUsername());
+        writer.writeString(account.getFullName());
+        writer.writeString(account.getPassword());
+        writer.writeString(account.getCountry());
+        writer.writeEnum(account.getGender());
+        writer.writeString(account.getQuote());
+        writer.writeLong(account.getDateBirth());
+        writer.writeEnum(account.getType());
+        writeLogin(writer, account.getLogin());
+        writer.writeVarLong(account.getFlags().size());
+        for (Flag flag : account.getFlags()) writer.writeEnum(flag);
+        writer.writeLong(account.getCreated());
+        writer.writeBoolean(account.isOnlineNow());
+    }
+
+    private static Account readAccount(WireReader reader) {
+        var account = new Account();
+        account.setId(reader.readLong());
+        account.setCoins(reader.readLong());
+        account.setBullet(reader.readDouble());
+        account.setBlitz(reader.readDouble());
+        account.setRapid(reader.readDouble());
+        account.setLongRank(reader.readDouble());
+        account.setUsername(reader.readString());
+        account.setFullName(reader.readString());
+        account.setPassword(reader.readString());
+        account.setCountry(reader.readString());
+        account.setGender(reader.readEnum(Gender.values()));
+        account.setQuote(reader.readString());
+        account.setDateBirth(reader.readLong());
+        account.setType(reader.readEnum(AccountType.values()));
+        account.setLogin(readLogin(reader));
+        int countFlags = (int) reader.readVarLong();
+        for (int i = 0; i < countFlags; i++) {
+            Flag flag = reader.readEnum(Flag.values());
+            if (flag != null) account.getFlags().add(flag);
+        }
+        account.setCreated(reader.readLong());
+        account.setOnlineNow(reader.readBoolean());
+        return account;
+    }
+
+    private static void writeLogin(WireWriter writer, Login login) {
+        writer.writeBoolean(login != null);
+        if (login == null) return;
+        writer.writeString(login.getIp());
+        writer.writeLong(login.getTime());
+        writer.writeString(login.getLocaleAppLang());
+        writer.writeString(login.getLocaleSysLang());
+        writer.writeString(login.getLocaleSysCountry());
+        writer.writeString(login.getSystem());
+    }
+
+    private static Login readLogin(WireReader reader) {
+        if (!reader.readBoolean()) return null;
+        String ip = reader.readString();
+        long time = reader.readLong();
+        var login = new Login(ip, reader.readString(), reader.readString(),
+            reader.readString(), reader.readString());
+        login.setTime(time);
+        return login;
+    }
+
+    private static void writeLobbyMessage(WireWriter writer, LobbyMessage message) {
+        writer.writeLong(message.getId());
+        writer.writeLong(message.getSenderId());
+        writer.writeString(message.getText());
+    }
+
+    private static LobbyMessage readLobbyMessage(WireReader reader) {
+        return new LobbyMessage(reader.readLong(), reader.readLong(), reader.readString());
+    }
+
+    private static void writeMessage(WireWriter writer, Message message) {
+        writer.writeLong(message.getId());
+        writer.writeBoolean(message.isPinned());
+        writer.writeLong(message.getSenderId());
+        writer.writeLong(message.getTime());
+        writer.writeString(message.getText());
+    }
+
+    private static Message readMessage(WireReader reader) {
+        var message = new Message();
+        message.setId(reader.readLong());
+        message.setPinned(reader.readBoolean());
+        message.setSenderId(reader.readLong());
+        message.setTime(reader.readLong());
+        message.setText(reader.readString());
+        return message;
+    }
+
+    private static void writeArchivedGame(WireWriter writer, ArchivedGame game) {
+        writer.writeLong(game.getId());
+        writer.writeLong(game.getWhitePlayerId());
+        writer.writeLong(game.getBlackPlayerId());
+        writer.writeEnum(game.getRankType());
+        writer.writeEnum(game.getResult());
+        writer.writeString(game.getStartFen());
+        writeMoves(writer, game.getMoves());
+        writer.writeLong(game.getFinishTime());
+        writer.writeDouble(game.getRankPlus());
+        writer.writeDouble(game.getRankMinus());
+    }
+
+    private static ArchivedGame readArchivedGame(WireReader reader) {
+        var game = new ArchivedGame();
+        game.setId(reader.readLong());
+        game.setWhitePlayerId(reader.readLong());
+        game.setBlackPlayerId(reader.readLong());
+        game.setRankType(reader.readEnum(RankType.values()));
+        game.setResult(reader.readEnum(Result.values()));
+        game.setStartFen(reader.readString());
+        game.setMoves(readMoves(reader));
+        game.setFinishTime(reader.readLong());
+        game.setRankPlus(reader.readDouble());
+        game.setRankMinus(reader.readDouble());
+        return game;
+    }
+
+    // fields of the entities ------------------------------------------------------------------------------------------
+
+    /** each move is a varint of the four squares, each from -1 to 8, and the piece of the promotion */
+    static void writeMoves(WireWriter writer, List<Pair<Move, TypePiece>> moves) {
+        writer.writeVarLong(moves.size());
+        for (Pair<Move, TypePiece> pair : moves) {
+            Move move = pair.getKey();
+            writer.writeVarLong(move == null ? 0 : 1 + ((move.getPieceX() + 1)
+                | (move.getPieceY() + 1) << 4 | (move.getMoveX() + 1) << 8 | (move.getMoveY() + 1) << 12));
+            writer.writeEnum(pair.getValue());
+        }
+    }
+
+    static List<Pair<Move, TypePiece>> readMoves(WireReader reader) {
+        int size = (int) reader.readVarLong();
+        List<Pair<Move, TypePiece>> moves = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int packed = (int) reader.readVarLong() - 1;
+            Move move = packed == -1 ? null : Move.valueOf((packed & 15) - 1, (packed >>> 4 & 15) - 1,
+                (packed >>> 8 & 15) - 1, (packed >>> 12 & 15) - 1);
+            moves.add(new Pair<>(move, reader.readEnum(TypePiece.values())));
+        }
+        return moves;
+    }
+
+    static void writeIds(WireWriter writer, List<Long> ids) {
+        writer.writeVarLong(ids.size());
+        for (long id : ids) writer.writeLong(id);
+    }
+
+    static List<Long> readIds(WireReader reader) {
+        int size = (int) reader.readVarLong();
+        List<Long> ids = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) ids.add(reader.readLong());
+        return ids;
+    }
+
+    static void writeLobbyMessages(WireWriter writer, List<LobbyMessage> messages) {
+        writer.writeVarLong(messages.size());
+        for (LobbyMessage message : messages) writeLobbyMessage(writer, message);
+    }
+
+    static List<LobbyMessage> readLobbyMessages(WireReader reader) {
+        int size = (int) reader.readVarLong();
+        List<LobbyMessage> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) messages.add(readLobbyMessage(reader));
+        return messages;
+    }
+}
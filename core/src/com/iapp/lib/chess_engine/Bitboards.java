@@ -0,0 +1,166 @@
+package com.iapp.lib.chess_engine;
+
+/**
+ * Precomputed attack tables for the bitboard representation.
+ * A square is encoded as y * 8 + x in the coordinates of the game matrix,
+ * so the board orientation (upper color) is never baked into the tables.
+ * Sliding pieces use magic bitboards, the magic numbers are generated offline.
+ * @version 1.0
+ * @author Igor Ivanov
+ * */
+final class Bitboards {
+
+    /** pawns moving to y = 7 (upper pieces) */
+    static final int DOWN = 0;
+    /** pawns moving to y = 0 (lower pieces) */
+    static final int UP = 1;
+
+    static final long[] KNIGHT_ATTACKS = new long[64];
+    static final long[] KING_ATTACKS = new long[64];
+    /** pawn capture squares by direction and square */
+    static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    private static final long[] ROOK_MAGICS = {
+            0x0480053081214000L, 0x0040100040002001L, 0x6080200080100008L, 0x0200082004411200L,
+            0x0200102008040200L, 0x1100240028210012L, 0x1080008001000200L, 0x0100020028488100L,
+            0x0001800220400086L, 0x2488804000802004L, 0x0C00801000200081L, 0x201C801000080080L,
+            0x0441000800100500L, 0x00A0808002000400L, 0x0125000402000100L, 0x0001002200409100L,
+            0x0280004020004000L, 0x5110084020004000L, 0x0001050020024011L, 0x0002020020081040L,
+            0x0800050008010010L, 0x81C0808002000400L, 0x8010808001000200L, 0x000006000100408CL,
+            0x0280400080008020L, 0x3000500040002000L, 0x8400200080801000L, 0x80A01001000D0020L,
+            0x900C001101000800L, 0x0110040080800200L, 0x1001000100040200L, 0x0060040200008041L,
+            0x4480804000800038L, 0x0040002001804080L, 0x2010882000801000L, 0x0000080282801000L,
+            0x0200080080800400L, 0x0206000400808002L, 0x2000020001010004L, 0x1014042042000091L,
+            0x0200208040008000L, 0x0040201000404002L, 0x0244200100110041L, 0x0041019000090020L,
+            0x0A28001100850008L, 0x0020020004008080L, 0x1001220108140010L, 0x8A0400408106000CL,
+            0x0000220100508200L, 0x6040048049003100L, 0x0000200011024300L, 0x0000900100082500L,
+            0x0870040008008080L, 0x0850800600040180L, 0x0006008104480200L, 0x1800040108B04200L,
+            0xD12C201080010341L, 0x0101042040008013L, 0x2801004008200273L, 0x001900614C500009L,
+            0x0202004461500802L, 0x0002001008040102L, 0x10001028B1080604L, 0x000D000040803201L
+    };
+
+    private static final long[] BISHOP_MAGICS = {
+            0x6460220208002480L, 0x8308C80104002010L, 0xB408121042008000L, 0x0C48205040021000L,
+            0x1002021000020000L, 0x0840882440802010L, 0x0080809008204040L, 0x00001402011028A0L,
+            0x088EC002040400B0L, 0x0005500608087180L, 0x0000A20089020010L, 0x000010908602C060L,
+            0x2810420210014000L, 0x0040024802400080L, 0x0408484230100840L, 0x00020A08A4011800L,
+            0x0020003062062848L, 0x0002504510440102L, 0xA23005310C008810L, 0x0048000104110044L,
+            0x010A000422010008L, 0x2021000200A0A400L, 0x0004400208124801L, 0x8000280480841000L,
+            0x8110100206600229L, 0x0814204102080909L, 0x00A0300002040840L, 0x8808080000202020L,
+            0x04040400C0410040L, 0x108404200C101400L, 0x01C1012000480802L, 0xA020520040420200L,
+            0x2404100800062001L, 0x0002014400208804L, 0x0100805000410402L, 0x0241420080080080L,
+            0x8040040444030100L, 0x0F50064242020110L, 0x0001020200888818L, 0x0801021200018069L,
+            0x2803086094A01040L, 0x2440482804444800L, 0x0002002024200804L, 0x880101420800C084L,
+            0x40A4182008200900L, 0x8420008102041040L, 0x00901001304A0508L, 0x0450021448519100L,
+            0x0402021002080A10L, 0x000D01009084020CL, 0x20800A0046480040L, 0x0000083020880220L,
+            0x0001010803040142L, 0x0000081001520000L, 0x0040100420809000L, 0x0022900428808202L,
+            0x0000404044202010L, 0x1008004044108804L, 0x1008305509415000L, 0x1000840400208840L,
+            0x0810260A12020201L, 0x3000A04410020210L, 0x0903102082008204L, 0x490808088808C308L
+    };
+
+    private static final int[][] ROOK_DIRECTIONS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    private static final long[] ROOK_MASKS = new long[64];
+    private static final long[] BISHOP_MASKS = new long[64];
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    private static final long[][] ROOK_TABLE = new long[64][];
+    private static final long[][] BISHOP_TABLE = new long[64][];
+
+    static {
+        for (int sq = 0; sq < 64; sq++) {
+            int x = sq & 7, y = sq >>> 3;
+
+            KNIGHT_ATTACKS[sq] = squares(x, y, new int[][] {
+                    {1, 2}, {-1, 2}, {1, -2}, {-1, -2}, {2, 1}, {2, -1}, {-2, 1}, {-2, -1}});
+            KING_ATTACKS[sq] = squares(x, y, new int[][] {
+                    {-1, 0}, {-1, -1}, {0, -1}, {1, -1}, {1, 0}, {1, 1}, {0, 1}, {-1, 1}});
+            PAWN_ATTACKS[DOWN][sq] = squares(x, y, new int[][] {{-1, 1}, {1, 1}});
+            PAWN_ATTACKS[UP][sq] = squares(x, y, new int[][] {{-1, -1}, {1, -1}});
+
+            ROOK_MASKS[sq] = relevantMask(x, y, ROOK_DIRECTIONS);
+            BISHOP_MASKS[sq] = relevantMask(x, y, BISHOP_DIRECTIONS);
+            ROOK_SHIFTS[sq] = 64 - Long.bitCount(ROOK_MASKS[sq]);
+            BISHOP_SHIFTS[sq] = 64 - Long.bitCount(BISHOP_MASKS[sq]);
+            ROOK_TABLE[sq] = fillTable(x, y, ROOK_MASKS[sq], ROOK_MAGICS[sq], ROOK_SHIFTS[sq], ROOK_DIRECTIONS);
+            BISHOP_TABLE[sq] = fillTable(x, y, BISHOP_MASKS[sq], BISHOP_MAGICS[sq], BISHOP_SHIFTS[sq], BISHOP_DIRECTIONS);
+        }
+    }
+
+    private Bitboards() {}
+
+    static long rookAttacks(int sq, long occupied) {
+        return ROOK_TABLE[sq][(int) (((occupied & ROOK_MASKS[sq]) * ROOK_MAGICS[sq]) >>> ROOK_SHIFTS[sq])];
+    }
+
+    static long bishopAttacks(int sq, long occupied) {
+        return BISHOP_TABLE[sq][(int) (((occupied & BISHOP_MASKS[sq]) * BISHOP_MAGICS[sq]) >>> BISHOP_SHIFTS[sq])];
+    }
+
+    static long queenAttacks(int sq, long occupied) {
+        return rookAttacks(sq, occupied) | bishopAttacks(sq, occupied);
+    }
+
+    static int square(int x, int y) {
+        return (y << 3) | x;
+    }
+
+    static long bit(int x, int y) {
+        return 1L << square(x, y);
+    }
+
+    static boolean onBoard(int x, int y) {
+        return x >= 0 && x < 8 && y >= 0 && y < 8;
+    }
+
+    private static long squares(int x, int y, int[][] offsets) {
+        long result = 0;
+        for (int[] offset : offsets) {
+            int toX = x + offset[0], toY = y + offset[1];
+            if (onBoard(toX, toY)) result |= bit(toX, toY);
+        }
+        return result;
+    }
+
+    /** squares that can block a slider, the edges of the board are never blockers */
+    private static long relevantMask(int x, int y, int[][] directions) {
+        long mask = 0;
+        for (int[] direction : directions) {
+            int toX = x + direction[0], toY = y + direction[1];
+            while (onBoard(toX + direction[0], toY + direction[1])) {
+                mask |= bit(toX, toY);
+                toX += direction[0];
+                toY += direction[1];
+            }
+        }
+        return mask;
+    }
+
+    private static long slidingAttacks(int x, int y, long occupied, int[][] directions) {
+        long attacks = 0;
+        for (int[] direction : directions) {
+            int toX = x + direction[0], toY = y + direction[1];
+            while (onBoard(toX, toY)) {
+                attacks |= bit(toX, toY);
+                if ((occupied & bit(toX, toY)) != 0) break;
+                toX += direction[0];
+                toY += direction[1];
+            }
+        }
+        return attacks;
+    }
+
+    private static long[] fillTable(int x, int y, long mask, long magic, int shift, int[][] directions) {
+        long[] table = new long[1 << (64 - shift)];
+
+        // enumerates all subsets of the mask (Carry-Rippler)
+        long occupied = 0;
+        do {
+            table[(int) ((occupied * magic) >>> shift)] = slidingAttacks(x, y, occupied, directions);
+            occupied = (occupied - mask) & mask;
+        } while (occupied != 0);
+
+        return table;
+    }
+}
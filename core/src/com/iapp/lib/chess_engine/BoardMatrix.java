@@ -39,6 +39,11 @@ public class BoardMatrix {
     static final int ID_SIZE = 8;
     static final int INDENT_WALL = 2;
 
+    private static final int FLAGS_SIZE = 6;
+    private static final int WHITE_OCCUPIED = 17;
+    private static final int BLACK_OCCUPIED = 18;
+    private static final int BITBOARDS_SIZE = 19;
+
     private static final Map<Character, Byte> fenByPieces = new HashMap<>();
 
     static {
@@ -71,6 +76,15 @@ public class BoardMatrix {
      * 5 - rightBlackRookMadeMove
      * */
     private final BitSet flags;
+    /**
+     * Bitboards of the pieces by type + 8 and the occupancy of both colors,
+     * derived from the matrix, so they are not serialized and are rebuilt on demand
+     * */
+    private transient long[] bitboards;
+    /** the Zobrist key of the pieces, maintained together with the bitboards */
+    private transient long key;
+    /** the sum of Evaluation.SCORES of the pieces, maintained together with the bitboards */
+    private transient int score;
 
     BoardMatrix(Color upper, String fen) {
         flags = new BitSet();
@@ -123,30 +137,26 @@ public class BoardMatrix {
             flags.set(i, true);
         }
 
+        // the flags store the made moves, so each castling right clears the flags of its king and rook
         if (tokens.length > 2) {
-            if (!tokens[2].contains("Q") && !tokens[2].contains("K")) {
+            if (tokens[2].contains("Q")) {
                 flags.set(0, false);
+                flags.set(2, false);
+            }
 
-            } else {
-                if (!tokens[2].contains("Q")) {
-                    flags.set(2, false);
-                }
-
-                if (!tokens[2].contains("K")) {
-                    flags.set(3, false);
-                }
+            if (tokens[2].contains("K")) {
+                flags.set(0, false);
+                flags.set(3, false);
             }
 
-            if (!tokens[2].contains("q") && !tokens[2].contains("k")) {
+            if (tokens[2].contains("q")) {
                 flags.set(1, false);
-            } else {
-                if (!tokens[2].contains("q")) {
-                    flags.set(4, false);
-                }
+                flags.set(4, false);
+            }
 
-                if (!tokens[2].contains("k")) {
-                    flags.set(5, false);
-                }
+            if (tokens[2].contains("k")) {
+                flags.set(1, false);
+                flags.set(5, false);
             }
         }
 
@@ -218,6 +228,21 @@ public class BoardMatrix {
         return flags.get(5);
     }
 
+    /** returns the flags as bits of an int, in the order of the bitmask */
+    int getFlags() {
+        int bits = 0;
+        for (int i = 0; i < FLAGS_SIZE; i++) {
+            if (flags.get(i)) bits |= 1 << i;
+        }
+        return bits;
+    }
+
+    void setFlags(int bits) {
+        for (int i = 0; i < FLAGS_SIZE; i++) {
+            flags.set(i, (bits & (1 << i)) != 0);
+        }
+    }
+
     void updateColor(Color upper) {
         if (this.upper == upper) return;
         this.upper = upper;
@@ -252,6 +277,31 @@ public class BoardMatrix {
         return getPiece(move.getPieceX(), move.getPieceY());
     }
 
+    long getPieces(byte piece) {
+        return bitboards()[piece + 8];
+    }
+
+    long getOccupied(Color color) {
+        return bitboards()[color == Color.WHITE ? WHITE_OCCUPIED : BLACK_OCCUPIED];
+    }
+
+    /** returns the Zobrist key of the pieces and the castling flags */
+    long getKey() {
+        bitboards();
+        return key ^ Zobrist.FLAGS[getFlags()];
+    }
+
+    /** returns the material and piece-square score of the board, white is positive */
+    int getScore() {
+        bitboards();
+        return score;
+    }
+
+    long getOccupied() {
+        long[] bitboards = bitboards();
+        return bitboards[WHITE_OCCUPIED] | bitboards[BLACK_OCCUPIED];
+    }
+
     void setPiece(int pieceX, int pieceY, int x, int y) {
         if (getPiece(pieceX, pieceY) == WHITE_KING) flags.set(0, true);
         if (getPiece(pieceX, pieceY) == BLACK_KING) flags.set(1, true);
@@ -260,16 +310,36 @@ public class BoardMatrix {
         if (pieceX == 0 && getPiece(pieceX, pieceY) == BLACK_ROOK) flags.set(4, true);
         if (pieceX == 7 && getPiece(pieceX, pieceY) == BLACK_ROOK) flags.set(5, true);
 
+        if (bitboards != null) {
+            removeBit(x, y, getPiece(x, y));
+            addBit(x, y, getPiece(pieceX, pieceY));
+        }
+
         id[y][x] = id[pieceY][pieceX];
         matrix[y + INDENT_WALL][x + INDENT_WALL] = matrix[pieceY + INDENT_WALL][pieceX + INDENT_WALL];
     }
 
     void updatePiece(int pieceX, int pieceY, byte piece) {
         if (piece == CAGE) throw new IllegalArgumentException();
+        if (bitboards != null) {
+            removeBit(pieceX, pieceY, getPiece(pieceX, pieceY));
+            addBit(pieceX, pieceY, piece);
+        }
         matrix[pieceY + INDENT_WALL][pieceX + INDENT_WALL] = piece;
     }
 
+    /** puts the piece with the id back to the square, used for undoing moves */
+    void restore(int x, int y, byte piece, byte pieceId) {
+        if (bitboards != null) {
+            removeBit(x, y, getPiece(x, y));
+            addBit(x, y, piece);
+        }
+        id[y][x] = pieceId;
+        matrix[y + INDENT_WALL][x + INDENT_WALL] = piece;
+    }
+
     void setCage(int x, int y) {
+        if (bitboards != null) removeBit(x, y, getPiece(x, y));
         id[y][x] = -1;
         matrix[y + INDENT_WALL][x + INDENT_WALL] = CAGE;
     }
@@ -285,7 +355,45 @@ public class BoardMatrix {
             newId[i] = id[i].clone();
         }
 
-        return new BoardMatrix(upper, newMatrix, newId, flags);
+        BoardMatrix clone = new BoardMatrix(upper, newMatrix, newId, flags);
+        if (bitboards != null) {
+            clone.bitboards = bitboards.clone();
+            clone.key = key;
+            clone.score = score;
+        }
+        return clone;
+    }
+
+    private long[] bitboards() {
+        if (bitboards == null) {
+            bitboards = new long[BITBOARDS_SIZE];
+            key = 0;
+            score = 0;
+            for (int y = 0; y < ID_SIZE; y++) {
+                for (int x = 0; x < ID_SIZE; x++) {
+                    addBit(x, y, getPiece(x, y));
+                }
+            }
+        }
+        return bitboards;
+    }
+
+    private void addBit(int x, int y, byte piece) {
+        if (piece == CAGE) return;
+        long bit = Bitboards.bit(x, y);
+        bitboards[piece + 8] |= bit;
+        bitboards[piece < 0 ? WHITE_OCCUPIED : BLACK_OCCUPIED] |= bit;
+        key ^= Zobrist.PIECES[piece + 8][Bitboards.square(x, y)];
+        score += Evaluation.SCORES[piece + 8][Bitboards.square(x, y)];
+    }
+
+    private void removeBit(int x, int y, byte piece) {
+        if (piece == CAGE) return;
+        long bit = ~Bitboards.bit(x, y);
+        bitboards[piece + 8] &= bit;
+        bitboards[piece < 0 ? WHITE_OCCUPIED : BLACK_OCCUPIED] &= bit;
+        key ^= Zobrist.PIECES[piece + 8][Bitboards.square(x, y)];
+        score -= Evaluation.SCORES[piece + 8][Bitboards.square(x, y)];
     }
 
     private void flipBoard() {
@@ -309,9 +417,17 @@ public class BoardMatrix {
         line3 = id[2];
         line4 = id[3];
 
+        id[0] = id[7];
+        id[1] = id[6];
+        id[2] = id[5];
+        id[3] = id[4];
+
         id[7] = line1;
         id[6] = line2;
         id[5] = line3;
         id[4] = line4;
+
+        // the pieces are on other squares now, so the key and the score are rebuilt too
+        bitboards = null;
     }
 }
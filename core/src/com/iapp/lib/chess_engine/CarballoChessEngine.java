@@ -2,7 +2,9 @@ package com.iapp.lib.chess_engine;
 
 import com.alonsoruibal.chess.Config;
 import com.alonsoruibal.chess.search.SearchEngine;
+import com.alonsoruibal.chess.search.SearchObserver;
 import com.alonsoruibal.chess.search.SearchParameters;
+import com.alonsoruibal.chess.search.SearchStatusInfo;
 import com.badlogic.gdx.Gdx;
 import com.iapp.lib.ui.screens.RdApplication;
 
@@ -23,7 +25,7 @@ public class CarballoChessEngine implements ChessEngine {
     }
 
     @SuppressWarnings("DefaultLocale")
-    public void getBestMoves(int depth, Consumer<String> onGetting, long minimumDelayMillis) {
+    public void getBestMoves(int depth, Consumer<String> onGetting) {
         SearchParameters searchParams = new SearchParameters();
         searchParams.setDepth(depth);
 
@@ -40,12 +42,51 @@ public class CarballoChessEngine implements ChessEngine {
             Gdx.app.debug("Carballo get best move",
                 String.format("Text move = %s%n", textMoves));
 
-            long left = minimumDelayMillis - (System.currentTimeMillis() - start);
-            try {
-                if (left > 0) Thread.sleep(left);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            RdApplication.postRunnable(() -> onGetting.accept(textMoves));
+        };
+        RdApplication.self().execute(task);
+    }
+
+    @SuppressWarnings("DefaultLocale")
+    @Override
+    public void getBestMovesByTime(int maxDepth, long timeMillis,
+                                   Consumer<String> onIntermediate, Consumer<String> onGetting) {
+        SearchParameters searchParams = new SearchParameters();
+        searchParams.setDepth(maxDepth);
+        searchParams.setMoveTime((int) timeMillis);
+
+        Runnable task = () -> {
+            long start = System.currentTimeMillis();
+            searchEngine.setObserver(new SearchObserver() {
+                private String lastMove = "";
+
+                @Override
+                public void info(SearchStatusInfo info) {
+                    if (info.getPv() == null || info.getPv().isEmpty()) return;
+
+                    // the principal variation starts with the best move of the completed depth
+                    String move = info.getPv().split(" ")[0];
+                    if (move.equals(lastMove)) return;
+                    lastMove = move;
+                    RdApplication.postRunnable(() -> onIntermediate.accept(move));
+                }
+
+                @Override
+                public void bestMove(int bestMove, int ponder) {}
+            });
+
+            searchEngine.go(searchParams);
+            searchEngine.setObserver(null);
+            int move = searchEngine.getBestMove();
+            searchEngine.getBoard().doMove(move);
+            String textMoves = searchEngine.getBoard().getMoves();
+            if (textMoves.equals("")) return;
+
+            Gdx.app.debug("Carballo get best move",
+                String.format("Got move in %d milliseconds%n", (System.currentTimeMillis() - start)));
+            Gdx.app.debug("Carballo get best move",
+                String.format("Text move = %s%n", textMoves));
+
             RdApplication.postRunnable(() -> onGetting.accept(textMoves));
         };
         RdApplication.self().execute(task);
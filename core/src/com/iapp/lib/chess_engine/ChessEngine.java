@@ -8,7 +8,16 @@ public interface ChessEngine {
 
     void setFen(String fen);
 
-    void getBestMoves(int depth, Consumer<String> onGetting, long minDelayMillis);
+    void getBestMoves(int depth, Consumer<String> onGetting);
+
+    /**
+     * Searches deeper and deeper until the time is over or the max depth is completed
+     * and returns the best move of the last completed depth.
+     * @param maxDepth keeps the strength of the weak levels, it does not depend on the device
+     * @param onIntermediate gets the best move of every completed depth
+     * */
+    void getBestMovesByTime(int maxDepth, long timeMillis,
+                            Consumer<String> onIntermediate, Consumer<String> onGetting);
 
     void stop();
 }
@@ -0,0 +1,140 @@
+package com.iapp.lib.chess_engine;
+
+/**
+ * Material and piece-square scores of the pieces by square,
+ * the board keeps their sum up to date on every change of a square.
+ * The scores are in tenths of the old evaluation units, white is positive.
+ * @version 1.0
+ * @author Igor Ivanov
+ * */
+final class Evaluation {
+
+    static final short PAWN = 10;
+    static final short ROOK = 50;
+    static final short KNIGHT = 30;
+    static final short BISHOP = 30;
+    static final short QUEEN = 90;
+    static final short KING = 900;
+
+    /** scores by piece + 8 and square */
+    static final int[][] SCORES = new int[17][64];
+
+    private static final float[][] whitePawnEval = {
+            {0.0f,  0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f},
+            {5.0f, 5.0f, 5.0f, 5.0f, 5.0f, 5.0f, 5.0f, 5.0f},
+            {1.0f, 1.0f, 2.0f, 3.0f, 3.0f, 2.0f, 1.0f, 1.0f},
+            {0.5f, 0.5f, 1.0f, 2.5f, 2.5f, 1.0f, 0.5f, 0.5f},
+            {0.0f, 0.0f, 0.0f, 2.0f, 2.0f, 0.0f, 0.0f, 0.0f},
+            {0.5f, -0.5f, -1.0f, 0.0f, 0.0f, -1.0f, -0.5f, 0.5f},
+            {0.5f, 1.0f, 1.0f, -2.0f, -2.0f, 1.0f, 1.0f, 0.5f},
+            {0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f}
+    };
+
+    private static final float[][] blackPawnEval = reverseMatrix(whitePawnEval);
+
+    private static final float[][] knightEval = {
+            {-5.0f, -4.0f, -3.0f, -3.0f, -3.0f, -3.0f, -4.0f, -5.0f},
+            {-4.0f, -2.0f, 0.0f, 0.0f, 0.0f, 0.0f, -2.0f, -4.0f},
+            {-3.0f, 0.0f, 1.0f, 1.5f, 1.5f, 1.0f, 0.0f, -3.0f},
+            {-3.0f, 0.5f, 1.5f, 2.0f, 2.0f, 1.5f, 0.5f, -3.0f},
+            {-3.0f, 0.0f, 1.5f, 2.0f, 2.0f, 1.5f, 0.0f, -3.0f},
+            {3.0f, 0.5f, 1.0f, 1.5f, 1.5f, 1.0f, 0.5f, -3.0f},
+            {-4.0f, -2.0f, 0.0f, 0.5f, 0.5f, 0.0f, -2.0f, -4.0f},
+            {-5.0f, -4.0f, -3.0f, -3.0f, -3.0f, -3.0f, -4.0f, -5.0f}
+    };
+
+    private static final float[][] whiteBishopEval = {
+            {-2.0f, -1.0f, -1.0f, -1.0f, -1.0f, -1.0f, -1.0f, -2.0f},
+            {-1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f},
+            {-1.0f, 0.0f, 0.5f, 1.0f, 1.0f, 0.5f, 0.0f, -1.0f},
+            {-1.0f, 0.5f, 0.5f, 1.0f, 1.0f, 0.5f, 0.5f, -1.0f},
+            {-1.0f, 0.0f, 1.0f,  1.0f,  1.0f, 1.0f, 0.0f, -1.0f},
+            {1.0f, 1.0f, 1.0f, 1.0f, 1.0f, 1.0f, 1.0f, -1.0f},
+            {-1.0f, 0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.5f, -1.0f},
+            {-2.0f, -1.0f, -1.0f, -1.0f, -1.0f, -1.0f, -1.0f, -2.0f}
+    };
+
+    private static final float[][] blackBishopEval = reverseMatrix(whiteBishopEval);
+
+    private static final float[][] whiteRookEval = {
+            {0.0f,  0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f},
+            {0.5f, 1.0f, 1.0f, 1.0f, 1.0f, 1.0f, 1.0f, 0.5f},
+            {-0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -0.5f},
+            {-0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -0.5f},
+            {-0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -0.5f},
+            {-0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -0.5f},
+            {-0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -0.5f},
+            {0.0f, 0.0f, 0.0f, 0.5f, 0.5f, 0.0f, 0.0f, 0.0f}
+    };
+
+    private static final float[][] blackRookEval = reverseMatrix(whiteRookEval);
+
+    private static final float[][] queenEval = {
+            {-2.0f, -1.0f, -1.0f, -0.5f, -0.5f, -1.0f, -1.0f, -2.0f},
+            {-1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f},
+            {-1.0f, 0.0f, 0.5f, 0.5f, 0.5f, 0.5f, 0.0f, -1.0f},
+            {-0.5f, 0.0f, 0.5f, 0.5f, 0.5f, 0.5f, 0.0f, -0.5f},
+            {0.0f, 0.0f, 0.5f, 0.5f, 0.5f, 0.5f, 0.0f, -0.5f},
+            {-1.0f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0.0f, -1.0f},
+            {-1.0f, 0.0f, 0.5f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f},
+            {-2.0f, -1.0f, -1.0f, -0.5f, -0.5f, -1.0f, -1.0f, -2.0f}
+    };
+
+    private static final float[][] whiteKingEval = {
+            {-3.0f, -4.0f, -4.0f, -5.0f, -5.0f, -4.0f, -4.0f, -3.0f},
+            {-3.0f, -4.0f, -4.0f, -5.0f, -5.0f, -4.0f, -4.0f, -3.0f},
+            {-3.0f, -4.0f, -4.0f, -5.0f, -5.0f, -4.0f, -4.0f, -3.0f},
+            {-3.0f, -4.0f, -4.0f, -5.0f, -5.0f, -4.0f, -4.0f, -3.0f},
+            {-2.0f, -3.0f, -3.0f, -4.0f, -4.0f, -3.0f,-3.0f, -2.0f},
+            {-1.0f, -2.0f, -2.0f, -2.0f, -2.0f, -2.0f, -2.0f, -1.0f},
+            {2.0f, 2.0f, 0.0f, 0.0f, 0.0f, 0.0f, 2.0f, 2.0f},
+            {2.0f, 3.0f, 1.0f, 0.0f, 0.0f, 1.0f, 3.0f, 2.0f}
+    };
+
+    private static final float[][] blackKingEval = reverseMatrix(whiteKingEval);
+
+    static {
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int square = Bitboards.square(x, y);
+                for (byte type = BoardMatrix.PAWN; type <= BoardMatrix.KING; type++) {
+                    SCORES[type + 8][square] = -evaluate(type, x, y, true);
+                    SCORES[-type + 8][square] = evaluate(type, x, y, false);
+                }
+            }
+        }
+    }
+
+    private Evaluation() {}
+
+    private static int evaluate(byte type, int x, int y, boolean black) {
+        float eval = 0;
+
+        if (type == BoardMatrix.PAWN) {
+            // the pawn is about to become a queen
+            if (y == 7 || y == 0) eval =  QUEEN + queenEval[y][x];
+            else eval = PAWN + (black ? blackPawnEval[y][x] : whitePawnEval[y][x]);
+        } else if (type == BoardMatrix.ROOK) {
+            eval = ROOK + (black ? blackRookEval[y][x] : whiteRookEval[y][x]);
+        } else if (type == BoardMatrix.KNIGHT) {
+            eval = KNIGHT + knightEval[y][x];
+        } else if (type == BoardMatrix.BISHOP) {
+            eval = BISHOP + (black ? blackBishopEval[y][x] : whiteBishopEval[y][x]);
+        } else if (type == BoardMatrix.QUEEN) {
+            eval =  QUEEN + queenEval[y][x];
+        } else if (type == BoardMatrix.KING) {
+            eval = KING + (black ? blackKingEval[y][x] : whiteKingEval[y][x]);
+        }
+
+        return Math.round(eval * 10);
+    }
+
+    private static float[][] reverseMatrix(float[][] matrix) {
+        float[][] reversedMatrix = new float[matrix.length][matrix[0].length];
+
+        for (int i = matrix.length - 1; i >= 0; i--) {
+            System.arraycopy(matrix[i], 0, reversedMatrix[matrix.length - 1 - i], 0, matrix[i].length);
+        }
+        return reversedMatrix;
+    }
+}
@@ -20,19 +20,40 @@ public class Game {
     private static final boolean[] kings = {true, false, false, false, false, false, false, false, false, false, false, false, false, false, false, false, true};
     private static final boolean[] cages = {false, false, false, false, false, false, false, false, false, true, false, false, false, false, false, false, false};
 
+    /** the space that generateLegalMoves needs after the offset */
+    static final int MAX_MOVES = 256;
+
+    private static final int INITIAL_HISTORY = 64;
+    private static final int RECORD_SIZE = 6;
+    private static final int RECORD_MOVE = 0;
+    private static final int RECORD_FLAGS = 1;
+    private static final int RECORD_SQUARES = 2;
+    private static final int MAX_SQUARES = 4;
+
     private Color upper;
     private Color lower;
 
     private Color colorMove = Color.WHITE;
     private BoardMatrix current;
-    private final LinkedList<BoardMatrix> matrices;
+    /**
+     * Undo records of the made moves, RECORD_SIZE ints for each move:
+     * 0 - the squares of the move (from | to << 6)
+     * 1 - the flags of the board before the move | count of the changed squares << 8
+     * 2..5 - the changed squares with their previous piece and id
+     * */
+    private int[] history;
+    private int historySize;
+    /** copies of the board before each move, only read from old saves */
+    private LinkedList<BoardMatrix> matrices;
+    /** the buffer for the moves of one piece, reused by getMoves and the checks of the position */
+    private transient int[] moveBuffer;
 
     public Game(Color upper) {
         this.upper = upper;
         lower = reverse(upper);
 
         current = new BoardMatrix(upper);
-        matrices = new LinkedList<>();
+        history = new int[INITIAL_HISTORY * RECORD_SIZE];
     }
 
     public Game(Color upper, String fen) {
@@ -41,16 +62,17 @@ public class Game {
 
         current = new BoardMatrix(upper, fen);
         colorMove = fen.split(" ")[1].equals("w") ? Color.WHITE : Color.BLACK;
-        matrices = new LinkedList<>();
+        history = new int[INITIAL_HISTORY * RECORD_SIZE];
     }
 
     Game(Color colorMove, Color upper, Color lower, BoardMatrix current,
-                 LinkedList<BoardMatrix> matrices) {
+                 int[] history, int historySize) {
         this.colorMove = colorMove;
         this.upper = upper;
         this.lower = lower;
         this.current = current;
-        this.matrices = matrices;
+        this.history = history;
+        this.historySize = historySize;
     }
 
     public static boolean isValidFEN(String fen) {
@@ -105,7 +127,14 @@ public class Game {
     }
 
     public byte[][] getLastMatrix(int depth) {
-        return matrices.get(matrices.size() - depth).getMatrix();
+        checkHistory();
+        if (depth < 1 || depth > historySize) throw new IndexOutOfBoundsException("depth: " + depth);
+
+        BoardMatrix last = current.cloneMatrix();
+        for (int i = historySize - 1; i >= historySize - depth; i--) {
+            undo(last, i);
+        }
+        return last.getMatrix();
     }
 
     public Color getUpper() {
@@ -127,49 +156,116 @@ public class Game {
     public void updateUpperColor(Color upper) {
         if (this.upper == upper) return;
 
+        checkHistory();
         this.upper = upper;
         lower = reverse(upper);
-        if (!matrices.isEmpty()) {
+        if (historySize != 0) {
             colorMove = reverse(colorMove);
         }
 
-        for (BoardMatrix matrix : matrices) {
-            matrix.updateColor(upper);
+        for (int i = 0; i < historySize; i++) {
+            flipRecord(i);
         }
         current.updateColor(upper);
     }
 
     public Game cloneGame() {
-        LinkedList<BoardMatrix> cloneMatrices = new LinkedList<>();
-        for (BoardMatrix boardMatrix : matrices) {
-            cloneMatrices.add(boardMatrix.cloneMatrix());
-        }
-
-        return new Game(colorMove, upper, lower, current.cloneMatrix(), cloneMatrices);
+        checkHistory();
+        return new Game(colorMove, upper, lower, current.cloneMatrix(), history.clone(), historySize);
     }
 
     public void makeMove(Move move) {
-        matrices.offer(current.cloneMatrix());
-        if (isTakeOnPass(move)) {
-            current.setCage(move.getMoveX(), move.getPieceY());
+        makeMove(move.pack());
+    }
+
+    /** makes the packed move, see Move.pack */
+    void makeMove(int move) {
+        checkHistory();
+        int pieceX = move & 7, pieceY = (move >>> 3) & 7;
+        int moveX = (move >>> 6) & 7, moveY = (move >>> 9) & 7;
+        int record = pushRecord(move);
+
+        if (isTakeOnPass(pieceX, pieceY, moveX, moveY)) {
+            saveSquare(record, current, moveX, pieceY);
+            current.setCage(moveX, pieceY);
         }
 
-        if (isCastleMove(move)) {
-            if (move.getMoveX() < move.getPieceX()) {
-                current.setPiece(0, move.getPieceY(), move.getMoveX() + 1, move.getPieceY());
-                current.setCage(0, move.getPieceY());
+        if (isCastleMove(pieceX, pieceY, moveX, moveY)) {
+            if (moveX < pieceX) {
+                saveSquare(record, current, 0, pieceY);
+                saveSquare(record, current, moveX + 1, pieceY);
+                current.setPiece(0, pieceY, moveX + 1, pieceY);
+                current.setCage(0, pieceY);
             } else {
-                current.setPiece(7, move.getPieceY(), move.getMoveX() - 1, move.getPieceY());
-                current.setCage(7, move.getPieceY());
+                saveSquare(record, current, 7, pieceY);
+                saveSquare(record, current, moveX - 1, pieceY);
+                current.setPiece(7, pieceY, moveX - 1, pieceY);
+                current.setCage(7, pieceY);
             }
         }
 
-        current.setPiece(move.getPieceX(), move.getPieceY(), move.getMoveX(), move.getMoveY());
-        current.setCage(move.getPieceX(),move.getPieceY());
+        saveSquare(record, current, moveX, moveY);
+        saveSquare(record, current, pieceX, pieceY);
+        current.setPiece(pieceX, pieceY, moveX, moveY);
+        current.setCage(pieceX, pieceY);
         // we pass the move to another color after all the actions!
         colorMove = reverse(colorMove);
     }
 
+    /**
+     * writes the legal moves of the color to move to the buffer as packed moves (see Move.pack),
+     * nothing is allocated, so the search can reuse one buffer per ply
+     * @param offset the buffer must have MAX_MOVES free places from it
+     * @return the offset after the last written move
+     * */
+    int generateLegalMoves(int[] buffer, int offset) {
+        int end = offset;
+        long pieces = current.getOccupied(colorMove);
+        while (pieces != 0) {
+            end = addPieceMoves(Long.numberOfTrailingZeros(pieces), buffer, end);
+            pieces &= pieces - 1;
+        }
+        return removeIllegalMoves(buffer, offset, end);
+    }
+
+    /** checks that the move is one of the legal moves of the color to move */
+    public boolean isLegalMove(Move move) {
+        if (!Bitboards.onBoard(move.getPieceX(), move.getPieceY())
+                || !Bitboards.onBoard(move.getMoveX(), move.getMoveY())) return false;
+
+        int[] buffer = getMoveBuffer();
+        int end = addPieceMoves(Bitboards.square(move.getPieceX(), move.getPieceY()), buffer, 0);
+        int packed = move.pack();
+        for (int i = 0; i < end; i++) {
+            if (buffer[i] == packed) return removeIllegalMoves(buffer, i, i + 1) == i + 1;
+        }
+        return false;
+    }
+
+    /**
+     * returns the Zobrist key of the position, it follows makeMove and cancelMove
+     * because the pieces are hashed incrementally by the board
+     * */
+    long getKey() {
+        long key = current.getKey();
+        if (colorMove == Color.WHITE) key ^= Zobrist.WHITE_MOVE;
+        if (upper == Color.WHITE) key ^= Zobrist.UPPER_WHITE;
+
+        // only a pawn that has just moved two squares can be taken on the pass
+        int last = getLastMove();
+        if (last != -1 && isPawn((last >>> 6) & 7, (last >>> 9) & 7)
+                && Math.abs(((last >>> 9) & 7) - ((last >>> 3) & 7)) == 2) {
+            key ^= Zobrist.EN_PASSANT[(last >>> 6) & 7];
+        }
+        return key;
+    }
+
+    /** returns the material and piece-square score for the color, updated by makeMove and cancelMove */
+    int getScore(Color color) {
+        int score = current.getScore();
+        return color == Color.WHITE ? score : -score;
+    }
+
     public boolean isBlackKingMadeMove() {
         return current.isBlackKingMadeMove();
     }
@@ -195,7 +291,16 @@ public class Game {
     }
 
     public Array<Move> getMoves(int x, int y) {
-        return getMovesToSaveKing(getPieceMoves(x, y));
+        if (!Bitboards.onBoard(x, y)) return new Array<>(0);
+
+        int[] buffer = getMoveBuffer();
+        int end = removeIllegalMoves(buffer, 0, addPieceMoves(Bitboards.square(x, y), buffer, 0));
+
+        Array<Move> moves = new Array<>(end);
+        for (int i = 0; i < end; i++) {
+            moves.add(Move.unpack(buffer[i]));
+        }
+        return moves;
     }
 
     public boolean isPawn(int x, int y) {
@@ -271,11 +376,13 @@ public class Game {
     }
 
     public int getTurn() {
-        return matrices.size() / 2 + 1;
+        checkHistory();
+        return historySize / 2 + 1;
     }
 
     public int getMove() {
-        return matrices.size();
+        checkHistory();
+        return historySize;
     }
 
     public byte getId(int x, int y) {
@@ -283,9 +390,11 @@ public class Game {
     }
 
     public void cancelMove() {
-        if (matrices.isEmpty()) return;
+        checkHistory();
+        if (historySize == 0) return;
 
-        current = matrices.removeLast();
+        historySize--;
+        undo(current, historySize);
         colorMove = reverse(colorMove);
     }
 
@@ -299,69 +408,33 @@ public class Game {
     }
 
     public Pair<Integer, Integer> getCheckKing() {
-        byte[][] matrix = getMatrix();
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[i].length; j++) {
-                if (isCheckKing(j, i)) {
-                    return new Pair<>(j, i);
-                }
+        long kings = current.getPieces(BoardMatrix.WHITE_KING) | current.getPieces(BoardMatrix.BLACK_KING);
+        while (kings != 0) {
+            int square = Long.numberOfTrailingZeros(kings);
+            if (isCheckKing(square & 7, square >>> 3)) {
+                return new Pair<>(square & 7, square >>> 3);
             }
+            kings &= kings - 1;
         }
         return null;
     }
 
     public boolean isCheckKing(int kingX, int kingY) {
         if (!isKing(kingX, kingY)) return false;
-        byte[][] matrix = getMatrix();
-
-        Color saved = colorMove;
-        colorMove = reverse(getColor(kingX, kingY));
-
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[i].length; j++) {
-                Array<Move> moves;
-
-                if (isKing(j, i)) {
-                    moves = getKingMoves(j, i);
-                } else {
-                    moves = getPieceMoves(j, i);
-                }
-
-                for (Move move : moves) {
-                    if (move.getMoveX() == kingX && move.getMoveY() == kingY) {
-                        colorMove = saved;
-                        return true;
-                    }
-                }
-            }
-        }
-
-        colorMove = saved;
-        return false;
+        return isAttacked(Bitboards.square(kingX, kingY), reverse(getColor(kingX, kingY)));
     }
 
     public boolean isFinish() {
-        byte[][] matrix = current.getMatrix();
-
-        int count = 0;
-        boolean finish = true;
-
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[i].length; j++) {
-                if (!isCage(j, i)) count++;
-
-                if (!getMoves(j, i).isEmpty()) {
-                    finish = false;
-                }
-            }
-        }
-
-        return finish || count == 2;
+        return Long.bitCount(current.getOccupied()) == 2 || !hasMoves();
     }
 
     public boolean isCastleMove(Move move) {
-        return getCastleMoves(move.getPieceX(), move.getPieceY())
-                .contains(move, false);
+        int[] buffer = getMoveBuffer();
+        int end = addCastleMoves(move.getPieceX(), move.getPieceY(), buffer, 0);
+        for (int i = 0; i < end; i++) {
+            if (buffer[i] == move.pack()) return true;
+        }
+        return false;
     }
 
     public Color reverse(Color first) {
@@ -373,273 +446,159 @@ public class Game {
         return current.isWhiteKingMadeMove();
     }
 
-    private Array<Move> getPieceMoves(int x, int y) {
-        if (getColor(x, y) != colorMove) return new Array<>(0);
+    /** writes the moves of the piece on the square without the check of the own king */
+    private int addPieceMoves(int square, int[] buffer, int offset) {
+        int x = square & 7, y = square >>> 3;
+        if (getColor(x, y) != colorMove) return offset;
 
-        Array<Move> moves;
+        long targets = ~current.getOccupied(colorMove);
         if (isPawn(x, y)) {
-            moves = getPawnMoves(x, y);
+            return addPawnMoves(x, y, buffer, offset);
         }
         else if (isRook(x, y)) {
-            moves = getRookMoves(x, y);
+            return addMoves(square, Bitboards.rookAttacks(square, current.getOccupied()) & targets, buffer, offset);
         }
         else if (isKnight(x, y)) {
-            moves = getKnightMoves(x, y);
+            return addMoves(square, Bitboards.KNIGHT_ATTACKS[square] & targets, buffer, offset);
         }
         else if (isBishop(x, y)) {
-            moves =  getBishopMoves(x, y);
+            return addMoves(square, Bitboards.bishopAttacks(square, current.getOccupied()) & targets, buffer, offset);
         }
         else if (isQueen(x, y)) {
-            moves = getQueenMoves(x, y);
+            return addMoves(square, Bitboards.queenAttacks(square, current.getOccupied()) & targets, buffer, offset);
         }
         else if (isKing(x, y)) {
-            moves = getKingMoves(x, y);
-
-            if (!isCheckKing(x, y)) {
-                moves.addAll(getCastleMoves(x, y));
-            }
+            offset = addMoves(square, Bitboards.KING_ATTACKS[square] & targets, buffer, offset);
+            return addCastleMoves(x, y, buffer, offset);
         }
-        else {
-            moves = new Array<>(0);
-        }
-
-        return moves;
-    }
-
-    private Array<Move> getQueenMoves(int x, int y) {
-        Array<Move> queenMoves = getRookMoves(x, y);
-        queenMoves.addAll(getBishopMoves(x, y));
-
-        return queenMoves;
-    }
-
-    private Array<Move> getKnightMoves(int x, int y) {
-        Array<Move> knightMoves = new Array<>();
-
-        addValidKnightMove(knightMoves, x, y, x + 1, y + 2);
-        addValidKnightMove(knightMoves, x, y, x - 1, y + 2);
-
-        addValidKnightMove(knightMoves, x, y, x + 1, y - 2);
-        addValidKnightMove(knightMoves, x, y, x - 1, y - 2);
-
-        addValidKnightMove(knightMoves, x, y, x + 2, y + 1);
-        addValidKnightMove(knightMoves, x, y, x + 2, y - 1);
-
-        addValidKnightMove(knightMoves, x, y, x - 2, y + 1);
-        addValidKnightMove(knightMoves, x, y, x - 2, y - 1);
-
-        return knightMoves;
+        return offset;
     }
 
-    private void addValidKnightMove(Array<Move> knightMoves, int x, int y, int moveX, int moveY) {
-        Color color = getColor(moveX, moveY);
-        if ((color != null && color != colorMove) || isCage(moveX, moveY)) {
-            knightMoves.add(Move.valueOf(x, y, moveX, moveY));
-        }
-    }
+    private int addPawnMoves(int x, int y, int[] buffer, int offset) {
+        int direction = isUpperColor(x, y) ? 1 : -1;
+        Color figureColor = getColor(x, y);
+        int square = Bitboards.square(x, y);
 
-    private Array<Move> getBishopMoves(int x, int y) {
-        Array<Move> bishopMoves = new Array<>();
-        int j = x + 1, i = y + 1;
+        if (isCage(x,y + direction)) {
+            buffer[offset++] = square | Bitboards.square(x, y + direction) << 6;
 
-        while (j < 8 && i < 8) {
-            if (getColor(j, i) != colorMove) {
-                bishopMoves.add(Move.valueOf(x, y, j, i));
+            if ((y == 1 || y == 6) && isCage(x,y + direction * 2)) {
+                buffer[offset++] = square | Bitboards.square(x, y + direction * 2) << 6;
             }
-
-            if (!isCage(j, i)) break;
-
-            j++;
-            i++;
         }
 
-        j = x + 1;
-        i = y - 1;
-        while (j < 8 && i >= 0) {
-            if (getColor(j, i) != colorMove) {
-                bishopMoves.add(Move.valueOf(x, y, j, i));
-            }
-
-            if (!isCage(j, i)) break;
+        long captures = Bitboards.PAWN_ATTACKS[direction == 1 ? Bitboards.DOWN : Bitboards.UP][square]
+                & current.getOccupied(reverse(colorMove));
+        offset = addMoves(square, captures, buffer, offset);
 
-            j++;
-            i--;
-        }
+        // take on the pass
+        if ((y == 3 && figureColor == lower) || (y == 4 && figureColor == upper)) {
 
-        j = x - 1;
-        i = y + 1;
-        while (j >= 0 && i < 8) {
-            if (getColor(j, i) != colorMove) {
-                bishopMoves.add(Move.valueOf(x, y, j, i));
-            }
+            int last = getLastMove();
+            int lastX = (last >>> 6) & 7, lastY = (last >>> 9) & 7;
 
-            if (!isCage(j, i)) break;
+            // only pawn
+            if (last != -1 && isPawn(lastX, lastY) && (((last >>> 3) & 7) + -direction * 2) == lastY) {
 
-            j--;
-            i++;
-        }
+                if (x - 1 == lastX && y == lastY) {
+                    buffer[offset++] = square | Bitboards.square(x - 1, y + direction) << 6;
+                }
 
-        j = x - 1;
-        i = y - 1;
-        while (j >= 0 && i >= 0 ) {
-            if (getColor(j, i) != colorMove) {
-                bishopMoves.add(Move.valueOf(x, y, j, i));
+                if (x + 1 == lastX && y == lastY) {
+                    buffer[offset++] = square | Bitboards.square(x + 1, y + direction) << 6;
+                }
             }
-
-            if (!isCage(j, i)) break;
-
-            j--;
-            i--;
         }
 
-        return bishopMoves;
+        return offset;
     }
 
-    private Array<Move> getRookMoves(int x, int y) {
-        Array<Move> rookMoves = new Array<>();
+    /** keeps the moves after which the king of the color to move is not attacked, returns the new end */
+    private int removeIllegalMoves(int[] buffer, int offset, int end) {
+        Color color = colorMove;
+        long king = current.getPieces(color == Color.WHITE ? BoardMatrix.WHITE_KING : BoardMatrix.BLACK_KING);
+        if (king == 0) return end;
 
-        for (int i = y - 1; i >= 0; i--) {
-            if (getColor(x, i) != colorMove) {
-                rookMoves.add(Move.valueOf(x, y, x, i));
-            }
-
-            if (!isCage(x, i)) break;
-        }
-
-        for (int i = y + 1; i < 8; i++) {
-            if (getColor(x, i) != colorMove) {
-                rookMoves.add(Move.valueOf(x, y, x, i));
-            }
-
-            if (!isCage(x, i)) break;
-        }
-
-        for (int i = x - 1; i >= 0; i--) {
-            if (getColor(i, y) != colorMove) {
-                rookMoves.add(Move.valueOf(x, y, i, y));
-            }
-
-            if (!isCage(i, y)) break;
-        }
-
-        for (int i = x + 1; i < 8; i++) {
-            if (getColor(i, y) != colorMove) {
-                rookMoves.add(Move.valueOf(x, y, i, y));
-            }
-
-            if (!isCage(i, y)) break;
+        int legal = offset;
+        for (int i = offset; i < end; i++) {
+            int move = buffer[i];
+            makeMove(move);
+            king = current.getPieces(color == Color.WHITE ? BoardMatrix.WHITE_KING : BoardMatrix.BLACK_KING);
+            if (!isAttacked(Long.numberOfTrailingZeros(king), reverse(color))) buffer[legal++] = move;
+            cancelMove();
         }
-
-        return rookMoves;
+        return legal;
     }
 
-    private Array<Move> getKingMoves(int x, int y) {
-        Array<Move> kingMoves = new Array<>();
-        int sign = colorMove == Color.BLACK ? -1 : 1;
-
-        addKingMove(kingMoves, x, y, x - 1, y, sign);
-        addKingMove(kingMoves, x, y, x - 1, y - 1, sign);
-        addKingMove(kingMoves, x, y, x, y - 1, sign);
-        addKingMove(kingMoves, x, y, x + 1, y - 1, sign);
-        addKingMove(kingMoves, x, y, x + 1, y, sign);
-        addKingMove(kingMoves, x, y, x + 1, y + 1, sign);
-        addKingMove(kingMoves, x, y, x, y + 1, sign);
-        addKingMove(kingMoves, x, y, x - 1, y + 1, sign);
+    /**
+     * checks if the square is attacked by the pieces of the given color,
+     * the attacks are looked up backwards from the square
+     * */
+    private boolean isAttacked(int square, Color by) {
+        int sign = by == Color.WHITE ? -1 : 1;
+        long occupied = current.getOccupied();
 
-        return kingMoves;
-    }
+        // a pawn attacks the square if a pawn on the square would attack it in the opposite direction
+        long pawns = current.getPieces((byte) (BoardMatrix.PAWN * sign));
+        if ((Bitboards.PAWN_ATTACKS[by == upper ? Bitboards.UP : Bitboards.DOWN][square] & pawns) != 0) return true;
 
-    private Array<Move> getPawnMoves(int x, int y) {
-        Array<Move> pawnMoves = new Array<>();
+        long knights = current.getPieces((byte) (BoardMatrix.KNIGHT * sign));
+        if ((Bitboards.KNIGHT_ATTACKS[square] & knights) != 0) return true;
 
-        int direction = isUpperColor(x, y) ? 1 : -1;
-        Color figureColor = getColor(x, y);
+        long kings = current.getPieces((byte) (BoardMatrix.KING * sign));
+        if ((Bitboards.KING_ATTACKS[square] & kings) != 0) return true;
 
-        if (isCage(x,y + direction)) {
-            pawnMoves.add(Move.valueOf(x, y, x, y + direction));
-
-            if ((y == 1 || y == 6) && isCage(x,y + direction * 2)) {
-                pawnMoves.add(Move.valueOf(x, y, x, y + direction * 2));
-            }
-        }
-
-        Color left = getColor(x - 1, y + direction);
-        if (left != null && left != colorMove) {
-            pawnMoves.add(Move.valueOf(x, y, x - 1, y + direction));
-        }
-
-        Color right = getColor(x + 1, y + direction);
-        if (right != null && right != colorMove) {
-            pawnMoves.add(Move.valueOf(x, y, x + 1, y + direction));
-        }
-
-        // take on the pass
-        if (((y == 3 && figureColor == lower) || (y == 4 && figureColor == upper))
-                && ((getColor(x - 1, y)) != colorMove && getColor(x + 1, y) != colorMove)) {
-
-            Move move = findChange();
-
-            // only pawn
-            if (isPawn(move.getMoveX(), move.getMoveY()) && (move.getPieceY() + -direction * 2) == move.getMoveY()) {
-
-                if (x - 1 == move.getMoveX() && y == move.getMoveY()) {
-                    pawnMoves.add(Move.valueOf(x, y, x - 1, y + direction));
-                }
-
-                if (x + 1 == move.getMoveX() && y == move.getMoveY()) {
-                    pawnMoves.add(Move.valueOf(x, y, x + 1, y + direction));
-                }
-            }
-        }
+        long queens = current.getPieces((byte) (BoardMatrix.QUEEN * sign));
+        long rooks = current.getPieces((byte) (BoardMatrix.ROOK * sign)) | queens;
+        if ((Bitboards.rookAttacks(square, occupied) & rooks) != 0) return true;
 
-        return pawnMoves;
+        long bishops = current.getPieces((byte) (BoardMatrix.BISHOP * sign)) | queens;
+        return (Bitboards.bishopAttacks(square, occupied) & bishops) != 0;
     }
 
-    private byte[] getKingPosition(Color color) {
-        byte[][] matrix = current.getMatrix();
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[i].length; j++) {
-                if (isKing(j, i) && getColor(j, i) == color) {
-                    return new byte[]{(byte) j, (byte) i};
-                }
-            }
+    private boolean hasMoves() {
+        int[] buffer = getMoveBuffer();
+        long pieces = current.getOccupied(colorMove);
+        while (pieces != 0) {
+            int end = addPieceMoves(Long.numberOfTrailingZeros(pieces), buffer, 0);
+            if (removeIllegalMoves(buffer, 0, end) != 0) return true;
+            pieces &= pieces - 1;
         }
-        return new byte[]{-1, -1};
+        return false;
     }
 
-    private void addKingMove(Array<Move> moves, int figureX, int figureY, int x, int y, int sign) {
-        if (current.getPiece(x, y) * sign >= 1 || isCage(x, y)) {
-            moves.add(Move.valueOf(figureX, figureY, x, y));
+    /** writes the moves to the targets as from | to << 6 */
+    private int addMoves(int from, long targets, int[] buffer, int offset) {
+        while (targets != 0) {
+            buffer[offset++] = from | Long.numberOfTrailingZeros(targets) << 6;
+            targets &= targets - 1;
         }
+        return offset;
     }
 
-    private Array<Move> getCastleMoves(int pieceX, int pieceY) {
-        if (!isKing(pieceX, pieceY) || isKingMadeMove()) return new Array<>(0);
+    /** writes the castling moves, the king may not be in check or pass an attacked square */
+    private int addCastleMoves(int pieceX, int pieceY, int[] buffer, int offset) {
+        if (!isKing(pieceX, pieceY) || isKingMadeMove()) return offset;
 
         Color kingColor = getColor(pieceX, pieceY);
-        Array<Move> castleMoves = new Array<>();
+        if ((kingColor != upper || pieceY != 0) && (kingColor != lower || pieceY != 7)) return offset;
+        if (pieceX != 3 && pieceX != 4) return offset;
 
-        if ((kingColor == upper && pieceY == 0) || (kingColor == lower && pieceY == 7)) {
-            if (pieceX == 3) {
-                if (checkTreePosition(pieceX, pieceY, -1) && checkQueenCastleByRook(kingColor)) {
-                    castleMoves.add(Move.valueOf(pieceX, pieceY, pieceX - 2, pieceY));
-                }
+        int square = Bitboards.square(pieceX, pieceY);
+        Color enemy = reverse(kingColor);
+        if (isAttacked(square, enemy)) return offset;
 
-                if (checkFourPosition(pieceX, pieceY, 1)  && checkKingCastleByRook(kingColor)) {
-                    castleMoves.add(Move.valueOf(pieceX, pieceY, pieceX + 2, pieceY));
-                }
-            } else if (pieceX == 4) {
-                if (checkFourPosition(pieceX, pieceY, -1) && checkQueenCastleByRook(kingColor)) {
-                    castleMoves.add(Move.valueOf(pieceX, pieceY, pieceX - 2, pieceY));
-                }
+        boolean queenSide = pieceX == 3 ? checkTreePosition(pieceX, pieceY, -1) : checkFourPosition(pieceX, pieceY, -1);
+        if (queenSide && checkQueenCastleByRook(kingColor) && !isAttacked(square - 1, enemy)) {
+            buffer[offset++] = square | (square - 2) << 6;
+        }
 
-                if (checkTreePosition(pieceX, pieceY, 1) && checkKingCastleByRook(kingColor)) {
-                    castleMoves.add(Move.valueOf(pieceX, pieceY, pieceX + 2, pieceY));
-                }
-            }
+        boolean kingSide = pieceX == 3 ? checkFourPosition(pieceX, pieceY, 1) : checkTreePosition(pieceX, pieceY, 1);
+        if (kingSide && checkKingCastleByRook(kingColor) && !isAttacked(square + 1, enemy)) {
+            buffer[offset++] = square | (square + 2) << 6;
         }
 
-        return castleMoves;
+        return offset;
     }
 
     private boolean checkKingCastleByRook(Color color) {
@@ -663,49 +622,130 @@ public class Game {
                 && isRook(figureX + sign * 3, figureY);
     }
 
-    private Move findChange() {
-        if (matrices.size() == 1 || matrices.isEmpty()) return Move.valueOf(-1, -1, -1, -1);
+    /** returns the last packed move or -1 before the first move */
+    private int getLastMove() {
+        checkHistory();
+        if (historySize == 0) return -1;
+        return history[(historySize - 1) * RECORD_SIZE + RECORD_MOVE];
+    }
+
+    /** adds an undo record for the move and returns its offset, the changed squares are saved later */
+    private int pushRecord(int move) {
+        if ((historySize + 1) * RECORD_SIZE > history.length) {
+            history = Arrays.copyOf(history, Math.max(history.length * 2, INITIAL_HISTORY * RECORD_SIZE));
+        }
 
-        byte[][] current = getMatrix();
-        byte[][] last = getLastMatrix(1);
+        int record = historySize * RECORD_SIZE;
+        history[record + RECORD_MOVE] = move;
+        history[record + RECORD_FLAGS] = current.getFlags();
+        historySize++;
+        return record;
+    }
 
-        int figureX = -1, figureY = -1, moveX = -1, moveY = -1;
+    /** saves the square of the board before it is changed, as square | piece + 8 << 6 | id + 1 << 11 */
+    private void saveSquare(int record, BoardMatrix board, int x, int y) {
+        int count = history[record + RECORD_FLAGS] >>> 8;
+        if (count == MAX_SQUARES) throw new IllegalStateException("too many changed squares");
 
-        for (int i = 0; i < current.length; i++) {
-            for (int j = 0; j < current[i].length; j++) {
-                if (current[i][j] != last[i][j]) {
-                    if (!isCage(j, i)) {
-                        moveX = j;
-                        moveY = i;
-                    } else {
-                        figureX = j;
-                        figureY = i;
-                    }
-                }
-            }
+        history[record + RECORD_SQUARES + count] = Bitboards.square(x, y)
+                | (board.getPiece(x, y) + 8) << 6 | (board.getId(x, y) + 1) << 11;
+        history[record + RECORD_FLAGS] += 1 << 8;
+    }
+
+    private void undo(BoardMatrix board, int index) {
+        int record = index * RECORD_SIZE;
+        int count = history[record + RECORD_FLAGS] >>> 8;
+
+        for (int i = count - 1; i >= 0; i--) {
+            int square = history[record + RECORD_SQUARES + i];
+            board.restore(square & 7, (square >>> 3) & 7,
+                    (byte) (((square >>> 6) & 31) - 8), (byte) (((square >>> 11) & 63) - 1));
         }
-        return Move.valueOf(figureX, figureY, moveX, moveY);
+        board.setFlags(history[record + RECORD_FLAGS] & 0xFF);
     }
 
-    private Array<Move> getMovesToSaveKing(Array<Move> moves) {
-        Array<Move> saving = new Array<>();
+    /** mirrors the squares of the record, like the board is mirrored on changing the upper color */
+    private void flipRecord(int index) {
+        int record = index * RECORD_SIZE;
+        history[record + RECORD_MOVE] ^= 56 | 56 << 6;
 
-        for (Move move : moves) {
-            makeMove(move);
-            byte[] position = getKingPosition(reverse(colorMove));
-            if (!isCheckKing(position[0], position[1])) saving.add(move);
-            cancelMove();
+        int count = history[record + RECORD_FLAGS] >>> 8;
+        for (int i = 0; i < count; i++) {
+            history[record + RECORD_SQUARES + i] ^= 56;
+        }
+    }
+
+    /**
+     * Old saves store a copy of the board before each move,
+     * they are converted to the undo records on the first access
+     * */
+    private void checkHistory() {
+        if (history != null) return;
+
+        int size = matrices == null ? 0 : matrices.size();
+        history = new int[Math.max(size, INITIAL_HISTORY) * RECORD_SIZE];
+        historySize = 0;
+
+        for (int i = 0; i < size; i++) {
+            BoardMatrix before = matrices.get(i);
+            BoardMatrix after = i + 1 < size ? matrices.get(i + 1) : current;
+            pushLegacyRecord(before, after);
+        }
+        matrices = null;
+    }
+
+    private void pushLegacyRecord(BoardMatrix before, BoardMatrix after) {
+        int record = historySize * RECORD_SIZE;
+        history[record + RECORD_FLAGS] = before.getFlags();
+        historySize++;
+
+        int from = -1, to = -1, best = -1, count = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                if (before.getPiece(x, y) == after.getPiece(x, y) || count == MAX_SQUARES) continue;
+                saveSquare(record, before, x, y);
+                count++;
+            }
         }
 
-        return saving;
+        // the moved piece keeps its id, the king is preferred for castling
+        for (int i = 0; i < count; i++) {
+            int emptied = history[record + RECORD_SQUARES + i] & 63;
+            if (after.getPiece(emptied & 7, emptied >>> 3) != BoardMatrix.CAGE) continue;
+
+            for (int j = 0; j < count; j++) {
+                int occupied = history[record + RECORD_SQUARES + j] & 63;
+                if (after.getPiece(occupied & 7, occupied >>> 3) == BoardMatrix.CAGE) continue;
+
+                int score = (before.getId(emptied & 7, emptied >>> 3) == after.getId(occupied & 7, occupied >>> 3) ? 2 : 0)
+                        + (isKing(before.getPiece(emptied & 7, emptied >>> 3)) ? 1 : 0);
+                if (score > best) {
+                    best = score;
+                    from = emptied;
+                    to = occupied;
+                }
+            }
+        }
+
+        if (from != -1) history[record + RECORD_MOVE] = from | to << 6;
     }
 
     private boolean isUpperColor(int x, int y) {
         return getColor(x, y) == upper;
     }
 
-    private boolean isTakeOnPass(Move move) {
-        if (!isPawn(move.getPieceX(), move.getPieceY()) || !isPawn(move.getMoveX(), move.getPieceY())) return false;
-        return move.getMoveX() != move.getPieceX() && isCage(move.getMoveX(), move.getMoveY());
+    boolean isTakeOnPass(int pieceX, int pieceY, int moveX, int moveY) {
+        if (!isPawn(pieceX, pieceY) || !isPawn(moveX, pieceY)) return false;
+        return moveX != pieceX && isCage(moveX, moveY);
+    }
+
+    /** only castling moves the king by two squares */
+    boolean isCastleMove(int pieceX, int pieceY, int moveX, int moveY) {
+        return isKing(pieceX, pieceY) && pieceY == moveY && Math.abs(moveX - pieceX) == 2;
+    }
+
+    private int[] getMoveBuffer() {
+        if (moveBuffer == null) moveBuffer = new int[MAX_MOVES];
+        return moveBuffer;
     }
 }
@@ -1,266 +1,359 @@
 package com.iapp.lib.chess_engine;
 
-import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.Gdx;
 import com.iapp.lib.ui.screens.RdApplication;
 
-import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 class IgorChessEngine {
 
-    public static final short PAWN = 10;
-    public static final short ROOK = 50;
-    public static final short KNIGHT = 30;
-    public static final short BISHOP = 30;
-    public static final short QUEEN = 90;
-    public static final short KING = 900;
-
-    private final float[][] whitePawnEval = {
-            {0.0f,  0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f},
-            {5.0f, 5.0f, 5.0f, 5.0f, 5.0f, 5.0f, 5.0f, 5.0f},
-            {1.0f, 1.0f, 2.0f, 3.0f, 3.0f, 2.0f, 1.0f, 1.0f},
-            {0.5f, 0.5f, 1.0f, 2.5f, 2.5f, 1.0f, 0.5f, 0.5f},
-            {0.0f, 0.0f, 0.0f, 2.0f, 2.0f, 0.0f, 0.0f, 0.0f},
-            {0.5f, -0.5f, -1.0f, 0.0f, 0.0f, -1.0f, -0.5f, 0.5f},
-            {0.5f, 1.0f, 1.0f, -2.0f, -2.0f, 1.0f, 1.0f, 0.5f},
-            {0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f}
-    };
-
-    private final float[][] blackPawnEval = reverseMatrix(whitePawnEval);
-
-    private final float[][] knightEval = {
-            {-5.0f, -4.0f, -3.0f, -3.0f, -3.0f, -3.0f, -4.0f, -5.0f},
-            {-4.0f, -2.0f, 0.0f, 0.0f, 0.0f, 0.0f, -2.0f, -4.0f},
-            {-3.0f, 0.0f, 1.0f, 1.5f, 1.5f, 1.0f, 0.0f, -3.0f},
-            {-3.0f, 0.5f, 1.5f, 2.0f, 2.0f, 1.5f, 0.5f, -3.0f},
-            {-3.0f, 0.0f, 1.5f, 2.0f, 2.0f, 1.5f, 0.0f, -3.0f},
-            {3.0f, 0.5f, 1.0f, 1.5f, 1.5f, 1.0f, 0.5f, -3.0f},
-            {-4.0f, -2.0f, 0.0f, 0.5f, 0.5f, 0.0f, -2.0f, -4.0f},
-            {-5.0f, -4.0f, -3.0f, -3.0f, -3.0f, -3.0f, -4.0f, -5.0f}
-    };
-
-    private final float[][] whiteBishopEval = {
-            {-2.0f, -1.0f, -1.0f, -1.0f, -1.0f, -1.0f, -1.0f, -2.0f},
-            {-1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f},
-            {-1.0f, 0.0f, 0.5f, 1.0f, 1.0f, 0.5f, 0.0f, -1.0f},
-            {-1.0f, 0.5f, 0.5f, 1.0f, 1.0f, 0.5f, 0.5f, -1.0f},
-            {-1.0f, 0.0f, 1.0f,  1.0f,  1.0f, 1.0f, 0.0f, -1.0f},
-            {1.0f, 1.0f, 1.0f, 1.0f, 1.0f, 1.0f, 1.0f, -1.0f},
-            {-1.0f, 0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.5f, -1.0f},
-            {-2.0f, -1.0f, -1.0f, -1.0f, -1.0f, -1.0f, -1.0f, -2.0f}
-    };
-
-    private final float[][] blackBishopEval = reverseMatrix(whiteBishopEval);
-
-    private final float[][] whiteRookEval = {
-            {0.0f,  0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f},
-            {0.5f, 1.0f, 1.0f, 1.0f, 1.0f, 1.0f, 1.0f, 0.5f},
-            {-0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -0.5f},
-            {-0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -0.5f},
-            {-0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -0.5f},
-            {-0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -0.5f},
-            {-0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -0.5f},
-            {0.0f, 0.0f, 0.0f, 0.5f, 0.5f, 0.0f, 0.0f, 0.0f}
-    };
-
-    private final float[][] blackRookEval = reverseMatrix(whiteRookEval);
-
-    private final float[][] queenEval = {
-            {-2.0f, -1.0f, -1.0f, -0.5f, -0.5f, -1.0f, -1.0f, -2.0f},
-            {-1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f},
-            {-1.0f, 0.0f, 0.5f, 0.5f, 0.5f, 0.5f, 0.0f, -1.0f},
-            {-0.5f, 0.0f, 0.5f, 0.5f, 0.5f, 0.5f, 0.0f, -0.5f},
-            {0.0f, 0.0f, 0.5f, 0.5f, 0.5f, 0.5f, 0.0f, -0.5f},
-            {-1.0f, 0.5f, 0.5f, 0.5f, 0.5f, 0.5f, 0.0f, -1.0f},
-            {-1.0f, 0.0f, 0.5f, 0.0f, 0.0f, 0.0f, 0.0f, -1.0f},
-            {-2.0f, -1.0f, -1.0f, -0.5f, -0.5f, -1.0f, -1.0f, -2.0f}
-    };
-
-    private final float[][] whiteKingEval = {
-            {-3.0f, -4.0f, -4.0f, -5.0f, -5.0f, -4.0f, -4.0f, -3.0f},
-            {-3.0f, -4.0f, -4.0f, -5.0f, -5.0f, -4.0f, -4.0f, -3.0f},
-            {-3.0f, -4.0f, -4.0f, -5.0f, -5.0f, -4.0f, -4.0f, -3.0f},
-            {-3.0f, -4.0f, -4.0f, -5.0f, -5.0f, -4.0f, -4.0f, -3.0f},
-            {-2.0f, -3.0f, -3.0f, -4.0f, -4.0f, -3.0f,-3.0f, -2.0f},
-            {-1.0f, -2.0f, -2.0f, -2.0f, -2.0f, -2.0f, -2.0f, -1.0f},
-            {2.0f, 2.0f, 0.0f, 0.0f, 0.0f, 0.0f, 2.0f, 2.0f},
-            {2.0f, 3.0f, 1.0f, 0.0f, 0.0f, 1.0f, 3.0f, 2.0f}
-    };
-
-    private final float[][] blackKingEval = reverseMatrix(whiteKingEval);
-
-    private final AtomicInteger countMinimaxThreads;
-    private final Map<Move, Integer> minimaxResult;
-    private Color aiColor, userColor;
-
-    public IgorChessEngine() {
-        countMinimaxThreads = new AtomicInteger(0);
-        minimaxResult = RdApplication.self().getLauncher().concurrentHashMap();
+    /**
+     * the score of a mated side at the root, it is out of the window of any evaluation,
+     * a mate in n plies scores MATE - n
+     * */
+    private static final int MATE = 20_000;
+    /** the scores beyond it are the mates */
+    private static final int MATE_BOUND = MATE - MoveOrdering.MAX_PLY;
+    private static final int INFINITY = 30_000;
+    private static final int MAX_DEPTH = 32;
+
+    /** shared by all searching threads, the scores are stored for the color to move */
+    private final TranspositionTable table;
+    private final int threads;
+    private final Executor executor;
+    private volatile Search current;
+
+    /**
+     * @param tableSizeMb the size of the transposition table
+     * @param threads the count of tasks searching the same position together
+     * */
+    public IgorChessEngine(int tableSizeMb, int threads) {
+        this(tableSizeMb, threads, task -> RdApplication.self().execute(task));
+    }
+
+    /** @param executor runs the tasks of the search, the benchmarks run them in the calling thread */
+    IgorChessEngine(int tableSizeMb, int threads, Executor executor) {
+        if (threads < 1) throw new IllegalArgumentException("at least one thread is required");
+        table = new TranspositionTable(tableSizeMb);
+        this.threads = threads;
+        this.executor = executor;
     }
 
     public void getMove(Game game, int depth, Color aiColor, OnGettingMove callback) {
-        this.aiColor = aiColor;
-        userColor = reverse(aiColor);
-        countMinimaxThreads.set(0);
-        minimaxResult.clear();
+        start(new Search(game, aiColor, depth, Long.MAX_VALUE, null, callback));
+    }
 
-        Game clonedGame = game.cloneGame();
-        Runnable task = () -> {
-            try {
-                int bestMove = Integer.MIN_VALUE;
-                Move virtualAIMove = null;
-
-                Array<Move> moves = getAllMoves(clonedGame, aiColor);
-                for (Move move : moves) {
-                    clonedGame.makeMove(move);
-                    getParallelMiniMax(clonedGame.cloneGame(), move, depth - 1, -10_000, 10_000, userColor);
-                    countMinimaxThreads.incrementAndGet();
-                    clonedGame.cancelMove();
-                }
+    /**
+     * Searches deeper and deeper until the time is over or the max depth is completed,
+     * the best move of the last completed depth is passed to the callback
+     * */
+    public void getMoveByTime(Game game, int maxDepth, long timeMillis, Color aiColor,
+                              OnGettingMove onIntermediate, OnGettingMove callback) {
+        start(new Search(game, aiColor, Math.min(maxDepth, MAX_DEPTH),
+            System.currentTimeMillis() + timeMillis, onIntermediate, callback));
+    }
 
-                while (countMinimaxThreads.get() != 0) {
-                    Thread.yield();
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace(System.out);
-                        return;
-                    }
-                }
+    /** forgets the searched positions, the benchmarks start each search with an empty table */
+    void clearTable() {
+        table.clear();
+    }
 
-                for (Map.Entry<Move, Integer> pair : minimaxResult.entrySet()) {
-                    if (pair.getValue() >= bestMove) {
-                        bestMove = pair.getValue();
-                        virtualAIMove = pair.getKey();
-                    }
-                }
+    /** stops the current search, its callback is not called */
+    public void interrupt() {
+        Search search = current;
+        if (search != null) {
+            search.cancelled = true;
+            search.stopped = true;
+        }
+    }
 
-                if (virtualAIMove != null) {
-                    callback.onGetting(virtualAIMove, TypePiece.QUEEN);
-                }
+    /**
+     * Lazy SMP: all tasks search the same position and share the transposition table,
+     * the helpers differ by depth and order of the root moves and only fill the table.
+     * The result of the main task is used, the last finished task passes it to the callback.
+     * */
+    private void start(Search search) {
+        interrupt();
+        current = search;
+
+        for (int id = 0; id < threads; id++) {
+            Worker worker = new Worker(search, id);
+            try {
+                executor.execute(() -> {
+                    try {
+                        worker.run();
+                    } catch (RuntimeException e) {
+                        Gdx.app.error("IgorChessEngine", "the search task has failed", e);
+                    } finally {
+                        // the callback waits for every task
+                        search.finish();
+                    }
+                });
             } catch (RejectedExecutionException e) {
-                e.printStackTrace(System.out);
+                Gdx.app.error("IgorChessEngine", "the search task is rejected", e);
+                // the helpers of a search without all its tasks are stopped too
+                search.stopped = true;
+                search.finish();
             }
-        };
-        RdApplication.self().execute(task);
+        }
     }
 
-    public void interrupt() {}
+    /** the mates are stored by their distance from the position, not from the root */
+    private static int toTable(int score, int ply) {
+        if (score > MATE_BOUND) return score + ply;
+        if (score < -MATE_BOUND) return score - ply;
+        return score;
+    }
 
-    private void getParallelMiniMax(Game cloneGame, Move move, int depth, int alpha, int beta, Color userColor) {
-        Runnable task = () -> {
-            try {
-                minimaxResult.put(move, getMiniMax(cloneGame, depth, alpha, beta, userColor));
-            } catch (InterruptedException | RejectedExecutionException e) {
-                e.printStackTrace(System.out);
-            }
-            countMinimaxThreads.decrementAndGet();
-        };
-        RdApplication.self().execute(task);
+    private static int fromTable(int score, int ply) {
+        if (score > MATE_BOUND) return score - ply;
+        if (score < -MATE_BOUND) return score + ply;
+        return score;
     }
 
-    private int getMiniMax(Game clonedGame, int depth, int alpha, int beta, Color color) throws InterruptedException  {
-        if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+    /** the state of one search, shared by its tasks */
+    private final class Search {
+
+        private final Game game;
+        private final Color aiColor;
+        private final int maxDepth;
+        private final long deadline;
+        private final OnGettingMove onIntermediate;
+        private final OnGettingMove callback;
+        private final AtomicInteger running;
+        private volatile boolean stopped;
+        private volatile boolean cancelled;
+        private volatile Move bestMove;
+
+        private Search(Game game, Color aiColor, int maxDepth, long deadline,
+                       OnGettingMove onIntermediate, OnGettingMove callback) {
+            this.game = game;
+            this.aiColor = aiColor;
+            this.maxDepth = maxDepth;
+            this.deadline = deadline;
+            this.onIntermediate = onIntermediate;
+            this.callback = callback;
+            running = new AtomicInteger(threads);
+        }
+
+        /** the last finished task always reports a move, unless the search is cancelled or there are no moves */
+        private void finish() {
+            if (running.decrementAndGet() != 0) return;
 
-        if (depth == 0) {
-            return evaluateBoard(clonedGame);
+            if (current == this) current = null;
+            if (cancelled) return;
+
+            Move move = bestMove != null ? bestMove : getAnyMove();
+            if (move != null) callback.onGetting(move, TypePiece.QUEEN);
+            else Gdx.app.error("IgorChessEngine", "the search has no legal moves");
+        }
+
+        /** the main task has failed before the first move, any legal move is better than none */
+        private Move getAnyMove() {
+            int[] moves = new int[Game.MAX_MOVES];
+            return game.cloneGame().generateLegalMoves(moves, 0) != 0 ? Move.unpack(moves[0]) : null;
         }
+    }
 
-        Array<Move> moves = getAllMoves(clonedGame, color);
-        int bestMove;
-        if (color == aiColor) {
-            bestMove = Integer.MIN_VALUE;
+    /** a task of the search with its own copy of the game */
+    private final class Worker {
 
-            for (Move move : moves) {
-                clonedGame.makeMove(move);
+        private final Search search;
+        private final Game game;
+        private final int id;
+        private final MoveOrdering ordering = new MoveOrdering();
+        /** the packed moves of each ply, reused through the whole search */
+        private final int[][] buffers = new int[MoveOrdering.MAX_PLY][];
 
-                int value = getMiniMax(clonedGame,depth - 1, alpha, beta, clonedGame.reverse(color));
-                bestMove = Math.max(bestMove, value);
+        private Worker(Search search, int id) {
+            this.search = search;
+            this.id = id;
+            game = search.game.cloneGame();
+        }
 
-                clonedGame.cancelMove();
+        private void run() {
+            int[] rootMoves = getBuffer(0);
+            int countMoves = 0;
+            int bestMove = 0;
 
-                alpha = Math.max(alpha, bestMove);
-                if (beta <= alpha) {
-                    return bestMove;
+            try {
+                countMoves = game.generateLegalMoves(rootMoves, 0);
+                // the helpers start from different moves to fill the table with different subtrees
+                for (int i = 0; id != 0 && i < id % Math.max(countMoves, 1); i++) {
+                    moveToFront(rootMoves, countMoves - 1);
                 }
-            }
-        } else {
-            bestMove = Integer.MAX_VALUE;
 
-            for (Move move : moves) {
-                clonedGame.makeMove(move);
+                // the odd helpers are one depth ahead
+                int depth = id == 0 ? 1 : 1 + (id & 1);
 
-                int value = getMiniMax(clonedGame, depth - 1, alpha, beta, clonedGame.reverse(color));
-                bestMove = Math.min(bestMove, value);
+                for (; depth <= search.maxDepth && countMoves != 0; depth++) {
+                    bestMove = getRootMove(rootMoves, countMoves, depth, bestMove);
 
-                clonedGame.cancelMove();
+                    if (id == 0) {
+                        search.bestMove = Move.unpack(bestMove);
+                        if (search.onIntermediate != null) {
+                            search.onIntermediate.onGetting(search.bestMove, TypePiece.QUEEN);
+                        }
+                    }
 
-                beta = Math.min(beta, bestMove);
-                if (beta <= alpha) {
-                    return bestMove;
+                    // nothing to think about
+                    if (countMoves == 1) break;
+                }
+            } catch (InterruptedException e) {
+                // the search is stopped, the depth is not completed
+            } finally {
+                if (id == 0) {
+                    // the time is over or the task has failed before the first depth, any move is better than none
+                    if (search.bestMove == null && countMoves != 0) search.bestMove = Move.unpack(rootMoves[0]);
+                    // the helpers are not needed without the main task
+                    search.stopped = true;
                 }
             }
         }
 
-        return bestMove;
-    }
-
-    private int evaluateBoard(Game game) {
-        int totalEvaluation = 0;
+        /** searches the root moves one by one, the best move of the previous depth goes first */
+        private int getRootMove(int[] moves, int count, int depth, int previousBest) throws InterruptedException {
+            for (int i = 0; previousBest != 0 && i < count; i++) {
+                if (moves[i] == previousBest) moveToFront(moves, i);
+            }
 
-        byte[][] matrix = game.getMatrix();
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[i].length; j++) {
-                totalEvaluation += evaluatePiece(game, j, i);
+            Color userColor = reverse(search.aiColor);
+            int alpha = -INFINITY;
+            int bestMove = 0;
+            for (int i = 0; i < count; i++) {
+                game.makeMove(moves[i]);
+                int value = -getNegaMax(depth - 1, 1, -INFINITY, -alpha, userColor);
+                game.cancelMove();
+
+                if (bestMove == 0 || value > alpha) {
+                    alpha = value;
+                    bestMove = moves[i];
+                }
             }
+            return bestMove;
         }
-        return totalEvaluation;
-    }
 
-    private float evaluatePiece(Game game, int x, int y) {
-        float eval = 0;
-
-        if (game.isPawn(x, y)) {
-            if (y == 7 || y == 0) eval =  90 + queenEval[y][x];
-            else eval = PAWN + (game.getColor(x, y) == Color.BLACK ? blackPawnEval[y][x] : whitePawnEval[y][x]);
-        } else if (game.isRook(x, y)) {
-            eval = ROOK + (game.getColor(x, y) == Color.BLACK ? blackRookEval[y][x] : whiteRookEval[y][x]);
-        } else if (game.isKnight(x, y)) {
-            eval = KNIGHT + knightEval[y][x];
-        } else if (game.isBishop(x, y)) {
-            eval = BISHOP + (game.getColor(x, y) == Color.BLACK ? blackBishopEval[y][x] : whiteBishopEval[y][x]);
-        } else if (game.isQueen(x, y)) {
-            eval =  QUEEN + queenEval[y][x];
-        } else if (game.isKing(x, y)) {
-            eval = KING + (game.getColor(x, y) == Color.BLACK ? blackKingEval[y][x] : whiteKingEval[y][x]);
-        }
+        /** alpha-beta search, returns the score for the color to move, ply is the distance from the root */
+        private int getNegaMax(int depth, int ply, int alpha, int beta, Color color) throws InterruptedException {
+            checkStopped();
 
-        return game.getColor(x, y) == aiColor ? eval : -eval;
-    }
+            if (depth == 0) {
+                return getQuiescence(ply, alpha, beta, color);
+            }
+
+            long key = game.getKey();
+            long entry = table.probe(key);
+            // the best move of a shallower search is still the first to try
+            int hashMove = entry != 0 ? TranspositionTable.getMove(entry) : 0;
+            if (entry != 0 && TranspositionTable.getDepth(entry) >= depth) {
+                int score = fromTable(TranspositionTable.getScore(entry), ply);
+                int bound = TranspositionTable.getBound(entry);
+
+                if (bound == TranspositionTable.EXACT) return score;
+                if (bound == TranspositionTable.LOWER && score >= beta) return score;
+                if (bound == TranspositionTable.UPPER && score <= alpha) return score;
+            }
+
+            int[] moves = getBuffer(ply);
+            int end = game.generateLegalMoves(moves, 0);
+            if (end == 0) return getScoreWithoutMoves(ply);
+            ordering.order(game, moves, 0, end, hashMove, ply);
+
+            int alphaOrigin = alpha;
+            int bestScore = -INFINITY;
+            int bestMove = 0;
+
+            for (int i = 0; i < end; i++) {
+                int move = moves[i];
+                game.makeMove(move);
+                int value = -getNegaMax(depth - 1, ply + 1, -beta, -alpha, reverse(color));
+                game.cancelMove();
 
-    private Array<Move> getAllMoves(Game game, Color color) {
-        Array<Move> moves = new Array<>();
-        byte[][] matrix = game.getMatrix();
+                if (value > bestScore) {
+                    bestScore = value;
+                    bestMove = move;
+                }
 
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[i].length; j++) {
-                if (game.getColor(j, i) == color) {
-                    moves.addAll(game.getMoves(j, i));
+                alpha = Math.max(alpha, bestScore);
+                if (beta <= alpha) {
+                    ordering.onCutoff(game, move, ply, depth);
+                    break;
                 }
             }
+
+            int bound;
+            if (bestScore <= alphaOrigin) bound = TranspositionTable.UPPER;
+            else if (bestScore >= beta) bound = TranspositionTable.LOWER;
+            else bound = TranspositionTable.EXACT;
+            table.store(key, depth, bound, toTable(bestScore, ply), bestMove);
+
+            return bestScore;
         }
 
-        return moves;
-    }
+        /**
+         * searches only captures and promotions from the leaves until the position is quiet,
+         * the side to move may also stand pat with the score of the board
+         * */
+        private int getQuiescence(int ply, int alpha, int beta, Color color) throws InterruptedException {
+            checkStopped();
+            if (ply == MoveOrdering.MAX_PLY) return game.getScore(color);
+
+            int[] moves = getBuffer(ply);
+            int end = game.generateLegalMoves(moves, 0);
+            if (end == 0) return getScoreWithoutMoves(ply);
+
+            int bestScore = game.getScore(color);
+            if (bestScore >= beta) return bestScore;
+            alpha = Math.max(alpha, bestScore);
+
+            ordering.order(game, moves, 0, end, 0, ply);
+            for (int i = 0; i < end; i++) {
+                int move = moves[i];
+                if (!MoveOrdering.isCapture(game, move) && !isPromotion(move)) continue;
+
+                game.makeMove(move);
+                int value = -getQuiescence(ply + 1, -beta, -alpha, reverse(color));
+                game.cancelMove();
+
+                if (value > bestScore) {
+                    bestScore = value;
+                    alpha = Math.max(alpha, value);
+                    if (beta <= alpha) break;
+                }
+            }
+            return bestScore;
+        }
 
-    private float[][] reverseMatrix(float[][] matrix) {
-        float[][] reversedMatrix = new float[matrix.length][matrix[0].length];
+        /** the side to move is mated if it is in check, else it is a stalemate */
+        private int getScoreWithoutMoves(int ply) {
+            return game.getCheckKing() != null ? -(MATE - ply) : 0;
+        }
+
+        private boolean isPromotion(int move) {
+            int moveY = (move >>> 9) & 7;
+            return game.isPawn(move & 7, (move >>> 3) & 7) && (moveY == 0 || moveY == 7);
+        }
+
+        private int[] getBuffer(int ply) {
+            if (buffers[ply] == null) buffers[ply] = new int[Game.MAX_MOVES];
+            return buffers[ply];
+        }
+
+        /** moves the move to the front, the order of the others is kept */
+        private void moveToFront(int[] moves, int index) {
+            int move = moves[index];
+            System.arraycopy(moves, 0, moves, 1, index);
+            moves[0] = move;
+        }
 
-        for (int i = matrix.length - 1; i >= 0; i--) {
-            System.arraycopy(matrix[i], 0, reversedMatrix[matrix.length - 1 - i], 0, matrix[i].length);
+        private void checkStopped() throws InterruptedException {
+            if (search.stopped || Thread.currentThread().isInterrupted()
+                    || System.currentTimeMillis() > search.deadline) {
+                throw new InterruptedException();
+            }
         }
-        return reversedMatrix;
     }
 
     private Color reverse(Color first) {
@@ -13,12 +13,36 @@ public class IgorChessEngineAdapter implements ChessEngine {
             4,'e',  5,'f',
             6,'g',  7, 'h');
 
+    private static final int DEFAULT_TABLE_SIZE_MB = 4;
+    /** the search shares the thread pool of the application */
+    private static final int DEFAULT_THREADS = 2;
+
+    private final int tableSizeMb;
+    private final int threads;
     private IgorChessEngine engine;
     private Game game;
 
+    public IgorChessEngineAdapter() {
+        this(DEFAULT_TABLE_SIZE_MB);
+    }
+
+    /** @param tableSizeMb the size of the transposition table of the engine */
+    public IgorChessEngineAdapter(int tableSizeMb) {
+        this(tableSizeMb, Math.min(DEFAULT_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param tableSizeMb the size of the transposition table of the engine
+     * @param threads the count of tasks searching together
+     * */
+    public IgorChessEngineAdapter(int tableSizeMb, int threads) {
+        this.tableSizeMb = tableSizeMb;
+        this.threads = threads;
+    }
+
     @Override
     public void start() {
-        engine = new IgorChessEngine();
+        engine = new IgorChessEngine(tableSizeMb, threads);
     }
 
     @Override
@@ -28,38 +52,41 @@ public class IgorChessEngineAdapter implements ChessEngine {
 
     @SuppressWarnings("DefaultLocale")
     @Override
-    public void getBestMoves(int depth, Consumer<String> onGetting, long minDelayMillis) {
-        Runnable task = () -> {
-            long start = System.currentTimeMillis();
-
-            engine.getMove(game, depth, game.getColorMove(), (move, typePiece) -> {
-                String textMoves = getFenMove(
-                        Move.valueOf(move.getPieceX(), 7 - move.getPieceY(),
-                        move.getMoveX(), 7 - move.getMoveY()));
-
-                // updating a piece always occurs on the queen
-                if (game.isUpdated(move)) {
-                    textMoves += game.getColorMove() == Color.BLACK ? "q" : "Q";
-                }
-
-                Gdx.app.debug("IgorChessEngine get best move",
-                    String.format("Depth-%d got move in %d milliseconds%n", depth, (System.currentTimeMillis() - start)));
-                Gdx.app.debug("IgorChessEngine get best move",
-                    String.format("Text move = %s%n", textMoves));
-
-                long left = minDelayMillis - (System.currentTimeMillis() - start);
-
-                try {
-                    if (left > 0) Thread.sleep(left);
-                } catch (InterruptedException e) {
-                    e.printStackTrace(System.out);
-                }
-
-                String finalTextMoves = textMoves;
-                RdApplication.postRunnable(() -> onGetting.accept(finalTextMoves));
-            });
-        };
-        RdApplication.self().execute(task);
+    public void getBestMoves(int depth, Consumer<String> onGetting) {
+        long start = System.currentTimeMillis();
+
+        // the engine searches on the thread pool and calls back from the last finished task
+        engine.getMove(game, depth, game.getColorMove(), (move, typePiece) -> {
+            String textMoves = getTextMove(move);
+
+            Gdx.app.debug("IgorChessEngine get best move",
+                String.format("Depth-%d got move in %d milliseconds%n", depth, (System.currentTimeMillis() - start)));
+            Gdx.app.debug("IgorChessEngine get best move",
+                String.format("Text move = %s%n", textMoves));
+
+            RdApplication.postRunnable(() -> onGetting.accept(textMoves));
+        });
+    }
+
+    @SuppressWarnings("DefaultLocale")
+    @Override
+    public void getBestMovesByTime(int maxDepth, long timeMillis,
+                                   Consumer<String> onIntermediate, Consumer<String> onGetting) {
+        long start = System.currentTimeMillis();
+
+        engine.getMoveByTime(game, maxDepth, timeMillis, game.getColorMove(), (move, typePiece) -> {
+            String textMove = getTextMove(move);
+            RdApplication.postRunnable(() -> onIntermediate.accept(textMove));
+
+        }, (move, typePiece) -> {
+            String textMove = getTextMove(move);
+            Gdx.app.debug("IgorChessEngine get best move",
+                String.format("Got move in %d milliseconds%n", (System.currentTimeMillis() - start)));
+            Gdx.app.debug("IgorChessEngine get best move",
+                String.format("Text move = %s%n", textMove));
+
+            RdApplication.postRunnable(() -> onGetting.accept(textMove));
+        });
     }
 
     @Override
@@ -68,6 +95,18 @@ public class IgorChessEngineAdapter implements ChessEngine {
         engine = null;
     }
 
+    private String getTextMove(Move move) {
+        String textMove = getFenMove(
+            Move.valueOf(move.getPieceX(), 7 - move.getPieceY(),
+            move.getMoveX(), 7 - move.getMoveY()));
+
+        // updating a piece always occurs on the queen
+        if (game.isUpdated(move)) {
+            textMove += game.getColorMove() == Color.BLACK ? "q" : "Q";
+        }
+        return textMove;
+    }
+
     private String getFenMove(Move move) {
         String transition = "";
 
@@ -27,6 +27,11 @@ public class Move implements Serializable {
         return cache[pieceY + 1][pieceX + 1][moveY + 1][moveX + 1];
     }
 
+    /** returns the move from the squares packed by pack */
+    static Move unpack(int move) {
+        return valueOf(move & 7, (move >>> 3) & 7, (move >>> 6) & 7, (move >>> 9) & 7);
+    }
+
     private Move(int pieceX, int pieceY, int moveX, int moveY) {
         this.pieceX = (byte) pieceX;
         this.pieceY = (byte) pieceY;
@@ -50,6 +55,11 @@ public class Move implements Serializable {
         return moveY;
     }
 
+    /** returns the squares of the move as from | to << 6, a square is y * 8 + x */
+    int pack() {
+        return (pieceY << 3 | pieceX) | (moveY << 3 | moveX) << 6;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,98 @@
+package com.iapp.lib.chess_engine;
+
+/**
+ * Orders the moves before the alpha-beta search visits them:
+ * the hash move, captures by MVV-LVA, killer moves and quiet moves by the history heuristic.
+ * Keeps the killers and the history of one searching thread, so it is not thread safe.
+ * @version 1.0
+ * @author Igor Ivanov
+ * */
+final class MoveOrdering {
+
+    static final int MAX_PLY = 128;
+
+    private static final int HASH_MOVE = 1 << 30;
+    private static final int CAPTURE = 1 << 24;
+    private static final int FIRST_KILLER = 1 << 23;
+    private static final int SECOND_KILLER = FIRST_KILLER - 1;
+    private static final int MAX_HISTORY = 1 << 20;
+
+    /** values of the pieces for MVV-LVA by the type of the piece */
+    private static final int[] values = {0, 0, 0, 1, 5, 3, 3, 9, 20};
+
+    /** two quiet moves per ply that caused a cutoff, as packed moves */
+    private final int[][] killers = new int[MAX_PLY][2];
+    /** rewards for the cutoffs of quiet moves by from and to squares */
+    private final int[][] history = new int[64][64];
+    private int[] scores = new int[256];
+
+    /** sorts the packed moves of the buffer from the offset to the end, the hash move is a packed move or 0 */
+    void order(Game game, int[] moves, int offset, int end, int hashMove, int ply) {
+        if (scores.length < end) scores = new int[end];
+
+        for (int i = offset; i < end; i++) {
+            scores[i] = getScore(game, moves[i], hashMove, ply);
+        }
+
+        // insertion sort, the lists are short and often almost sorted
+        for (int i = offset + 1; i < end; i++) {
+            int move = moves[i];
+            int score = scores[i];
+            int j = i - 1;
+
+            while (j >= offset && scores[j] < score) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+
+    /** remembers the quiet move that caused a beta cutoff */
+    void onCutoff(Game game, int move, int ply, int depth) {
+        if (isCapture(game, move)) return;
+
+        if (ply < MAX_PLY && killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+
+        int[] fromHistory = history[move & 63];
+        fromHistory[(move >>> 6) & 63] += depth * depth;
+        if (fromHistory[(move >>> 6) & 63] > MAX_HISTORY) {
+            // keeps the history below the killers
+            for (int[] squares : history) {
+                for (int i = 0; i < squares.length; i++) {
+                    squares[i] /= 2;
+                }
+            }
+        }
+    }
+
+    private int getScore(Game game, int move, int hashMove, int ply) {
+        if (move == hashMove) return HASH_MOVE;
+
+        if (isCapture(game, move)) {
+            // most valuable victim, least valuable attacker
+            byte victim = game.getPiece((move >>> 6) & 7, (move >>> 9) & 7);
+            int victimValue = victim == BoardMatrix.CAGE ? values[BoardMatrix.PAWN] : values[Math.abs(victim)];
+            int attackerValue = values[Math.abs(game.getPiece(move & 7, (move >>> 3) & 7))];
+            return CAPTURE + victimValue * 32 - attackerValue;
+        }
+
+        if (ply < MAX_PLY) {
+            if (killers[ply][0] == move) return FIRST_KILLER;
+            if (killers[ply][1] == move) return SECOND_KILLER;
+        }
+        return history[move & 63][(move >>> 6) & 63];
+    }
+
+    /** a move to an enemy piece or a pawn move to the side, that is taking on the pass */
+    static boolean isCapture(Game game, int move) {
+        int pieceX = move & 7, moveX = (move >>> 6) & 7;
+        return game.getPiece(moveX, (move >>> 9) & 7) != BoardMatrix.CAGE
+                || game.isPawn(pieceX, (move >>> 3) & 7) && pieceX != moveX;
+    }
+}
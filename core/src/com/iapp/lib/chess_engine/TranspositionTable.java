@@ -0,0 +1,77 @@
+package com.iapp.lib.chess_engine;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size hash table of searched positions, shared by the search threads without locks.
+ * Each entry is two longs: the key xor the data and the data itself.
+ * A torn write from another thread breaks the xor and the entry is read as missing.
+ * The data is packed as move (12 bits) | depth << 12 (8 bits) | bound << 20 (2 bits) | score << 32.
+ * @version 1.0
+ * @author Igor Ivanov
+ * */
+final class TranspositionTable {
+
+    static final int EXACT = 1;
+    /** the score is at least the stored one, the search failed high */
+    static final int LOWER = 2;
+    /** the score is at most the stored one, the search failed low */
+    static final int UPPER = 3;
+
+    private static final int ENTRY_BYTES = 16;
+
+    private final long[] entries;
+    private final int mask;
+
+    /** @param sizeMb the memory for the table, rounded down to a power of two entries */
+    TranspositionTable(int sizeMb) {
+        if (sizeMb < 1) throw new IllegalArgumentException("size must be at least 1 MB");
+
+        int size = Integer.highestOneBit((int) Math.min((long) sizeMb * 1024 * 1024 / ENTRY_BYTES, 1 << 26));
+        entries = new long[size * 2];
+        mask = size - 1;
+    }
+
+    /** returns the data of the position or 0 if the position is not in the table */
+    long probe(long key) {
+        int index = index(key);
+        long data = entries[index + 1];
+        return (entries[index] ^ data) == key ? data : 0;
+    }
+
+    /** the entry of another position is replaced always, the same position only by a deeper search */
+    void store(long key, int depth, int bound, int score, int move) {
+        int index = index(key);
+        long old = entries[index + 1];
+        if ((entries[index] ^ old) == key && getDepth(old) > depth) return;
+
+        long data = (move & 0xFFFL) | (long) Math.min(depth, 255) << 12
+                | (long) bound << 20 | (long) score << 32;
+        entries[index] = key ^ data;
+        entries[index + 1] = data;
+    }
+
+    void clear() {
+        Arrays.fill(entries, 0);
+    }
+
+    static int getMove(long data) {
+        return (int) (data & 0xFFF);
+    }
+
+    static int getDepth(long data) {
+        return (int) ((data >>> 12) & 0xFF);
+    }
+
+    static int getBound(long data) {
+        return (int) ((data >>> 20) & 3);
+    }
+
+    static int getScore(long data) {
+        return (int) (data >> 32);
+    }
+
+    private int index(long key) {
+        return ((int) (key ^ (key >>> 32)) & mask) << 1;
+    }
+}
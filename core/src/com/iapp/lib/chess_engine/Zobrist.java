@@ -0,0 +1,50 @@
+package com.iapp.lib.chess_engine;
+
+import java.util.Random;
+
+/**
+ * Random keys for the Zobrist hashing of positions.
+ * The keys are generated with a fixed seed, so they are the same on all platforms.
+ * @version 1.0
+ * @author Igor Ivanov
+ * */
+final class Zobrist {
+
+    /** keys by piece + 8 and square */
+    static final long[][] PIECES = new long[17][64];
+    /** keys by all combinations of the castling flags of BoardMatrix */
+    static final long[] FLAGS = new long[64];
+    /** keys by the file of a pawn that has just moved two squares */
+    static final long[] EN_PASSANT = new long[8];
+    static final long WHITE_MOVE;
+    /** the same placement of pieces means another game when the board is flipped */
+    static final long UPPER_WHITE;
+
+    static {
+        Random random = new Random(0x5A0B_0C1AL);
+
+        for (long[] keys : PIECES) {
+            for (int square = 0; square < keys.length; square++) {
+                keys[square] = random.nextLong();
+            }
+        }
+
+        long[] flags = new long[6];
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = random.nextLong();
+        }
+        for (int bits = 0; bits < FLAGS.length; bits++) {
+            for (int i = 0; i < flags.length; i++) {
+                if ((bits & (1 << i)) != 0) FLAGS[bits] ^= flags[i];
+            }
+        }
+
+        for (int file = 0; file < EN_PASSANT.length; file++) {
+            EN_PASSANT[file] = random.nextLong();
+        }
+        WHITE_MOVE = random.nextLong();
+        UPPER_WHITE = random.nextLong();
+    }
+
+    private Zobrist() {}
+}
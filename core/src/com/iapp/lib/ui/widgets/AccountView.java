@@ -40,7 +40,7 @@ public class AccountView extends RdTable implements Disposable {
         add(avatarView);
         add(new RdLabel(account.getFullName(), style.labelStyle)).padLeft(7);
 
-        client.requireAvatar(account,
+        client.requireThumbnail(account,
             bytes -> avatarView.update(account, bytes));
     }
 
@@ -69,6 +69,7 @@ public class BoardView extends Image {
 
     public void makeMove(Move move, boolean castling, boolean updated, CallListener onEndMove) {
         selected = null;
+        hintView = null;
         this.onEndMove = onEndMove;
         transitions.clear();
 
@@ -0,0 +1,70 @@
+package com.iapp.lib.web;
+
+/**
+ * A part of the avatar sent by the server
+ * @author Igor Ivanov
+ * The parts of one avatar go in order, the last one ends at the total size.
+ * An unchanged avatar is one part without data
+ * @see BinaryRequests#resultGetAvatar(byte, RequestStatus, long, boolean, String, byte[])
+ * */
+public class AvatarChunk {
+
+    private final RequestStatus status;
+    private final long id;
+    private final boolean thumbnail;
+    private final String hash;
+    private final boolean changed;
+    private final int total;
+    private final int offset;
+    private final byte[] data;
+
+    public AvatarChunk(RequestStatus status, long id, boolean thumbnail, String hash,
+                       boolean changed, int total, int offset, byte[] data) {
+        this.status = status;
+        this.id = id;
+        this.thumbnail = thumbnail;
+        this.hash = hash;
+        this.changed = changed;
+        this.total = total;
+        this.offset = offset;
+        this.data = data;
+    }
+
+    public RequestStatus getStatus() {
+        return status;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean isThumbnail() {
+        return thumbnail;
+    }
+
+    /** the content hash of the avatar, null if the account has no avatar */
+    public String getHash() {
+        return hash;
+    }
+
+    /** false if the client already has the avatar with this hash */
+    public boolean isChanged() {
+        return changed;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public boolean isLast() {
+        return offset + data.length >= total;
+    }
+}
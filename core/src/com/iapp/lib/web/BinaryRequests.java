@@ -6,6 +6,9 @@ import java.math.BigInteger;
 
 public final class BinaryRequests {
 
+    /** the size of the avatar parts, the frames stay small for the other messages of the session */
+    public static final int AVATAR_CHUNK_SIZE = 16 * 1024;
+
     public static byte[] updateAvatar(byte operation, long id, byte[] array) {
         byte[] idArray = BigInteger.valueOf(id).toByteArray();
         byte[] general = new byte[idArray.length + array.length + 2];
@@ -48,6 +51,68 @@ public final class BinaryRequests {
         return general;
     }
 
+    /**
+     * requests the avatar or its thumbnail only if it is changed
+     * @param knownHash - the hash of the cached avatar, null if there is none
+     * */
+    public static byte[] getChangedAvatar(byte operation, long id, boolean thumbnail, String knownHash) {
+        return new WireWriter(knownHash != null ? 80 : 16)
+            .writeByte(operation)
+            .writeLong(id)
+            .writeBoolean(thumbnail)
+            .writeString(knownHash)
+            .toArray();
+    }
+
+    /** @return id, thumbnail and the known hash */
+    public static Pair<Long, Pair<Boolean, String>> parseGetChangedAvatar(byte[] message) {
+        var reader = new WireReader(message, 1);
+        long id = reader.readLong();
+        boolean isThumbnail = reader.readBoolean();
+        return new Pair<>(id, new Pair<>(isThumbnail, reader.readString()));
+    }
+
+    /**
+     * splits the avatar into the parts of AVATAR_CHUNK_SIZE
+     * @param avatar - null if the client has the avatar with this hash
+     * @see AvatarChunk
+     * */
+    public static byte[][] resultGetAvatar(byte operation, RequestStatus requestStatus, long id,
+                                           boolean thumbnail, String hash, byte[] avatar) {
+        byte[] data = avatar != null ? avatar : new byte[0];
+        int count = Math.max(1, (data.length + AVATAR_CHUNK_SIZE - 1) / AVATAR_CHUNK_SIZE);
+
+        byte[][] chunks = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * AVATAR_CHUNK_SIZE;
+            int size = Math.min(AVATAR_CHUNK_SIZE, data.length - offset);
+            chunks[i] = new WireWriter(size + 96)
+                .writeByte(operation)
+                .writeEnum(requestStatus)
+                .writeLong(id)
+                .writeBoolean(thumbnail)
+                .writeString(hash)
+                .writeBoolean(avatar != null)
+                .writeVarLong(data.length)
+                .writeVarLong(offset)
+                .writeBytes(sub(data, offset, offset + size))
+                .toArray();
+        }
+        return chunks;
+    }
+
+    public static AvatarChunk parseResultAvatarChunk(byte[] packet) {
+        var reader = new WireReader(packet, 1);
+        RequestStatus status = reader.readEnum(RequestStatus.values());
+        long id = reader.readLong();
+        boolean thumbnail = reader.readBoolean();
+        String hash = reader.readString();
+        boolean changed = reader.readBoolean();
+        int total = (int) reader.readVarLong();
+        int offset = (int) reader.readVarLong();
+        return new AvatarChunk(status, id, thumbnail, hash, changed, total, offset, reader.readRemaining());
+    }
+
     public static RequestStatus parseResultUpdateAvatar(byte[] array) {
         return RequestStatus.values()[array[1]];
     }
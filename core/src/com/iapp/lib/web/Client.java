@@ -17,5 +17,7 @@ public interface Client {
 
     void requireAvatar(Account account, Consumer<byte[]> getAvatar);
 
+    void requireThumbnail(Account account, Consumer<byte[]> getThumbnail);
+
     AccountPanel currentAccountPanel();
 }
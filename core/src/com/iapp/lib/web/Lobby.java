@@ -14,7 +14,7 @@ public class Lobby {
 
     public static final long SERVER_USER_ID = -1;
     private static final Pattern INTEGER_PATTERN = Pattern.compile("[0-9]+");
-    private static final int MAX_LOBBY_SIZE = 10;
+    public static final int MAX_LOBBY_SIZE = 10;
     private static final int MAX_ID = 20;
     private static final long MAX_LOBBY_BANNED_TIME = 24 * 60 * 60 * 1000;
 
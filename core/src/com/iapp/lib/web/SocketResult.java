@@ -6,19 +6,29 @@ public class SocketResult {
     private final String result;
     private final String request;
     private final long id;
+    /** the result as an object for the binary format, JSON has only the string */
+    private final transient Object value;
 
     public SocketResult(RequestStatus status, String result, SocketRequest req) {
-        this.status = status;
-        this.result = result;
-        request = req.getRequest();
-        id = req.getSenderId();
+        this(status, result, null, req.getRequest(), req.getSenderId());
     }
 
     public SocketResult(RequestStatus status, SocketRequest req) {
+        this(status, null, null, req.getRequest(), req.getSenderId());
+    }
+
+    /** the value is converted to a string only for the JSON sessions */
+    public SocketResult(RequestStatus status, SocketRequest req, Object value) {
+        this(status, value instanceof String ? (String) value : null,
+            value instanceof String ? null : value, req.getRequest(), req.getSenderId());
+    }
+
+    public SocketResult(RequestStatus status, String result, Object value, String request, long id) {
         this.status = status;
-        this.result = null;
-        request = req.getRequest();
-        id = req.getSenderId();
+        this.result = result;
+        this.value = value;
+        this.request = request;
+        this.id = id;
     }
 
     public RequestStatus getStatus() {
@@ -29,6 +39,10 @@ public class SocketResult {
         return result;
     }
 
+    public Object getValue() {
+        return value;
+    }
+
     public String getRequest() {
         return request;
     }
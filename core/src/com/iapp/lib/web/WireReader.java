@@ -0,0 +1,79 @@
+package com.iapp.lib.web;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the values written by WireWriter
+ * @author Igor Ivanov
+ * @version 1.0
+ * @see WireWriter
+ * */
+public final class WireReader {
+
+    private final byte[] data;
+    private int position;
+
+    public WireReader(byte[] data, int position) {
+        this.data = data;
+        this.position = position;
+    }
+
+    public int readByte() {
+        return data[position++];
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = data[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("varint is too long");
+    }
+
+    public long readLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public int readInt() {
+        return (int) readLong();
+    }
+
+    public boolean readBoolean() {
+        return data[position++] != 0;
+    }
+
+    public double readDouble() {
+        long bits = 0;
+        for (int i = 0; i < 8; i++) bits |= (data[position++] & 0xFFL) << (i * 8);
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String readString() {
+        int length = (int) readVarLong();
+        if (length == 0) return null;
+        String value = new String(data, position, length - 1, StandardCharsets.UTF_8);
+        position += length - 1;
+        return value;
+    }
+
+    /** returns null for an unknown ordinal of a newer version */
+    public <T extends Enum<T>> T readEnum(T[] values) {
+        int ordinal = (int) readVarLong();
+        if (ordinal == 0 || ordinal > values.length) return null;
+        return values[ordinal - 1];
+    }
+
+    public byte[] readRemaining() {
+        byte[] bytes = new byte[data.length - position];
+        System.arraycopy(data, position, bytes, 0, bytes.length);
+        position = data.length;
+        return bytes;
+    }
+
+    public boolean hasRemaining() {
+        return position < data.length;
+    }
+}
@@ -0,0 +1,90 @@
+package com.iapp.lib.web;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes the values of the binary protocol into a growing array
+ * @author Igor Ivanov
+ * @version 1.0
+ * The integers are varints, the signed ones are zigzag encoded,
+ * the strings are UTF-8 with the length before them
+ * */
+public final class WireWriter {
+
+    private byte[] data;
+    private int size;
+
+    public WireWriter() {
+        this(64);
+    }
+
+    public WireWriter(int capacity) {
+        data = new byte[capacity];
+    }
+
+    public WireWriter writeByte(int value) {
+        ensure(1);
+        data[size++] = (byte) value;
+        return this;
+    }
+
+    /** an unsigned varint, 7 bits in a byte, the high bit means that more bytes follow */
+    public WireWriter writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            data[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[size++] = (byte) value;
+        return this;
+    }
+
+    /** a signed varint, the small negative values are short too, -1 takes one byte */
+    public WireWriter writeLong(long value) {
+        return writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public WireWriter writeInt(int value) {
+        return writeLong(value);
+    }
+
+    public WireWriter writeBoolean(boolean value) {
+        return writeByte(value ? 1 : 0);
+    }
+
+    public WireWriter writeDouble(double value) {
+        long bits = Double.doubleToLongBits(value);
+        ensure(8);
+        for (int i = 0; i < 8; i++) data[size++] = (byte) (bits >>> (i * 8));
+        return this;
+    }
+
+    /** null is written as the length 0, the others as the length + 1 */
+    public WireWriter writeString(String value) {
+        if (value == null) return writeVarLong(0);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1L);
+        return writeBytes(bytes);
+    }
+
+    /** null is written as 0, the others as the ordinal + 1 */
+    public WireWriter writeEnum(Enum<?> value) {
+        return writeVarLong(value == null ? 0 : value.ordinal() + 1L);
+    }
+
+    public WireWriter writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, data, size, bytes.length);
+        size += bytes.length;
+        return this;
+    }
+
+    public byte[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    private void ensure(int count) {
+        if (size + count > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, size + count));
+    }
+}
@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.iapp.lib.web.Account;
 import com.iapp.lib.web.Login;
 import com.iapp.lib.web.Punishment;
+import com.iapp.lib.web.RankType;
 import com.iapp.lib.web.RequestStatus;
 import com.iapp.ageofchess.server.dao.AccountDAO;
 import com.iapp.lib.util.Pair;
@@ -15,6 +16,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Account management
@@ -56,17 +58,19 @@ public class AccountController {
 
     /** get information about multiple accounts, without a password */
     public Pair<RequestStatus, List<Account>> seeAccounts(long ids[]) {
+        List<Long> requested = new ArrayList<>();
+        for (long id : ids) requested.add(id);
+        Map<Long, Account> found = accountDAO.getAccounts(requested);
+
         List<Account> general = new ArrayList<>();
         for (long id : ids) {
-
-
-            Pair<RequestStatus, Account> accounts = accountDAO.getAccount(id);
-            if (accounts.getKey() != RequestStatus.DONE) {
-                accountLogger.error("seeAccounts get Account by id, status = " + accounts.getKey());
+            Account account = found.get(id);
+            if (account == null) {
+                accountLogger.error("seeAccounts get Account by id, status = " + RequestStatus.NOT_FOUND);
                 continue;
             }
 
-            general.add(accounts.getValue());
+            general.add(account);
         }
 
         return new Pair<>(RequestStatus.DONE, general);
@@ -78,45 +82,41 @@ public class AccountController {
     }
 
     /**
-     * forced update of the top of the best players in all ratings
-     * Beware it can be very costly! call rarely
+     * writes the coins and ranks of the finished matches to the database,
+     * until then they are only in the cache
      * */
-    public void update() {
-        accountDAO.updateTop();
+    public void flushRanks() {
+        accountDAO.flushRanks();
     }
 
-    /**
-     * Get the latest updated bullet mode top
-     * @see AccountController#update()
-     * */
+    /** Get the current bullet mode top */
     public Pair<RequestStatus, List<Account>> getBulletTop() {
         return accountDAO.getBulletTop();
     }
 
-    /**
-     * Get the latest updated top in blitz mode
-     * @see AccountController#update()
-     * */
+    /** Get the current top in blitz mode */
     public Pair<RequestStatus, List<Account>> getBlitzTop() {
         return accountDAO.getBlitzTop();
     }
 
-    /**
-     * Get the latest updated top in rapid mode
-     * @see AccountController#update()
-     * */
+    /** Get the current top in rapid mode */
     public Pair<RequestStatus, List<Account>> getRapidTop() {
         return accountDAO.getRapidTop();
     }
 
-    /**
-     * Get the latest updated top in long mode
-     * @see AccountController#update()
-     * */
+    /** Get the current top in long mode */
     public Pair<RequestStatus, List<Account>> getLongTop() {
         return accountDAO.getLongTop();
     }
 
+    /**
+     * returns the place of the account in the rank mode and the accounts around it
+     * @param count - the number of the accounts before and after the account
+     * */
+    public Pair<RequestStatus, Pair<Long, List<Account>>> getPlace(RankType rankType, long id, int count) {
+        return accountDAO.getPlace(rankType, id, count);
+    }
+
     // auth only ------------------------------------------------------------------------------------------------------
 
     /**
@@ -154,6 +154,14 @@ public class AccountController {
         return accountDAO.getAvatar(id);
     }
 
+    /**
+     * get the hash and the account avatar or its thumbnail,
+     * the avatar is null if the client has the avatar with the known hash
+     * */
+    public Pair<RequestStatus, Pair<String, byte[]>> getAvatar(long id, boolean thumbnail, String knownHash) {
+        return accountDAO.getAvatar(id, thumbnail, knownHash);
+    }
+
     /**
      * Update account, special features available for moderators,
      * blocks dangerous activities
@@ -1,10 +1,16 @@
 package com.iapp.ageofchess.server.controllers;
 
 import com.google.gson.Gson;
+import com.iapp.ageofchess.multiplayer.ArchivedGame;
 import com.iapp.ageofchess.multiplayer.Match;
+import com.iapp.ageofchess.multiplayer.MatchDelta;
 import com.iapp.ageofchess.multiplayer.TurnMode;
 import com.iapp.ageofchess.server.dao.AccountDAO;
+import com.iapp.ageofchess.server.dao.GameArchiveDAO;
 import com.iapp.ageofchess.server.dao.GamesDAO;
+import com.iapp.ageofchess.server.dao.JournaledMatch;
+import com.iapp.ageofchess.server.dao.MatchJournal;
+import com.iapp.ageofchess.server.dao.MatchState;
 import com.iapp.lib.chess_engine.Color;
 import com.iapp.lib.chess_engine.Game;
 import com.iapp.lib.chess_engine.Result;
@@ -12,49 +18,120 @@ import com.iapp.lib.util.Pair;
 import com.iapp.lib.web.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 /**
  * Match management
  * @author Igor Ivanov
+ * The changes of the matches are written to the journal,
+ * the live matches are restored from it at the start.
+ * The finished matches are archived at once, before they are removed
  * */
 @RestController
 @RequestMapping("/api/v1/games")
-public class GamesController {
+public class GamesController implements InitializingBean {
 
     /** time of deleting the completed match by the server */
     private static final long REMOVE_FINISHED = 600_000;
     /** time to delete an inactive unfinished match */
     private static final long REMOVE_INACTIVE = 300_000;
+    /** the maximum number of the entered users of a match besides its players */
+    public static final int MAX_WATCHERS = 500;
 
     private static final Logger gamesLogger = LoggerFactory.getLogger(GamesController.class);
     private final AccountDAO accountDAO;
     private final GamesDAO gamesDAO;
+    private final MatchJournal journal;
+    private final GameArchiveDAO gameArchiveDAO;
     private final Gson gson;
-    private Consumer<Match> onUpdate;
+    private volatile Consumer<Match> onUpdate;
+    private volatile Consumer<Match> onPaired;
 
     /**
-     * list of all running matches,
-     * access from two threads
+     * all running matches with their clocks,
+     * a thread per shard
      * */
-    private final List<MatchChessEngine> engineList = new CopyOnWriteArrayList<>();
+    private final MatchShards shards = new MatchShards(
+        Runtime.getRuntime().availableProcessors(), this::onClockExpired);
+    /** versions of the matches sent to the entered users */
+    private final MatchChanges changes = new MatchChanges();
+    /** the players waiting for a rated match */
+    private final MatchQueues queues = new MatchQueues();
 
     @Autowired
-    public GamesController(GamesDAO gamesDAO, AccountDAO accountDAO) {
+    public GamesController(GamesDAO gamesDAO, AccountDAO accountDAO, MatchJournal journal,
+                           GameArchiveDAO gameArchiveDAO) {
         this.gamesDAO = gamesDAO;
         this.accountDAO = accountDAO;
+        this.journal = journal;
+        this.gameArchiveDAO = gameArchiveDAO;
         gson = new Gson();
     }
 
+    /**
+     * restores the live matches of the journal, the started ones replay their moves,
+     * their clocks run from now. The users enter the matches again
+     * */
+    @Override
+    public void afterPropertiesSet() {
+        for (JournaledMatch journaled : journal.getMatches()) {
+            try {
+                var match = gamesDAO.restoreGame(journaled.getId(), journaled.getCreated(gson));
+                match.setLobby(new Lobby(accountDAO::getServerAccount));
+                match.setWhitePlayerId(journaled.getWhiteId());
+                match.setBlackPlayerId(journaled.getBlackId());
+
+                if (journaled.isStarted()) {
+                    var engine = new MatchChessEngine(match, accountDAO);
+                    engine.restore(journaled.getMoves(), journaled.getTimeByWhite(), journaled.getTimeByBlack(),
+                        journaled.getTimeByTurn(), journaled.isAlternately());
+                    shards.add(engine);
+                }
+                gamesDAO.updateGame(match);
+                changes.next(match);
+            } catch (Throwable t) {
+                gamesLogger.error("Error restore match id = " + journaled.getId(), t);
+            }
+        }
+        gamesLogger.warn("Restored matches, count = " + journal.getMatches().size());
+    }
+
+    /**
+     * writes the clocks of the running matches to the journal,
+     * a restart returns to the players only the time after it
+     * */
+    public void journalClocks() {
+        for (Match match : gamesDAO.readGames(MatchState.STARTED, -1, Integer.MAX_VALUE)) {
+            shards.execute(match.getId(), engine -> {
+                if (engine == null) return null;
+                var result = engine.getMatch().getResult();
+                engine.updateTimer();
+                journal.clock(engine.getMatch());
+                archiveIfFinished(engine, result);
+                return null;
+            });
+        }
+    }
+
+    /** rewrites the journal with only the live matches */
+    public void compactJournal() {
+        journal.compact();
+    }
+
+    /** writes the archived games in one batch */
+    public void flushArchive() {
+        gameArchiveDAO.flushGames();
+    }
+
     /**
      * sets a single listener to update the match
      * */
@@ -62,18 +139,41 @@ public class GamesController {
         this.onUpdate = onUpdate;
     }
 
+    /**
+     * sets a single listener of the matches made by the queues,
+     * the match is already started and both players are entered
+     * */
+    public void setOnPairedMatch(Consumer<Match> onPaired) {
+        this.onPaired = onPaired;
+    }
+
+    /**
+     * pairs the waiting players whose search windows have widened,
+     * their matches are created and started
+     * */
+    public void updateQueues() {
+        for (var pair : queues.pairWaiting(System.currentTimeMillis())) {
+            startPaired(pair.getKey(), pair.getValue());
+        }
+    }
+
     // no auth --------------------------------------------------------------------------------------------------------
 
     /**
      * returns a list of all matches (started and not)
      * */
     public List<Match> getGames() {
-        List<Match> matches = gamesDAO.readGames();
-        for (Match match : matches) {
-            match.getLobbyMessages().clear();
-            match.getLobbyMessages().addAll(match.getLobby().readMainLobby());
-        }
-        return matches;
+        return updateLobbyMessages(gamesDAO.readGames());
+    }
+
+    /**
+     * returns a page of matches in the order of creation
+     * @param afterId the last id of the previous page, -1 for the first page
+     * @param state the state of the matches, null for all
+     * */
+    public List<Match> getGames(long afterId, int limit, MatchState state) {
+        if (state == null) return updateLobbyMessages(gamesDAO.readGames(afterId, limit));
+        return updateLobbyMessages(gamesDAO.readGames(state, afterId, limit));
     }
 
     /**
@@ -82,14 +182,106 @@ public class GamesController {
     public Pair<RequestStatus, Match> getMatch(long gameId) {
         var op = gamesDAO.getGame(gameId);
         if (op.isEmpty()) return new Pair<>(RequestStatus.NOT_FOUND, null);
+        updateClock(gameId);
         Match match = op.get();
         match.getLobbyMessages().clear();
         match.getLobbyMessages().addAll(match.getLobby().readMainLobby());
         return new Pair<>(RequestStatus.DONE, op.get());
     }
 
+    /**
+     * makes a new version of the match for the entered users,
+     * returns only the changes since the previous version or null if nothing is changed
+     * */
+    public MatchDelta getDelta(long gameId) {
+        var op = gamesDAO.getGame(gameId);
+        if (op.isEmpty()) return null;
+        updateClock(gameId);
+        return changes.next(op.get());
+    }
+
+    /**
+     * returns the changes for the spectators since the version they have,
+     * the changes of only the clocks are sent not more often than the period
+     * @see GamesController#getDelta(long)
+     * */
+    public MatchDelta getSpectatorDelta(long gameId, long clockPeriod) {
+        var op = gamesDAO.getGame(gameId);
+        if (op.isEmpty()) return null;
+        return changes.nextForSpectators(op.get(), System.currentTimeMillis(), clockPeriod);
+    }
+
+    /**
+     * returns the players of the last version of the match that are entered in it,
+     * the match itself is not read
+     * */
+    public List<Long> getEnteredPlayers(long gameId) {
+        return changes.getEnteredPlayers(gameId);
+    }
+
+    /**
+     * returns the entered users of the match besides its players,
+     * empty if there is no such match
+     * */
+    public List<Long> getWatcherIds(long gameId) {
+        var op = gamesDAO.getGame(gameId);
+        List<Long> ids = new ArrayList<>();
+        if (op.isEmpty()) return ids;
+        for (long id : op.get().getEntered()) {
+            if (!isPlayer(op.get(), id)) ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * returns the number of the watchers of the match and their maximum
+     * */
+    public Pair<RequestStatus, Pair<Long, Long>> getWatchers(long gameId) {
+        var op = gamesDAO.getGame(gameId);
+        if (op.isEmpty()) return new Pair<>(RequestStatus.NOT_FOUND, null);
+        return new Pair<>(RequestStatus.DONE, new Pair<>((long) countWatchers(op.get()), (long) MAX_WATCHERS));
+    }
+
+    /**
+     * returns a page of the finished games of the player, from new to old
+     * @param beforeId the id of the oldest game of the previous page, Long.MAX_VALUE for the first page
+     * @param rankType null for all rank types
+     * */
+    public List<ArchivedGame> getArchivedGames(long playerId, RankType rankType, long beforeId, int limit) {
+        return gameArchiveDAO.readGames(playerId, rankType, beforeId, limit);
+    }
+
     // only auth -------------------------------------------------------------------------------------------------------
 
+    /**
+     * exports the finished games of the player as PGN, from new to old,
+     * each page of the games is given as a part of the text
+     * @param playerId -1 for the games of all players
+     * @param rankType null for all rank types
+     * */
+    public void exportPgn(long playerId, RankType rankType, long fromTime, long toTime,
+                          int maxGames, Consumer<String> onPart) {
+        gameArchiveDAO.exportGames(playerId, rankType, fromTime, toTime, maxGames, games -> {
+            List<Long> ids = new ArrayList<>();
+            for (ArchivedGame game : games) {
+                ids.add(game.getWhitePlayerId());
+                ids.add(game.getBlackPlayerId());
+            }
+            Map<Long, Account> accounts = accountDAO.getAccounts(ids);
+
+            var pgn = new StringBuilder();
+            for (ArchivedGame game : games) {
+                try {
+                    PgnWriter.write(pgn, game, getName(accounts, game.getWhitePlayerId()),
+                        getName(accounts, game.getBlackPlayerId()));
+                } catch (Throwable t) {
+                    gamesLogger.error("Error export archived game id = " + game.getId(), t);
+                }
+            }
+            onPart.accept(pgn.toString());
+        });
+    }
+
     /**
      * creates a new match and immediately connects the match creator to it.
      * Makes a lot of checks for the correctness of modes and settings
@@ -104,7 +296,6 @@ public class GamesController {
         if (accounts.getKey() != RequestStatus.DONE) return new Pair<>(accounts.getKey(), null);
         var acc = accounts.getValue();
 
-        if (engineList.size() >= 5) return new Pair<>(RequestStatus.DENIED, "more than 5 matches already");
         var state = isCorrectMatch(acc, unsafetyUserMatch);
         if (!state.getKey()) return new Pair<>(RequestStatus.DENIED, state.getValue());
 
@@ -112,15 +303,54 @@ public class GamesController {
         accountDAO.updateServerAccount(acc);
 
         var safetyServerMatch = gamesDAO.createGame(unsafetyUserMatch);
+        journal.create(safetyServerMatch);
         safetyServerMatch.setLobby(new Lobby(accountDAO::getServerAccount));
         connect(authId, safetyServerMatch.getId());
         safetyServerMatch.getLobbyMessages().clear();
         safetyServerMatch.getLobbyMessages().addAll(safetyServerMatch.getLobby().readMainLobby());
+        // the first version, the next ones are sent as changes
+        changes.next(safetyServerMatch);
+        // the coins of the sponsor are already taken
+        journal.sync();
         gamesLogger.warn("Created match " + unsafetyUserMatch);
 
         return new Pair<>(RequestStatus.DONE, gson.toJson(safetyServerMatch));
     }
 
+    /**
+     * puts the user to the queue of the rank type and time per player,
+     * the match is started at once if a player with a near rating waits
+     * */
+    public RequestStatus enqueue(long authId, RankType rankType, long timeByPlayer) {
+
+        var accounts = accountDAO.getAccount(authId);
+        if (accounts.getKey() != RequestStatus.DONE) return accounts.getKey();
+        var acc = accounts.getValue();
+
+        // only the rated matches with time per game are queued
+        if (rankType == RankType.UNRANKED || rankType == RankType.LONG
+                || !isCorrectRankType(rankType, timeByPlayer) || timeByPlayer <= 0) {
+            return RequestStatus.DENIED;
+        }
+        // a player of a running match can not wait for another one
+        for (Match match : gamesDAO.readGamesByPlayer(acc.getId())) {
+            if (match.isStarted() && match.getResult() == Result.NONE) return RequestStatus.DENIED;
+        }
+
+        var paired = queues.add(acc.getId(), rankType, timeByPlayer, getRank(acc, rankType),
+            System.currentTimeMillis());
+        if (paired != null) startPaired(paired, acc);
+        return RequestStatus.DONE;
+    }
+
+    /**
+     * removes the user from the queue,
+     * returns NOT_FOUND if the user does not wait
+     * */
+    public RequestStatus dequeue(long authId) {
+        return queues.remove(authId) ? RequestStatus.DONE : RequestStatus.NOT_FOUND;
+    }
+
     /**
      * sends a message to the game lobby
      * */
@@ -146,32 +376,43 @@ public class GamesController {
      * */
     public RequestStatus makeMove(long authId, long gameId, String fenMove) {
 
-        var engines = findMatch(gameId);
-        if (engines.size() > 1) {
-            gamesLogger.error("security breach");
-            return RequestStatus.SECURITY_BREACH;
-        } else if (engines.isEmpty()) {
-            return RequestStatus.NOT_FOUND;
-        }
-        var engine = engines.get(0);
-
         var accounts = accountDAO.getAccount(authId);
         if (accounts.getKey() != RequestStatus.DONE) return accounts.getKey();
         var acc = accounts.getValue();
 
-        // if the game is not started, the moves are disabled!
-        if (!engine.getMatch().isStarted()) {
-            return RequestStatus.DENIED;
-        }
+        // the move is made in the thread of the match, its clocks are rescheduled after it
+        var status = shards.execute(gameId, engine -> {
+            if (engine == null) return RequestStatus.NOT_FOUND;
+            var result = engine.getMatch().getResult();
 
-        // if you have not joined the match, then the moves are disabled!
-        if (engine.getMatch().getWhitePlayerId() == acc.getId()
-                || engine.getMatch().getBlackPlayerId() == acc.getId()) {
-            return engine.makeMove(fenMove);
-        }
+            // if the game is not started, the moves are disabled!
+            if (!engine.getMatch().isStarted()) {
+                return RequestStatus.DENIED;
+            }
 
-        return RequestStatus.DENIED;
+            // if you have not joined the match, then the moves are disabled!
+            if (engine.getMatch().getWhitePlayerId() == acc.getId()
+                    || engine.getMatch().getBlackPlayerId() == acc.getId()) {
+                var moveStatus = engine.makeMove(fenMove);
+                if (moveStatus == RequestStatus.DONE) {
+                    // the move may finish the match
+                    gamesDAO.updateGame(engine.getMatch());
+                    journal.move(engine.getMatch(), fenMove);
+                } else if (engine.getMatch().getResult() != Result.NONE) {
+                    // the flag has fallen before the move
+                    gamesDAO.updateGame(engine.getMatch());
+                    journal.clock(engine.getMatch());
+                }
+                archiveIfFinished(engine, result);
+                return moveStatus;
+            }
 
+            return RequestStatus.DENIED;
+        });
+
+        // the players see the move only when it is on the disk, the syncs are shared by the moves
+        if (status == RequestStatus.DONE) journal.sync();
+        return status;
     }
 
     /**
@@ -187,10 +428,13 @@ public class GamesController {
         if (op.isEmpty()) return RequestStatus.NOT_FOUND;
 
         var match = op.get();
-        if (!match.getEntered().contains(acc.getId())) {
+        synchronized (match) {
+            if (match.getEntered().contains(acc.getId())) return RequestStatus.DONE;
+            // the players always enter, the watchers up to the limit
+            if (!isPlayer(match, acc.getId()) && countWatchers(match) >= MAX_WATCHERS) return RequestStatus.DENIED;
             match.getEntered().add(acc.getId());
-            match.getLobby().sendConnect(acc);
         }
+        match.getLobby().sendConnect(acc);
 
         return RequestStatus.DONE;
     }
@@ -253,6 +497,8 @@ public class GamesController {
         } else {
             return RequestStatus.DENIED;
         }
+        gamesDAO.updateGame(match);
+        journalPlayers(match);
 
         return RequestStatus.DONE;
 
@@ -277,6 +523,8 @@ public class GamesController {
         } else if (acc.getId() == match.getBlackPlayerId()) {
             match.setBlackPlayerId(-1);
         }
+        gamesDAO.updateGame(match);
+        journalPlayers(match);
         match.getLobby().sendDisjoin(acc);
 
         return RequestStatus.DONE;
@@ -307,7 +555,9 @@ public class GamesController {
 
         var engine = new MatchChessEngine(match, accountDAO);
         engine.start();
-        engineList.add(engine);
+        journal.start(gameId);
+        shards.add(engine);
+        gamesDAO.updateGame(match);
 
         // the server will send the command "start [fullname]"
         match.getLobby().sendStart(acc);
@@ -341,8 +591,10 @@ public class GamesController {
             return RequestStatus.DENIED;
         }
 
-        engineList.removeIf(el -> el.getMatch().getId() == gameId);
+        shards.remove(gameId);
+        changes.remove(gameId);
         gamesDAO.removeGame(gameId);
+        journal.remove(gameId);
 
         return RequestStatus.DONE;
 
@@ -351,19 +603,15 @@ public class GamesController {
     // ----------------------------------------------------------------------------------------------------------------
 
     /**
-     * updates the state of the matches
+     * deletes the completed and inactive matches,
+     * the clocks are updated by their deadlines
      * */
     public void updateGames() {
-        try {
-            TimeUnit.MILLISECONDS.sleep(700);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
         for (Match match : gamesDAO.readGames()) {
+            boolean result;
             synchronized (match) {
                 // after finish
-                boolean result = match.getResult() != Result.NONE
+                result = match.getResult() != Result.NONE
                     && match.getFinishTime() != -1 &&
                     System.currentTimeMillis() - match.getFinishTime() > REMOVE_FINISHED;
 
@@ -371,20 +619,151 @@ public class GamesController {
                 result = result || (match.getEntered().isEmpty()
                     && System.currentTimeMillis() - match.getCreatedTime() > REMOVE_INACTIVE);
 
-                if (result) {
-                    gamesDAO.removeGame(match.getId());
-                    gamesLogger.warn("Deleted match id = " + match.getId());
-                }
+                if (!result) match.getLobby().updateTime();
+            }
+
+            // the shard takes the lock of the match in its tasks, it waits for them without the lock
+            if (result) {
+                shards.remove(match.getId());
+                changes.remove(match.getId());
+                gamesDAO.removeGame(match.getId());
+                journal.remove(match.getId());
+                gamesLogger.warn("Deleted match id = " + match.getId());
             }
         }
+    }
 
-        for (var engine : engineList) {
-            if (engine.getMatch().getResult() != Result.NONE) continue;
+    /** the deadline of the match is reached, the players see the finish or the restarted turn time */
+    private void onClockExpired(MatchChessEngine engine) {
+        var match = engine.getMatch();
+        Result result;
+        boolean alternately;
+        synchronized (match) {
+            result = match.getResult();
+            alternately = match.isAlternately();
+            engine.updateTimer();
+        }
+
+        if (result != match.getResult()) gamesDAO.updateGame(match);
+        archiveIfFinished(engine, result);
+        if (result != match.getResult() || alternately != match.isAlternately()) {
+            journal.clock(match);
+            var listener = onUpdate;
+            if (listener != null) listener.accept(match);
+        }
+    }
 
+    private void startPaired(MatchQueues.Ticket first, MatchQueues.Ticket second) {
+        var waiting = first.getEnqueuedTime() <= second.getEnqueuedTime() ? first : second;
+        var other = waiting == first ? second : first;
+        var accounts = accountDAO.getAccount(other.getAccountId());
+        if (accounts.getKey() != RequestStatus.DONE) {
+            gamesLogger.error("Error pair account id = " + other.getAccountId());
+            return;
+        }
+        startPaired(waiting, accounts.getValue());
+    }
+
+    /**
+     * creates and starts the match of the paired players, the colors are random.
+     * The player waiting longer is the creator
+     * */
+    private void startPaired(MatchQueues.Ticket waiting, Account acc) {
+        long timeByPlayer = waiting.getTimeByPlayer();
+        var data = new Match(-1, waiting.getRankType().name().toLowerCase() + " " + timeByPlayer / 60_000 + "+0",
+            0, waiting.getRankType(), waiting.getAccountId(), -1, -1, timeByPlayer, timeByPlayer, -1,
+            TurnMode.ALTERNATELY_FAST, -1, true, ArchivedGame.STANDARD_FEN);
+
+        var match = gamesDAO.createGame(data);
+        journal.create(match);
+        match.setLobby(new Lobby(accountDAO::getServerAccount));
+        if (ThreadLocalRandom.current().nextBoolean()) {
+            match.setWhitePlayerId(waiting.getAccountId());
+            match.setBlackPlayerId(acc.getId());
+        } else {
+            match.setWhitePlayerId(acc.getId());
+            match.setBlackPlayerId(waiting.getAccountId());
+        }
+        gamesDAO.updateGame(match);
+        journalPlayers(match);
+        connect(waiting.getAccountId(), match.getId());
+        connect(acc.getId(), match.getId());
+
+        var engine = new MatchChessEngine(match, accountDAO);
+        engine.start();
+        journal.start(match.getId());
+        shards.add(engine);
+        gamesDAO.updateGame(match);
+        changes.next(match);
+        journal.sync();
+        gamesLogger.warn("Paired match id = " + match.getId() + ", waited "
+            + (System.currentTimeMillis() - waiting.getEnqueuedTime()) + " ms");
+
+        var listener = onPaired;
+        if (listener != null) listener.accept(match);
+    }
+
+    /** the clients run the clocks from the sent state */
+    private void updateClock(long gameId) {
+        shards.execute(gameId, engine -> {
+            if (engine == null) return null;
+            var result = engine.getMatch().getResult();
             engine.updateTimer();
-            engine.getMatch().getLobby().updateTime();
-            onUpdate.accept(engine.getMatch());
+            gamesDAO.updateGame(engine.getMatch());
+            if (result != engine.getMatch().getResult()) journal.clock(engine.getMatch());
+            archiveIfFinished(engine, result);
+            return null;
+        });
+    }
+
+    /** the players are read under the lock of the match, the last record has the last ones */
+    private void journalPlayers(Match match) {
+        synchronized (match) {
+            journal.players(match.getId(), match.getWhitePlayerId(), match.getBlackPlayerId());
+        }
+    }
+
+    /** archives the match if it is finished since the previous result */
+    private void archiveIfFinished(MatchChessEngine engine, Result previous) {
+        var match = engine.getMatch();
+        synchronized (match) {
+            if (previous != Result.NONE || match.getResult() == Result.NONE) return;
+            gameArchiveDAO.archive(new ArchivedGame(match, engine.getStartFen()));
+        }
+    }
+
+    private boolean isPlayer(Match match, long accountId) {
+        return match.getWhitePlayerId() == accountId || match.getBlackPlayerId() == accountId;
+    }
+
+    private int countWatchers(Match match) {
+        int count = 0;
+        for (long id : match.getEntered()) {
+            if (!isPlayer(match, id)) count++;
+        }
+        return count;
+    }
+
+    private double getRank(Account acc, RankType rankType) {
+        switch (rankType) {
+            case BULLET: return acc.getBullet();
+            case BLITZ: return acc.getBlitz();
+            case RAPID: return acc.getRapid();
+            default: return acc.getLongRank();
+        }
+    }
+
+    private String getName(Map<Long, Account> accounts, long id) {
+        var account = accounts.get(id);
+        return account != null ? account.getUsername() : "?";
+    }
+
+    private List<Match> updateLobbyMessages(List<Match> matches) {
+        for (Match match : matches) {
+            match.getLobbyMessages().clear();
+            match.getLobbyMessages().addAll(match.getLobby().readMainLobby());
         }
+        return matches;
     }
 
     private Color getRandColor(Match match) {
@@ -444,12 +823,6 @@ public class GamesController {
             return rankType == RankType.LONG;
         }
     }
-
-    private List<MatchChessEngine> findMatch(long matchId) {
-        return engineList.stream()
-                .filter(engine -> engine.getMatch().getId() == matchId)
-                .collect(Collectors.toList());
-    }
 }
 
 
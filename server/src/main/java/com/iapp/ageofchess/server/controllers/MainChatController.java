@@ -57,25 +57,27 @@ public class MainChatController {
     }
 
     /**
-     * returns messages from the main chat
+     * returns the latest messages from the main chat
      * */
     public Pair<List<Message>, Map<Long, Account>> readAll() {
-        List<Message> messages = mainChatDAO.readMessages();
-        Set<Long> ids = new HashSet<>();
-        for (Message message : messages) ids.add(message.getSenderId());
-        Map<Long, Account> idByAcc = new HashMap<>();
-        messages.sort(Comparator.comparing(Message::getTime));
+        return withSenders(mainChatDAO.readMessages());
+    }
 
-        for (long id : ids) {
+    /**
+     * returns a page of the older messages from the main chat
+     * @param beforeId - the id of the oldest message the client has
+     * */
+    public Pair<List<Message>, Map<Long, Account>> readBefore(long beforeId, int limit) {
+        return withSenders(mainChatDAO.readBefore(beforeId, limit));
+    }
 
-            Pair<RequestStatus, Account> accounts = accountDAO.getAccount(id);
-            if (accounts.getKey() != RequestStatus.DONE) {
-                mainChatLogger.error("message get account by id, status = " + accounts.getKey());
-                continue;
-            }
+    private Pair<List<Message>, Map<Long, Account>> withSenders(List<Message> messages) {
+        Set<Long> ids = new HashSet<>();
+        for (Message message : messages) ids.add(message.getSenderId());
 
-            Account acc = accounts.getValue();
-            idByAcc.put(id, acc);
+        Map<Long, Account> idByAcc = accountDAO.getAccounts(ids);
+        if (idByAcc.size() != ids.size()) {
+            mainChatLogger.error("message get accounts by ids, not found = " + (ids.size() - idByAcc.size()));
         }
 
         return new Pair<>(messages, idByAcc);
@@ -0,0 +1,184 @@
+package com.iapp.ageofchess.server.controllers;
+
+import com.iapp.ageofchess.multiplayer.Match;
+import com.iapp.ageofchess.multiplayer.MatchDelta;
+import com.iapp.lib.chess_engine.Result;
+import com.iapp.lib.web.LobbyMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versions of the matches for the change stream
+ * @author Igor Ivanov
+ * The state of each match at its last version is kept,
+ * the next version sends only the fields changed since it.
+ * The clients get a full snapshot on entering and on a missed version.
+ * The spectators have their own last version, their changes may cover several versions
+ * */
+class MatchChanges {
+
+    /** match id -> the state of its last version */
+    private final Map<Long, Version> versions = new ConcurrentHashMap<>();
+    /** match id -> the state sent to the spectators last */
+    private final Map<Long, Version> spectated = new ConcurrentHashMap<>();
+
+    /**
+     * makes a new version if the match is changed since the last one,
+     * returns its delta or null if nothing is changed
+     * */
+    MatchDelta next(Match match) {
+        synchronized (match) {
+            Version last = versions.get(match.getId());
+            if (last == null) {
+                // the first version, the clients have only snapshots
+                var first = new Version(match, match.getVersion());
+                versions.put(match.getId(), first);
+                spectated.put(match.getId(), first);
+                return null;
+            }
+
+            var delta = last.getDelta(match, last.version + 1);
+            if (delta.isEmpty()) return null;
+
+            versions.put(match.getId(), new Version(match, delta.getVersion()));
+            match.setVersion(delta.getVersion());
+            return delta;
+        }
+    }
+
+    /**
+     * returns the changes since the version sent to the spectators up to the last version,
+     * null if they have it. The changes of only the clocks are skipped until the period passes
+     * since the previous sending, then they are sent with the next changes
+     * */
+    MatchDelta nextForSpectators(Match match, long now, long clockPeriod) {
+        synchronized (match) {
+            Version last = versions.get(match.getId());
+            Version sent = spectated.get(match.getId());
+            if (last == null || sent == null || sent.version == last.version) return null;
+
+            var delta = sent.getDelta(match, last.version);
+            if (delta.isEmpty() || (delta.isClockOnly() && now - sent.time < clockPeriod)) return null;
+
+            spectated.put(match.getId(), new Version(match, last.version, now));
+            return delta;
+        }
+    }
+
+    /** returns the entered players of the last version, empty if there is no version */
+    List<Long> getEnteredPlayers(long matchId) {
+        List<Long> players = new ArrayList<>();
+        Version last = versions.get(matchId);
+        if (last == null) return players;
+        if (last.whitePlayerId != -1 && last.entered.contains(last.whitePlayerId)) players.add(last.whitePlayerId);
+        if (last.blackPlayerId != -1 && last.entered.contains(last.blackPlayerId)) players.add(last.blackPlayerId);
+        return players;
+    }
+
+    /** forgets the versions of the removed match */
+    void remove(long matchId) {
+        versions.remove(matchId);
+        spectated.remove(matchId);
+    }
+
+    /** the state of a match at a version */
+    private static final class Version {
+
+        private final long version;
+        private final int countMoves;
+        private final String fen;
+        private final int turn;
+        private final boolean alternately;
+        private final long timeByWhite, timeByBlack, timeByTurn;
+        private final Result result;
+        private final long finishTime;
+        private final double rankPlus, rankMinus;
+        private final boolean started;
+        private final long whitePlayerId, blackPlayerId;
+        private final List<Long> entered;
+        /** the last message of the lobby, the messages after it are new */
+        private final LobbyMessage lastMessage;
+        /** the time of the sending to the spectators */
+        private final long time;
+
+        private Version(Match match, long version) {
+            this(match, version, 0);
+        }
+
+        private Version(Match match, long version, long time) {
+            this.version = version;
+            this.time = time;
+            countMoves = match.getMoves().size();
+            fen = match.getFen();
+            turn = match.getTurn();
+            alternately = match.isAlternately();
+            timeByWhite = match.getTimeByWhite();
+            timeByBlack = match.getTimeByBlack();
+            timeByTurn = match.getTimeByTurn();
+            result = match.getResult();
+            finishTime = match.getFinishTime();
+            rankPlus = match.getRankPlus();
+            rankMinus = match.getRankMinus();
+            started = match.isStarted();
+            whitePlayerId = match.getWhitePlayerId();
+            blackPlayerId = match.getBlackPlayerId();
+            entered = new ArrayList<>(match.getEntered());
+
+            var lobby = match.getLobby().readMainLobby();
+            lastMessage = lobby.isEmpty() ? null : lobby.get(lobby.size() - 1);
+        }
+
+        /** the changes of the match since this version as the next version */
+        private MatchDelta getDelta(Match match, long nextVersion) {
+            var delta = new MatchDelta(match.getId(), nextVersion, version);
+
+            var moves = match.getMoves();
+            if (moves.size() != countMoves) {
+                int from = Math.min(countMoves, moves.size());
+                delta.setMoves(from, new ArrayList<>(moves.subList(from, moves.size())));
+            }
+            if (!Objects.equals(fen, match.getFen())) delta.setFen(match.getFen());
+            if (turn != match.getTurn()) delta.setTurn(match.getTurn());
+            if (alternately != match.isAlternately()) delta.setAlternately(match.isAlternately());
+
+            // the clocks are sent together, the clients run them from the snapshot
+            if (timeByWhite != match.getTimeByWhite() || timeByBlack != match.getTimeByBlack()
+                    || timeByTurn != match.getTimeByTurn()) {
+                delta.setTimeByWhite(match.getTimeByWhite());
+                delta.setTimeByBlack(match.getTimeByBlack());
+                delta.setTimeByTurn(match.getTimeByTurn());
+            }
+
+            if (result != match.getResult()) delta.setResult(match.getResult());
+            if (finishTime != match.getFinishTime()) delta.setFinishTime(match.getFinishTime());
+            if (rankPlus != match.getRankPlus()) delta.setRankPlus(match.getRankPlus());
+            if (rankMinus != match.getRankMinus()) delta.setRankMinus(match.getRankMinus());
+
+            if (started != match.isStarted()) delta.setStarted(match.isStarted());
+            if (whitePlayerId != match.getWhitePlayerId()) delta.setWhitePlayerId(match.getWhitePlayerId());
+            if (blackPlayerId != match.getBlackPlayerId()) delta.setBlackPlayerId(match.getBlackPlayerId());
+            if (!entered.equals(match.getEntered())) delta.setEntered(new ArrayList<>(match.getEntered()));
+
+            var appended = getAppended(match.getLobby().readMainLobby());
+            if (!appended.isEmpty()) delta.setLobbyMessages(appended);
+
+            return delta;
+        }
+
+        private List<LobbyMessage> getAppended(List<LobbyMessage> lobby) {
+            // the last message may be already removed from the lobby, then all are new
+            int from = 0;
+            for (int i = lobby.size() - 1; i >= 0 && lastMessage != null; i--) {
+                if (lobby.get(i) == lastMessage) {
+                    from = i + 1;
+                    break;
+                }
+            }
+            return new ArrayList<>(lobby.subList(from, lobby.size()));
+        }
+    }
+}
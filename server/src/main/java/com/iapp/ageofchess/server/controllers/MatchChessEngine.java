@@ -12,11 +12,13 @@ import com.iapp.lib.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 /**
  * Manage a running match in real time
  * @author Igor Ivanov
- * You need to call updateTimer about every second, or you might get in trouble!
- *
+ * The clocks are not polled, call updateTimer at the time of getNextDeadline
+ * and before sending the state of the match
  * */
 public class MatchChessEngine {
 
@@ -42,6 +44,8 @@ public class MatchChessEngine {
     private final Match match;
     /** chess game engine for processing moves */
     private final Game game;
+    /** the position before the first move */
+    private final String startFen;
     /** time per turn and per game in settings */
     private final long defTime, defTimeByTurn;
     /**
@@ -56,6 +60,7 @@ public class MatchChessEngine {
         this.accountDAO = accountDAO;
         this.match = match;
         game = new Game(Color.BLACK, match.getFen());
+        startFen = match.getFen();
         // should be equal before launch!
         defTime = Math.min(match.getTimeByBlack(), match.getTimeByWhite());
         defTimeByTurn = match.getTimeByTurn();
@@ -68,6 +73,11 @@ public class MatchChessEngine {
         }
     }
 
+    /** returns the position before the first move */
+    public String getStartFen() {
+        return startFen;
+    }
+
     /** start the match */
     public void start() {
         synchronized (match) {
@@ -79,6 +89,32 @@ public class MatchChessEngine {
         }
     }
 
+    /**
+     * restores the started match after a restart, the moves are made again
+     * and the clocks are set to the journaled ones, they run from now
+     * */
+    public void restore(List<String> fenMoves, long timeByWhite, long timeByBlack,
+                        long timeByTurn, boolean alternately) {
+        synchronized (match) {
+            start();
+            for (String fenMove : fenMoves) {
+                // the turn time between the moves is already over
+                this.alternately = false;
+                if (makeMove(fenMove) != RequestStatus.DONE) {
+                    matchChessEngineLogger.error("Error restore move " + fenMove + " in match id = " + match.getId());
+                }
+            }
+
+            match.setTimeByWhite(timeByWhite);
+            match.setTimeByBlack(timeByBlack);
+            match.setTimeByTurn(timeByTurn);
+            this.alternately = alternately;
+            match.setAlternately(alternately);
+            lastUpdateTime = System.currentTimeMillis();
+            lastTurnUpdateTime = System.currentTimeMillis();
+        }
+    }
+
     /**
      * make a move in chess format fen
      * returns DENIED if finished or alternately time isn't finished
@@ -87,6 +123,8 @@ public class MatchChessEngine {
     public RequestStatus makeMove(String fenMove) {
         synchronized (match) {
 
+            // the time of the player is charged up to the move, the flag may fall before it
+            updateTimer();
             if (match.getResult() != Result.NONE || (defTimeByTurn != -1 && alternately))
                 return RequestStatus.DENIED;
             match.setTurn(game.getTurn());
@@ -106,8 +144,7 @@ public class MatchChessEngine {
                     move.getMoveX(), 7 - move.getMoveY());
             var updated = game.isUpdated(normalMove);
 
-            if (!game.getMoves(move.getPieceX(), 7 - move.getPieceY())
-                    .contains(normalMove, false) || updated == (pair.getValue() == null)) {
+            if (!game.isLegalMove(normalMove) || updated == (pair.getValue() == null)) {
                 return RequestStatus.DENIED;
             }
 
@@ -141,6 +178,29 @@ public class MatchChessEngine {
 
     }
 
+    /**
+     * returns the time in milliseconds when the clocks of the match expire next,
+     * either the flag-fall of the player to move or the end of the turn time,
+     * -1 if the clocks are stopped
+     * */
+    public long getNextDeadline() {
+        synchronized (match) {
+
+            if (!match.isStarted() || match.getResult() != Result.NONE) return -1;
+
+            long deadline = Long.MAX_VALUE;
+            if (defTime != -1) {
+                long left = game.getColorMove() == Color.BLACK ? match.getTimeByBlack() : match.getTimeByWhite();
+                deadline = lastUpdateTime + left;
+            }
+            if (defTimeByTurn != -1) {
+                deadline = Math.min(deadline, lastTurnUpdateTime + match.getTimeByTurn());
+            }
+
+            return deadline == Long.MAX_VALUE ? -1 : deadline;
+        }
+    }
+
     /** updates all timers, checks and ends the match if necessary */
     public void updateTimer() {
         synchronized (match) {
@@ -169,7 +229,8 @@ public class MatchChessEngine {
                 }
             }
 
-            if (defTimeByTurn != -1) {
+            // the flag has already fallen
+            if (defTimeByTurn != -1 && match.getResult() == Result.NONE) {
                 match.setTimeByTurn(match.getTimeByTurn() - (System.currentTimeMillis() - lastTurnUpdateTime));
                 lastTurnUpdateTime = System.currentTimeMillis();
 
@@ -342,8 +403,9 @@ public class MatchChessEngine {
             match.setRankPlus(Math.abs(rankPlus));
             match.setRankMinus(Math.abs(rankMinus));
         }
-        accountDAO.updateServerAccount(singleWinner);
-        accountDAO.updateServerAccount(singlePlayer);
+        accountDAO.updateRanks(singleWinner);
+        accountDAO.updateRanks(singlePlayer);
+        match.setFinishTime(System.currentTimeMillis());
         matchChessEngineLogger.info("Match id = " + match.getId() + " finished!");
     }
 
@@ -367,8 +429,8 @@ public class MatchChessEngine {
         firstPlayer.getValue().setCoins(firstPlayer.getValue().getCoins() + match.getSponsored() / 2);
         secondPlayer.getValue().setCoins(secondPlayer.getValue().getCoins() + match.getSponsored() / 2);
 
-        accountDAO.updateServerAccount(firstPlayer.getValue());
-        accountDAO.updateServerAccount(secondPlayer.getValue());
+        accountDAO.updateRanks(firstPlayer.getValue());
+        accountDAO.updateRanks(secondPlayer.getValue());
         match.setFinishTime(System.currentTimeMillis());
         matchChessEngineLogger.info("Match id = " + match.getId() + " finished!");
     }
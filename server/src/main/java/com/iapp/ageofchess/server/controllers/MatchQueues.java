@@ -0,0 +1,154 @@
+package com.iapp.ageofchess.server.controllers;
+
+import com.iapp.lib.util.Pair;
+import com.iapp.lib.web.RankType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Matchmaking queues, one per rank type and time per player
+ * @author Igor Ivanov
+ * The players of a queue are ordered by their rating, so the nearest ratings
+ * on both sides of a new player are found in O(log n).
+ * Two players are paired if the difference of their ratings is in the search windows of both,
+ * the window of a player widens while the player waits
+ * */
+class MatchQueues {
+
+    /** the difference of the ratings accepted at once */
+    static final double START_WINDOW = 50;
+    /** the widening of the window per second of waiting */
+    static final double WIDEN_PER_SECOND = 10;
+    static final double MAX_WINDOW = 500;
+
+    private static final Comparator<Ticket> BY_RATING = Comparator
+        .comparingDouble((Ticket ticket) -> ticket.rating)
+        .thenComparingLong(ticket -> ticket.number);
+
+    /** guarded by this */
+    private final Map<Pair<RankType, Long>, TreeSet<Ticket>> queues = new HashMap<>();
+    /** the ticket of each waiting player, a player waits in one queue */
+    private final Map<Long, Ticket> tickets = new HashMap<>();
+    private long lastNumber;
+
+    /**
+     * puts the player to the queue or pairs it with the nearest waiting player,
+     * the previous ticket of the player is canceled
+     * @return the paired ticket of the other player, null if the player waits
+     * */
+    synchronized Ticket add(long accountId, RankType rankType, long timeByPlayer, double rating, long now) {
+        remove(accountId);
+        var ticket = new Ticket(accountId, rankType, timeByPlayer, rating, now, ++lastNumber);
+        var queue = queues.computeIfAbsent(new Pair<>(rankType, timeByPlayer), key -> new TreeSet<>(BY_RATING));
+
+        Ticket lower = queue.lower(ticket), higher = queue.higher(ticket);
+        Ticket nearest = lower == null ? higher : higher == null ? lower
+            : ticket.rating - lower.rating <= higher.rating - ticket.rating ? lower : higher;
+        if (nearest != null && canPair(ticket, nearest, now)) {
+            queue.remove(nearest);
+            tickets.remove(nearest.accountId);
+            return nearest;
+        }
+
+        queue.add(ticket);
+        tickets.put(accountId, ticket);
+        return null;
+    }
+
+    /** removes the player from its queue, returns false if the player does not wait */
+    synchronized boolean remove(long accountId) {
+        var ticket = tickets.remove(accountId);
+        if (ticket == null) return false;
+
+        var key = new Pair<>(ticket.rankType, ticket.timeByPlayer);
+        var queue = queues.get(key);
+        queue.remove(ticket);
+        if (queue.isEmpty()) queues.remove(key);
+        return true;
+    }
+
+    /**
+     * pairs the waiting players whose windows have widened enough,
+     * only the neighbours by rating are compared, they are the nearest ones
+     * */
+    synchronized List<Pair<Ticket, Ticket>> pairWaiting(long now) {
+        List<Pair<Ticket, Ticket>> pairs = new ArrayList<>();
+        for (Iterator<TreeSet<Ticket>> queueIt = queues.values().iterator(); queueIt.hasNext(); ) {
+            var queue = queueIt.next();
+            int from = pairs.size();
+            Ticket previous = null;
+            for (Ticket ticket : queue) {
+                if (previous == null || !canPair(previous, ticket, now)) {
+                    previous = ticket;
+                    continue;
+                }
+                pairs.add(new Pair<>(previous, ticket));
+                previous = null;
+            }
+
+            for (var pair : pairs.subList(from, pairs.size())) {
+                queue.remove(pair.getKey());
+                queue.remove(pair.getValue());
+                tickets.remove(pair.getKey().accountId);
+                tickets.remove(pair.getValue().accountId);
+            }
+            if (queue.isEmpty()) queueIt.remove();
+        }
+        return pairs;
+    }
+
+    synchronized int size() {
+        return tickets.size();
+    }
+
+    private static boolean canPair(Ticket first, Ticket second, long now) {
+        return Math.abs(first.rating - second.rating) <= Math.min(first.getWindow(now), second.getWindow(now));
+    }
+
+    static final class Ticket {
+
+        private final long accountId;
+        private final RankType rankType;
+        private final long timeByPlayer;
+        private final double rating;
+        private final long enqueuedTime;
+        /** the order of the players with equal ratings */
+        private final long number;
+
+        private Ticket(long accountId, RankType rankType, long timeByPlayer, double rating,
+                       long enqueuedTime, long number) {
+            this.accountId = accountId;
+            this.rankType = rankType;
+            this.timeByPlayer = timeByPlayer;
+            this.rating = rating;
+            this.enqueuedTime = enqueuedTime;
+            this.number = number;
+        }
+
+        long getAccountId() {
+            return accountId;
+        }
+
+        RankType getRankType() {
+            return rankType;
+        }
+
+        long getTimeByPlayer() {
+            return timeByPlayer;
+        }
+
+        long getEnqueuedTime() {
+            return enqueuedTime;
+        }
+
+        private double getWindow(long now) {
+            return Math.min(MAX_WINDOW, START_WINDOW + WIDEN_PER_SECOND * (now - enqueuedTime) / 1000);
+        }
+    }
+}
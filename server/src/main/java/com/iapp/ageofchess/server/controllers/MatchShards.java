@@ -0,0 +1,138 @@
+package com.iapp.ageofchess.server.controllers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Running matches management
+ * @author Igor Ivanov
+ * The matches are partitioned by id across the shards, each shard is a single thread
+ * that owns its engines and their clocks, so the engines are never touched by two threads.
+ * The clock of each match is one task in the deadline queue of its shard,
+ * at the next flag-fall or the end of the turn time
+ * */
+class MatchShards {
+
+    private static final Logger shardsLogger = LoggerFactory.getLogger(MatchShards.class);
+
+    private final Shard[] shards;
+    private final Consumer<MatchChessEngine> onExpired;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param countShards the count of the threads of the matches
+     * @param onExpired called in the thread of the shard when the deadline of the match is reached
+     * */
+    MatchShards(int countShards, Consumer<MatchChessEngine> onExpired) {
+        if (countShards < 1) throw new IllegalArgumentException("at least one shard is required");
+        this.onExpired = onExpired;
+        shards = new Shard[countShards];
+        for (int i = 0; i < countShards; i++) shards[i] = new Shard(i);
+    }
+
+    /** returns the count of running matches */
+    int size() {
+        return count.get();
+    }
+
+    /** adds the started match to its shard and starts its clocks */
+    void add(MatchChessEngine engine) {
+        long matchId = engine.getMatch().getId();
+        call(matchId, shard -> {
+            if (shard.engines.put(matchId, engine) == null) count.incrementAndGet();
+            shard.schedule(engine);
+            return null;
+        });
+    }
+
+    /** removes the match from its shard with its clocks */
+    void remove(long matchId) {
+        call(matchId, shard -> {
+            if (shard.engines.remove(matchId) != null) count.decrementAndGet();
+            shard.cancel(matchId);
+            return null;
+        });
+    }
+
+    /**
+     * runs the action in the thread of the shard of the match and waits for its result,
+     * the engine is null if the match is not running.
+     * The clocks are rescheduled after the action
+     * */
+    <T> T execute(long matchId, Function<MatchChessEngine, T> action) {
+        return call(matchId, shard -> {
+            MatchChessEngine engine = shard.engines.get(matchId);
+            T result = action.apply(engine);
+            if (engine != null) shard.schedule(engine);
+            return result;
+        });
+    }
+
+    private <T> T call(long matchId, Function<Shard, T> action) {
+        Shard shard = shards[Math.floorMod(Long.hashCode(matchId), shards.length)];
+        // the listeners of the clocks may ask the same shard again
+        if (Thread.currentThread() == shard.thread) return action.apply(shard);
+        return CompletableFuture.supplyAsync(() -> action.apply(shard), shard.executor).join();
+    }
+
+    /** a thread with its matches, the maps are accessed only from it */
+    private final class Shard {
+
+        private final ScheduledThreadPoolExecutor executor;
+        private final Map<Long, MatchChessEngine> engines = new HashMap<>();
+        /** match id -> the task of its next deadline */
+        private final Map<Long, ScheduledFuture<?>> deadlines = new HashMap<>();
+        private volatile Thread thread;
+
+        private Shard(int index) {
+            executor = new ScheduledThreadPoolExecutor(1, task -> {
+                thread = new Thread(task, "match-shard-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+            // the cancelled tasks of the moved matches are not kept until their deadline
+            executor.setRemoveOnCancelPolicy(true);
+        }
+
+        /** replaces the task of the match with its current deadline, if the match has one */
+        private void schedule(MatchChessEngine engine) {
+            long matchId = engine.getMatch().getId();
+            cancel(matchId);
+
+            long deadline = engine.getNextDeadline();
+            if (deadline == -1) return;
+
+            long delay = Math.max(deadline - System.currentTimeMillis(), 0);
+            deadlines.put(matchId, executor.schedule(() -> expire(engine), delay, TimeUnit.MILLISECONDS));
+        }
+
+        private void cancel(long matchId) {
+            ScheduledFuture<?> future = deadlines.remove(matchId);
+            if (future != null) future.cancel(false);
+        }
+
+        private void expire(MatchChessEngine engine) {
+            long matchId = engine.getMatch().getId();
+            deadlines.remove(matchId);
+            if (engines.get(matchId) != engine) return;
+
+            try {
+                onExpired.accept(engine);
+            } catch (Throwable t) {
+                shardsLogger.error("Error expire clock, match id = " + matchId, t);
+            }
+            // the turn time is restarted in the alternate mode, or the time is not over yet
+            schedule(engine);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.iapp.ageofchess.server.controllers;
+
+import com.iapp.ageofchess.multiplayer.ArchivedGame;
+import com.iapp.lib.chess_engine.BoardMatrix;
+import com.iapp.lib.chess_engine.Color;
+import com.iapp.lib.chess_engine.Game;
+import com.iapp.lib.chess_engine.Move;
+import com.iapp.lib.chess_engine.TypePiece;
+import com.iapp.lib.util.Pair;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Converts the archived games to PGN
+ * @author Igor Ivanov
+ * The moves are replayed from the start position to write them in the standard algebraic notation,
+ * a position other than the standard one is written by the SetUp and FEN tags
+ * */
+final class PgnWriter {
+
+    /** the maximum length of a line of the moves */
+    private static final int LINE_LENGTH = 80;
+    private static final String FILES = "abcdefgh";
+
+    private PgnWriter() {}
+
+    /** writes the game, the names are of the players at the time of the export */
+    static void write(StringBuilder pgn, ArchivedGame game, String white, String black) {
+        String start = game.getStartFen() != null ? game.getStartFen() : ArchivedGame.STANDARD_FEN;
+        String result = getResult(game);
+
+        writeTag(pgn, "Event", "Age of Chess " + game.getRankType().name().toLowerCase() + " game");
+        writeTag(pgn, "Site", "Age of Chess");
+        writeTag(pgn, "Date", getDate(game.getFinishTime()));
+        writeTag(pgn, "Round", "-");
+        writeTag(pgn, "White", white);
+        writeTag(pgn, "Black", black);
+        writeTag(pgn, "Result", result);
+        if (game.getStartFen() != null) {
+            writeTag(pgn, "SetUp", "1");
+            writeTag(pgn, "FEN", toStandardFen(start));
+        }
+        pgn.append('\n');
+
+        var board = new Game(Color.BLACK, start);
+        int number = 1;
+        int lineStart = pgn.length();
+        boolean first = true;
+        for (Pair<Move, TypePiece> pair : game.getMoves()) {
+            var token = new StringBuilder();
+            if (board.getColorMove() == Color.WHITE) token.append(number).append(". ");
+            else if (first) token.append(number).append("... ");
+            if (board.getColorMove() == Color.BLACK) number++;
+            token.append(makeMove(board, pair.getKey(), pair.getValue()));
+            first = false;
+
+            lineStart = append(pgn, token, lineStart);
+        }
+        append(pgn, new StringBuilder(result), lineStart);
+        pgn.append("\n\n");
+    }
+
+    /**
+     * makes the move on the board and returns it in the standard algebraic notation
+     * @param move - in the coordinates of Match, the y of the board is reversed
+     * */
+    private static String makeMove(Game board, Move move, TypePiece promotion) {
+        int x = move.getPieceX(), y = 7 - move.getPieceY();
+        int toX = move.getMoveX(), toY = 7 - move.getMoveY();
+        var normalMove = Move.valueOf(x, y, toX, toY);
+        var san = new StringBuilder();
+
+        if (board.isKing(x, y) && board.isCastleMove(normalMove)) {
+            san.append(toX > x ? "O-O" : "O-O-O");
+        } else if (board.isPawn(x, y)) {
+            // the pawn takes only by a diagonal, the pawn taken on the pass is not on the square
+            if (toX != x) san.append(FILES.charAt(x)).append('x');
+            san.append(FILES.charAt(toX)).append(move.getMoveY() + 1);
+            if (promotion != null) san.append('=').append(getLetter(promotion));
+        } else {
+            san.append(getLetter(board, x, y));
+            san.append(getDisambiguation(board, x, y, toX, toY));
+            if (!board.isCage(toX, toY)) san.append('x');
+            san.append(FILES.charAt(toX)).append(move.getMoveY() + 1);
+        }
+
+        board.makeMove(normalMove);
+        if (promotion != null) board.updatePawn(toX, toY, getType(promotion));
+        if (board.getCheckKing() != null) san.append(board.isFinish() ? '#' : '+');
+        return san.toString();
+    }
+
+    /** the file, the rank or both of the piece if another piece of the same kind goes to the square */
+    private static String getDisambiguation(Game board, int x, int y, int toX, int toY) {
+        byte piece = board.getPiece(x, y);
+        boolean ambiguous = false, sameFile = false, sameRank = false;
+
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                if ((i == x && j == y) || board.getPiece(i, j) != piece) continue;
+                for (Move other : board.getMoves(i, j)) {
+                    if (other.getMoveX() != toX || other.getMoveY() != toY) continue;
+                    ambiguous = true;
+                    sameFile |= i == x;
+                    sameRank |= j == y;
+                }
+            }
+        }
+
+        if (!ambiguous) return "";
+        if (!sameFile) return String.valueOf(FILES.charAt(x));
+        if (!sameRank) return String.valueOf(8 - y);
+        return FILES.charAt(x) + String.valueOf(8 - y);
+    }
+
+    /** appends the token to the moves, a line is broken before the limit */
+    private static int append(StringBuilder pgn, StringBuilder token, int lineStart) {
+        if (pgn.length() != lineStart) {
+            if (pgn.length() - lineStart + 1 + token.length() > LINE_LENGTH) {
+                pgn.append('\n');
+                lineStart = pgn.length();
+            } else {
+                pgn.append(' ');
+            }
+        }
+        pgn.append(token);
+        return lineStart;
+    }
+
+    private static void writeTag(StringBuilder pgn, String name, String value) {
+        pgn.append('[').append(name).append(" \"")
+            .append(value.replace("\\", "\\\\").replace("\"", "\\\""))
+            .append("\"]\n");
+    }
+
+    private static String getResult(ArchivedGame game) {
+        switch (game.getResult()) {
+            case WHITE_VICTORY: return "1-0";
+            case BLACK_VICTORY: return "0-1";
+            case DRAWN: return "1/2-1/2";
+            default: return "*";
+        }
+    }
+
+    private static String getDate(long time) {
+        var format = new SimpleDateFormat("yyyy.MM.dd");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    /**
+     * the FEN of the matches has only the board, the color and the castlings, the empty squares may be
+     * written one by one, the standard one has the counts of the empty squares and all six fields
+     * */
+    private static String toStandardFen(String fen) {
+        String[] parts = fen.split(" ");
+        var board = new StringBuilder();
+        int empty = 0;
+        for (char c : parts[0].toCharArray()) {
+            if (Character.isDigit(c)) {
+                empty += c - '0';
+                continue;
+            }
+            if (empty != 0) board.append(empty);
+            empty = 0;
+            board.append(c);
+        }
+        if (empty != 0) board.append(empty);
+        if (board.charAt(board.length() - 1) == '/') board.setLength(board.length() - 1);
+
+        String color = parts.length > 1 ? parts[1] : "w";
+        String castlings = parts.length > 2 && !parts[2].isEmpty() ? parts[2] : "-";
+        return board + " " + color + " " + castlings + " - 0 1";
+    }
+
+    private static char getLetter(Game board, int x, int y) {
+        if (board.isKing(x, y)) return 'K';
+        if (board.isQueen(x, y)) return 'Q';
+        if (board.isRook(x, y)) return 'R';
+        if (board.isBishop(x, y)) return 'B';
+        return 'N';
+    }
+
+    private static char getLetter(TypePiece type) {
+        switch (type) {
+            case QUEEN: return 'Q';
+            case ROOK: return 'R';
+            case BISHOP: return 'B';
+            default: return 'N';
+        }
+    }
+
+    private static byte getType(TypePiece type) {
+        switch (type) {
+            case QUEEN: return BoardMatrix.QUEEN;
+            case ROOK: return BoardMatrix.ROOK;
+            case BISHOP: return BoardMatrix.BISHOP;
+            default: return BoardMatrix.KNIGHT;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.iapp.ageofchess.server.controllers;
+
+import com.iapp.lib.ui.screens.RdLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Outgoing messages of one session
+ * @author Igor Ivanov
+ * The messages are queued and sent in order by one writer task at a time,
+ * so a slow client delays only its own messages.
+ * A message with a key replaces the queued one with the same key, only the newest state is sent.
+ * A client that does not keep up with the limits is disconnected
+ * */
+class SessionOutbound {
+
+    private static final Logger outboundLogger = LoggerFactory.getLogger(SessionOutbound.class);
+
+    private static final int MAX_MESSAGES = 1_024;
+    private static final int MAX_BYTES = 16 * 1024 * 1024;
+    private static final long SEND_TIME_LIMIT = 10 * 1000;
+
+    private final WebSocketSession session;
+    private final Executor writers;
+    private final Consumer<WebSocketSession> onFailed;
+
+    /** guarded by this */
+    private final Deque<Pending> queue = new ArrayDeque<>();
+    private long bytes;
+    private boolean writing;
+    private boolean closed;
+
+    /**
+     * @param writers runs the writer tasks of the sessions
+     * @param onFailed called once when the session is closed by an error or as too slow
+     * */
+    SessionOutbound(WebSocketSession session, Executor writers, Consumer<WebSocketSession> onFailed) {
+        this.session = session;
+        this.writers = writers;
+        this.onFailed = onFailed;
+    }
+
+    /**
+     * queues the message without waiting for the client
+     * @param key the state of the message, null if the message is not replaced by the newer ones
+     * */
+    void send(WebSocketMessage<?> message, String key) {
+        String reason = null;
+        synchronized (this) {
+            if (closed) return;
+
+            if (key != null) removeQueued(key);
+            queue.add(new Pending(message, key, System.currentTimeMillis()));
+            bytes += message.getPayloadLength();
+
+            if (queue.size() > MAX_MESSAGES || bytes > MAX_BYTES) {
+                reason = "queue overflow, messages = " + queue.size() + ", bytes = " + bytes;
+            } else if (System.currentTimeMillis() - queue.peek().time > SEND_TIME_LIMIT) {
+                reason = "send time limit";
+            } else if (!writing) {
+                writing = true;
+                writers.execute(this::write);
+            }
+        }
+
+        if (reason != null) fail("too slow client, " + reason, null);
+    }
+
+    /** forgets the queued messages, the session is already closed */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            bytes = 0;
+        }
+    }
+
+    private void write() {
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                next = queue.poll();
+                if (next == null || closed) {
+                    writing = false;
+                    return;
+                }
+                bytes -= next.message.getPayloadLength();
+            }
+
+            try {
+                session.sendMessage(next.message);
+            } catch (Throwable t) {
+                synchronized (this) {
+                    writing = false;
+                }
+                fail("error send message", t);
+                return;
+            }
+        }
+    }
+
+    private void removeQueued(String key) {
+        var iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Pending pending = iterator.next();
+            if (Objects.equals(pending.key, key)) {
+                iterator.remove();
+                bytes -= pending.message.getPayloadLength();
+                return;
+            }
+        }
+    }
+
+    private void fail(String reason, Throwable t) {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            queue.clear();
+            bytes = 0;
+        }
+
+        outboundLogger.error("Error update client, session id = " + session.getId() + ", " + reason
+            + (t != null ? ", " + RdLogger.self().getDescription(t) : ""));
+        try {
+            // unblocks the writer waiting for the client
+            session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (Throwable e) {
+            outboundLogger.error("Error close session, session id = " + session.getId(), e);
+        }
+        onFailed.accept(session);
+    }
+
+    private static final class Pending {
+
+        private final WebSocketMessage<?> message;
+        private final String key;
+        private final long time;
+
+        private Pending(WebSocketMessage<?> message, String key, long time) {
+            this.message = message;
+            this.key = key;
+            this.time = time;
+        }
+    }
+}
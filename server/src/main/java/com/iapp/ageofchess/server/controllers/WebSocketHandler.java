@@ -2,7 +2,9 @@ package com.iapp.ageofchess.server.controllers;
 
 import com.google.gson.Gson;
 import com.iapp.ageofchess.multiplayer.Match;
+import com.iapp.ageofchess.multiplayer.WireProtocol;
 import com.iapp.ageofchess.server.config.WebSocketConfig;
+import com.iapp.ageofchess.server.dao.MatchState;
 import com.iapp.lib.ui.screens.RdLogger;
 import com.iapp.lib.util.Pair;
 import com.iapp.lib.web.*;
@@ -13,6 +15,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 
@@ -22,18 +25,74 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class WebSocketHandler extends AbstractWebSocketHandler {
 
-    private static final long ACCOUNT_UPDATE_TIME = 30 * 60 * 1000;
     private static final long MAIN_CHAT_UPDATE_TIME = 60 * 1000;
+    private static final long GAMES_UPDATE_TIME = 5 * 1000;
+    private static final long RANKS_FLUSH_TIME = 1000;
+    private static final long JOURNAL_CLOCKS_TIME = 10 * 1000;
+    private static final long JOURNAL_COMPACT_TIME = 10 * 60 * 1000;
+    private static final long ARCHIVE_FLUSH_TIME = 5 * 1000;
+    private static final long QUEUES_UPDATE_TIME = 1000;
+    /** the spectators get the changes of only the clocks not more often */
+    private static final long SPECTATOR_CLOCK_TIME = 5 * 1000;
+    private static final int MAX_GAMES_PAGE = 100;
+    private static final int MAX_MESSAGES_PAGE = 100;
+    private static final int MAX_ARCHIVE_PAGE = 100;
+    /** the maximum number of the accounts before and after the place of an account */
+    private static final int MAX_PLACE_AROUND = 25;
+    /** the maximum number of the games in one PGN export */
+    private static final int MAX_PGN_GAMES = 2_000;
+    private static final String ACCOUNTS = "/api/v1/accounts";
+    private static final String MAIN_CHAT = "/api/v1/mainChat";
+    private static final String GAMES = "/api/v1/games";
+    private static final String SERVER = "/api/v1/server";
     private static final Logger websocketLogger = LoggerFactory.getLogger(WebSocketHandler.class);
-    private static final Object MUTEX = new Object();
 
     private final Gson gson = new Gson();
-    private final ExecutorService service = Executors.newSingleThreadExecutor();
+    /** database maintenance, the matches and their clocks have their own threads */
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor();
+    /** the writers of the outgoing messages, a writer is blocked only by its own slow client */
+    private final ExecutorService writers = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            var thread = new Thread(task, "socket-writer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * sends the changes of the matches to their spectators, one thread keeps the order of the changes.
+     * The players get the changes from the thread of the move
+     * */
+    private final ExecutorService spectatorFanout = Executors.newSingleThreadExecutor(task -> {
+        var thread = new Thread(task, "spectator-fanout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** the PGN exports, they replay the games and are kept away from the threads of the requests */
+    private final ExecutorService exports = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            var thread = new Thread(task, "pgn-export-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    /** the accounts with a running export, one export per account */
+    private final Set<Long> exporting = ConcurrentHashMap.newKeySet();
 
     private final AccountController accountController;
     private final MainChatController mainChatController;
@@ -48,7 +107,13 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
     private final Map<Long, Map<Long, Set<String>>> countSessionEntered = new ConcurrentHashMap<>();
 
     private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    /** session id -> the queue of its outgoing messages */
+    private final Map<String, SessionOutbound> outbounds = new ConcurrentHashMap<>();
     private final Map<String, Account> logins = new ConcurrentHashMap<>();
+    /** account id -> the ids of its logged in sessions, changed with the logins */
+    private final Map<Long, Set<String>> accountSessions = new ConcurrentHashMap<>();
+    /** the sessions that switched to the binary format, the others use JSON */
+    private final Set<String> binarySessions = ConcurrentHashMap.newKeySet();
 
 
     @Autowired
@@ -60,73 +125,56 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
         this.mainChatController = mainChatController;
         this.gamesController = gamesController;
         this.sysAdminController = sysAdminController;
+        gamesController.setOnPairedMatch(this::updatePaired);
         launchParallel();
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
+        outbounds.put(session.getId(), new SessionOutbound(session, writers,
+            failed -> removeClient(failed.getId())));
         sessions.put(session.getId(), session);
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) {
-
-        gamesController.setOnUpdateMatch(match -> {
-            updateEnteredUsers(match.getId(), new SocketRequest("/api/v1/games/updateTime"));
-        });
-
         try {
-
-            SocketRequest request;
-            request = gson.fromJson(message.getPayload(), SocketRequest.class);
+            SocketRequest request = gson.fromJson(message.getPayload(), SocketRequest.class);
             if (request == null) {
                 websocketLogger.error("request == null");
                 return;
             }
+            handleRequest(session, request);
 
-            if (request.getRequest().startsWith("/api/v1/accounts")) {
-                SocketResult res = requireFromAccounts(
-                        session,
-                        request.getRequest().replaceAll("/api/v1/accounts", ""),
-                        request);
-                updateClient(session, res);
-
-                return;
-            } else if (request.getRequest().startsWith("/api/v1/mainChat")) {
-
-                SocketResult res = requireFromMainChat(
-                        session,
-                        request.getRequest().replaceAll("/api/v1/mainChat", ""),
-                        request);
-                updateClient(session, res);
-
-                return;
-
-            } else if (request.getRequest().startsWith("/api/v1/games")) {
+        } catch (Throwable t) {
+            websocketLogger.error("[handleTextMessage] " + RdLogger.self().getDescription(t));
+        }
 
-                SocketResult res = requireFromGames(
-                        session,
-                        request.getRequest().replaceAll("/api/v1/games", ""),
-                        request);
-                updateClient(session, res);
+    }
 
-                return;
+    /** routes the request of both formats, the prefixes are cut without regular expressions */
+    private void handleRequest(WebSocketSession session, SocketRequest request) {
 
-            } else if (request.getRequest().startsWith("/api/v1/server")) {
-                SocketResult res = requireFromServer(
-                    session,
-                    request.getRequest().replaceAll("/api/v1/server", ""),
-                    request);
-                updateClient(session, res);
-                return;
-            }
-
-            updateClient(session, new SocketResult(RequestStatus.SOCKET_NOT_FOUND, request));
+        gamesController.setOnUpdateMatch(match -> {
+            updateEnteredUsers(match.getId(), new SocketRequest("/api/v1/games/updateTime"));
+        });
 
-        } catch (Throwable t) {
-            websocketLogger.error("[handleTextMessage] " + RdLogger.self().getDescription(t));
+        String path = request.getRequest();
+        SocketResult res;
+        if (path.startsWith(ACCOUNTS)) {
+            res = requireFromAccounts(session, path.substring(ACCOUNTS.length()), request);
+        } else if (path.startsWith(MAIN_CHAT)) {
+            res = requireFromMainChat(session, path.substring(MAIN_CHAT.length()), request);
+        } else if (path.startsWith(GAMES)) {
+            res = requireFromGames(session, path.substring(GAMES.length()), request);
+        } else if (path.startsWith(SERVER)) {
+            res = requireFromServer(session, path.substring(SERVER.length()), request);
+        } else {
+            res = new SocketResult(RequestStatus.SOCKET_NOT_FOUND, request);
         }
 
+        // the long requests send their results themselves
+        if (res != null) updateClient(session, res);
     }
 
     @Override
@@ -163,6 +211,35 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
 
                 }
 
+                case WireProtocol.OPERATION: {
+                    handleRequest(session, WireProtocol.decodeRequest(data));
+                    break;
+                }
+
+                case 4: {
+                    // the avatar or its thumbnail if the client does not have it, in parts
+                    var request = BinaryRequests.parseGetChangedAvatar(data);
+                    long id = request.getKey();
+                    boolean thumbnail = request.getValue().getKey();
+
+                    RequestStatus requestStatus = RequestStatus.DENIED;
+                    String hash = null;
+                    byte[] avatar = null;
+                    if (logins.containsKey(session.getId())) {
+                        var pair = accountController.getAvatar(id, thumbnail, request.getValue().getValue());
+                        requestStatus = pair.getKey();
+                        if (requestStatus == RequestStatus.DONE) {
+                            hash = pair.getValue().getKey();
+                            avatar = pair.getValue().getValue();
+                        }
+                    }
+
+                    for (byte[] chunk : BinaryRequests.resultGetAvatar((byte) 4, requestStatus, id, thumbnail, hash, avatar)) {
+                        updateClient(session, chunk);
+                    }
+                    break;
+                }
+
             }
         } catch (Throwable t) {
             websocketLogger.error("handleBinaryMessage", t);
@@ -174,24 +251,29 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
 
-        Account account = logins.get(session.getId());
+        // the login is removed first, so the other sessions of the account are left
+        Account account = removeLogin(session.getId());
         boolean update = false;
         if (account != null) {
             for (Match match : gamesController.getGames()) {
                 if (canExitAndUpdate(account.getId(), match.getId(), session.getId())) {
-                    gamesController.disconnect(logins.get(session.getId()).getId(), match.getId());
+                    gamesController.disconnect(account.getId(), match.getId());
                 }
             }
 
-            if (getSession(account.getId()).size() == 0) {
+            // the last session is closed by the client or as too slow, the player is not paired anymore
+            if (getSession(account.getId()).isEmpty()) {
                 countSessionEntered.remove(account.getId());
+                gamesController.dequeue(account.getId());
                 mainChatController.sendDisconnect(account);
                 update = true;
             }
         }
 
         sessions.remove(session.getId());
-        logins.remove(session.getId());
+        binarySessions.remove(session.getId());
+        var outbound = outbounds.remove(session.getId());
+        if (outbound != null) outbound.close();
 
         if (update) {
             updateMainLobbyForClients();
@@ -204,6 +286,12 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
         if (loginAcc != null) socketRequest.setSenderId(loginAcc.getId());
 
         switch (serverReq) {
+            case "/binary": {
+                // the reply is already binary
+                binarySessions.add(session.getId());
+                return new SocketResult(RequestStatus.DONE, socketRequest);
+            }
+
             case "/restart": {
                 if (loginAcc == null || loginAcc.getType().ordinal() < AccountType.EXECUTOR.ordinal()) {
                     return new SocketResult(RequestStatus.DENIED, socketRequest);
@@ -272,7 +360,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                     }
 
                     res.getValue().setOnlineNow(true);
-                    logins.put(session.getId(), res.getValue());
+                    addLogin(session.getId(), res.getValue());
                     updateMainChatForClients(socketRequest);
 
                     if (getSession(res.getValue().getId()).size() == 1) {
@@ -281,7 +369,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                     }
                 }
 
-                return new SocketResult(res.getKey(), gson.toJson(res.getValue()), socketRequest);
+                return new SocketResult(res.getKey(), socketRequest, res.getValue());
             }
 
             case "/signup": {
@@ -295,8 +383,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 var pair = accountController.see(Long.parseLong(params[0]));
                 updateOnline(pair.getValue());
 
-                return new SocketResult(pair.getKey(), gson.toJson(pair.getValue()),
-                        socketRequest);
+                return new SocketResult(pair.getKey(), socketRequest, pair.getValue());
             }
 
             case "/seeAccounts": {
@@ -305,8 +392,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 var pair = accountController.seeAccounts(ids);
                 updateOnline(pair.getValue());
 
-                return new SocketResult(pair.getKey(), gson.toJson(pair.getValue()),
-                        socketRequest);
+                return new SocketResult(pair.getKey(), socketRequest, pair.getValue());
             }
 
             case "/change": {
@@ -323,8 +409,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 if (loginAcc == null || loginAcc.getType() != AccountType.DEVELOPER)
                     return new SocketResult(RequestStatus.DENIED, socketRequest);
 
-                return new SocketResult(RequestStatus.DONE, gson.toJson(accountController.getAllData()),
-                        socketRequest);
+                return new SocketResult(RequestStatus.DONE, socketRequest, accountController.getAllData());
             }
 
             case "/search": {
@@ -333,36 +418,45 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 if (accounts.getKey() != RequestStatus.DONE) return new SocketResult(accounts.getKey(), socketRequest);
                 updateOnline(accounts.getValue());
 
-                return new SocketResult(RequestStatus.DONE,
-                        gson.toJson(accounts.getValue()), socketRequest);
+                return new SocketResult(RequestStatus.DONE, socketRequest, accounts.getValue());
             }
 
             case "/bullet": {
                 Pair<RequestStatus, List<Account>> pair = accountController.getBulletTop();
                 updateOnline(pair.getValue());
 
-                return new SocketResult(pair.getKey(), gson.toJson(pair.getValue()), socketRequest);
+                return new SocketResult(pair.getKey(), socketRequest, pair.getValue());
             }
 
             case "/blitz": {
                 Pair<RequestStatus, List<Account>> pair = accountController.getBlitzTop();
                 updateOnline(pair.getValue());
 
-                return new SocketResult(pair.getKey(), gson.toJson(pair.getValue()), socketRequest);
+                return new SocketResult(pair.getKey(), socketRequest, pair.getValue());
             }
 
             case "/rapid": {
                 Pair<RequestStatus, List<Account>> pair = accountController.getRapidTop();
                 updateOnline(pair.getValue());
 
-                return new SocketResult(pair.getKey(), gson.toJson(pair.getValue()), socketRequest);
+                return new SocketResult(pair.getKey(), socketRequest, pair.getValue());
             }
 
             case "/long": {
                 Pair<RequestStatus, List<Account>> pair = accountController.getLongTop();
                 updateOnline(pair.getValue());
 
-                return new SocketResult(pair.getKey(), gson.toJson(pair.getValue()), socketRequest);
+                return new SocketResult(pair.getKey(), socketRequest, pair.getValue());
+            }
+
+            case "/place": {
+                // the place of the account and the accounts around it: rankType id count
+                int count = Math.min(Integer.parseInt(params[2]), MAX_PLACE_AROUND);
+                var pair = accountController.getPlace(RankType.valueOf(params[0]), Long.parseLong(params[1]), count);
+                if (pair.getKey() != RequestStatus.DONE) return new SocketResult(pair.getKey(), socketRequest);
+                updateOnline(pair.getValue().getValue());
+
+                return new SocketResult(RequestStatus.DONE, socketRequest, pair.getValue());
             }
 
             case "/punish": {
@@ -393,15 +487,29 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
         switch (mainChatReq) {
 
             case "/list": {
-                return new SocketResult(RequestStatus.DONE, gson.toJson(
-                    getListCommand(logins.values())), socketRequest);
+                return new SocketResult(RequestStatus.DONE, socketRequest, getListCommand(logins.values()));
             }
 
             case "/readAll": {
 
                 var pair = mainChatController.readAll();
                 updateOnline(pair.getValue().values());
-                return new SocketResult(RequestStatus.DONE, gson.toJson(pair), socketRequest);
+                return new SocketResult(RequestStatus.DONE, socketRequest, pair);
+            }
+
+            case "/readBefore": {
+                // the older messages by pages: beforeId limit
+                long beforeId;
+                int limit;
+                try {
+                    beforeId = Long.parseLong(params[0]);
+                    limit = Math.max(1, Math.min(Integer.parseInt(params[1]), MAX_MESSAGES_PAGE));
+                } catch (RuntimeException e) {
+                    return new SocketResult(RequestStatus.INCORRECT_DATA, socketRequest);
+                }
+                var pair = mainChatController.readBefore(beforeId, limit);
+                updateOnline(pair.getValue().values());
+                return new SocketResult(RequestStatus.DONE, socketRequest, pair);
             }
 
             case "/send": {
@@ -441,8 +549,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 List<LobbyMessage> lobby = mainChatController.readMainLobby();
                 // transmission of the number of people in the network, to reduce requests to the server
                 lobby.add(0, new LobbyMessage(-1, -1, String.valueOf(getOnline())));
-                return new SocketResult(RequestStatus.DONE,
-                    gson.toJson(lobby), socketRequest);
+                return new SocketResult(RequestStatus.DONE, socketRequest, lobby);
             }
         }
 
@@ -459,27 +566,99 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
             case "/list": {
                 Pair<RequestStatus, Match> result = gamesController.getMatch(Long.parseLong(params[0]));
                 if (result.getKey() != RequestStatus.DONE) return new SocketResult(result.getKey(), socketRequest);
-                System.out.println(getListCommand(
-                    getLoginAccounts(result.getValue().getEntered())
-                ));
-
-                return new SocketResult(RequestStatus.DONE,
-                    gson.toJson(getListCommand(
-                        getLoginAccounts(result.getValue().getEntered())
-                    )), socketRequest);
+                return new SocketResult(RequestStatus.DONE, socketRequest,
+                    getListCommand(getLoginAccounts(result.getValue().getEntered())));
             }
 
             case "/getGames": {
-                return new SocketResult(RequestStatus.DONE,
-                        gson.toJson(gamesController.getGames()), socketRequest);
+                // without parameters all matches, else a page: afterId limit [state]
+                if (params.length >= 2) {
+                    var state = params.length >= 3 ? MatchState.valueOf(params[2]) : null;
+                    int limit = Math.min(Integer.parseInt(params[1]), MAX_GAMES_PAGE);
+                    return new SocketResult(RequestStatus.DONE, socketRequest,
+                        gamesController.getGames(Long.parseLong(params[0]), limit, state));
+                }
+
+                return new SocketResult(RequestStatus.DONE, socketRequest, gamesController.getGames());
             }
 
             case "/getMatch": {
+                // the other entered users get the changes up to the version of the snapshot
+                updateEnteredUsers(Long.parseLong(params[0]), socketRequest);
                 var pair = gamesController.getMatch(Long.parseLong(params[0]));
-                return new SocketResult(pair.getKey(), gson.toJson(pair.getValue()), socketRequest);
+                return new SocketResult(pair.getKey(), socketRequest, pair.getValue());
+            }
+
+            case "/watchers": {
+                // the number of the watchers of the match and their maximum
+                var pair = gamesController.getWatchers(Long.parseLong(params[0]));
+                return new SocketResult(pair.getKey(), socketRequest, pair.getValue());
+            }
+
+            case "/archive": {
+                // the finished games by pages: playerId beforeId limit [rankType]
+                if (loginAcc == null)
+                    return new SocketResult(RequestStatus.DENIED, socketRequest);
+
+                long playerId = Long.parseLong(params[0]);
+                // the games of all players only for the moderators
+                if (!canReadArchive(loginAcc, playerId))
+                    return new SocketResult(RequestStatus.DENIED, socketRequest);
+
+                int limit = Math.max(1, Math.min(Integer.parseInt(params[2]), MAX_ARCHIVE_PAGE));
+                var rankType = params.length >= 4 && !params[3].isEmpty() ? RankType.valueOf(params[3]) : null;
+                return new SocketResult(RequestStatus.DONE, socketRequest, gamesController.getArchivedGames(
+                    playerId, rankType, Long.parseLong(params[1]), limit));
             }
 
             // all
+            case "/pgn": {
+                // playerId [rankType] [fromTime toTime], the parts are sent by the export, an empty part ends it
+                if (loginAcc == null)
+                    return new SocketResult(RequestStatus.DENIED, socketRequest);
+
+                long playerId = Long.parseLong(params[0]);
+                if (!canReadArchive(loginAcc, playerId))
+                    return new SocketResult(RequestStatus.DENIED, socketRequest);
+
+                var rankType = params.length >= 2 && !params[1].isEmpty() ? RankType.valueOf(params[1]) : null;
+                long fromTime = params.length >= 4 ? Long.parseLong(params[2]) : 0;
+                long toTime = params.length >= 4 ? Long.parseLong(params[3]) : Long.MAX_VALUE;
+                if (!exporting.add(loginAcc.getId()))
+                    return new SocketResult(RequestStatus.DENIED, " the previous export is not finished", socketRequest);
+
+                exports.execute(() -> {
+                    var status = RequestStatus.DONE;
+                    try {
+                        gamesController.exportPgn(playerId, rankType, fromTime, toTime, MAX_PGN_GAMES,
+                            part -> updateClient(session, new SocketResult(RequestStatus.DONE, part, socketRequest)));
+                    } catch (Throwable t) {
+                        websocketLogger.error("exportPgn - " + RdLogger.self().getDescription(t));
+                        status = RequestStatus.INCORRECT_DATA;
+                    } finally {
+                        exporting.remove(loginAcc.getId());
+                    }
+                    updateClient(session, new SocketResult(status, "", socketRequest));
+                });
+                return null;
+            }
+
+            case "/queue": {
+                // rankType timeByPlayer, the started match is sent to both players when they are paired
+                if (loginAcc == null)
+                    return new SocketResult(RequestStatus.DENIED, socketRequest);
+
+                return new SocketResult(gamesController.enqueue(loginAcc.getId(), RankType.valueOf(params[0]),
+                    Long.parseLong(params[1])), socketRequest);
+            }
+
+            case "/leaveQueue": {
+                if (loginAcc == null)
+                    return new SocketResult(RequestStatus.DENIED, socketRequest);
+
+                return new SocketResult(gamesController.dequeue(loginAcc.getId()), socketRequest);
+            }
+
             case "/create": {
 
                 if (loginAcc == null)
@@ -488,9 +667,8 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 // make enter too
                 var pair = gamesController.create(loginAcc.getId(), params[0]);
                 if (pair.getKey() == RequestStatus.DONE) {
-
-                    updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
-                            gson.toJson(gamesController.getGames()), socketRequest));
+                    // the result is the created match
+                    updateGamesList(pair.getValue(), socketRequest);
                 }
 
                 return new SocketResult(pair.getKey(), pair.getValue(), socketRequest);
@@ -521,8 +699,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                         matchId, params[1]);
                 if (matchMoveRes == RequestStatus.DONE) {
                     updateEnteredUsers(matchId, socketRequest);
-                    updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
-                            gson.toJson(gamesController.getGames()), socketRequest));
+                    updateGamesList(matchId, socketRequest);
                 }
 
                 return new SocketResult(matchMoveRes, params[1], socketRequest);
@@ -537,10 +714,19 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 updateEnteredSessions(loginAcc.getId(), matchId, session.getId());
 
                 var enteredResult = gamesController.connect(loginAcc.getId(), matchId);
+                if (enteredResult == RequestStatus.DENIED) {
+                    // only the watchers are denied
+                    canExitAndUpdate(loginAcc.getId(), matchId, session.getId());
+                    return new SocketResult(RequestStatus.DENIED,
+                        " the match has the maximum of " + GamesController.MAX_WATCHERS + " watchers", socketRequest);
+                }
                 if (enteredResult == RequestStatus.DONE) {
                     updateEnteredUsers(matchId, socketRequest);
-                    updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
-                            gson.toJson(gamesController.getGames()), socketRequest));
+                    // the changes are applied to the full snapshot
+                    var snapshot = gamesController.getMatch(matchId);
+                    updateClient(session, new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
+                        socketRequest, snapshot.getValue()));
+                    updateGamesList(matchId, socketRequest);
                 }
 
                 return new SocketResult(enteredResult, socketRequest);
@@ -560,8 +746,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 var exitResult = gamesController.disconnect(loginAcc.getId(), matchId);
                 if (exitResult == RequestStatus.DONE) {
                     updateEnteredUsers(matchId, socketRequest);
-                    updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
-                            gson.toJson(gamesController.getGames()), socketRequest));
+                    updateGamesList(matchId, socketRequest);
                 }
 
                 return new SocketResult(exitResult, socketRequest);
@@ -576,8 +761,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 var joinRes = gamesController.join(loginAcc.getId(), matchId, params[1]);
                 if (joinRes == RequestStatus.DONE) {
                     updateEnteredUsers(matchId, socketRequest);
-                    updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
-                            gson.toJson(gamesController.getGames()), socketRequest));
+                    updateGamesList(matchId, socketRequest);
                 }
 
                 return new SocketResult(joinRes, socketRequest);
@@ -592,8 +776,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 var disjoinRes = gamesController.disjoin(loginAcc.getId(), matchId);
                 if (disjoinRes == RequestStatus.DONE) {
                     updateEnteredUsers(matchId, socketRequest);
-                    updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
-                            gson.toJson(gamesController.getGames()), socketRequest));
+                    updateGamesList(matchId, socketRequest);
                 }
 
                 return new SocketResult(disjoinRes, socketRequest);
@@ -608,8 +791,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                 var startRes = gamesController.start(loginAcc.getId(), matchId);
                 if (startRes == RequestStatus.DONE) {
                     updateEnteredUsers(matchId, socketRequest);
-                    updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
-                            gson.toJson(gamesController.getGames()), socketRequest));
+                    updateGamesList(matchId, socketRequest);
                 }
 
                 return new SocketResult(startRes, socketRequest);
@@ -622,8 +804,7 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
 
                 var requestStatus = gamesController.removeMatch(loginAcc.getId(), Long.parseLong(params[0]));
                 if (requestStatus == RequestStatus.DONE) {
-                    updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
-                            gson.toJson(gamesController.getGames()), socketRequest));
+                    removeFromGamesList(Long.parseLong(params[0]), socketRequest);
                 }
 
                 return new SocketResult(requestStatus, socketRequest);
@@ -635,55 +816,40 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
     }
 
     private void updateClients(SocketResult result) {
+        updateClients(result, null);
+    }
 
-        for (var session : sessions.values()) {
+    /** @param key the state of the result, the queued result with the same key is replaced */
+    private void updateClients(SocketResult result, String key) {
+        // encoded once for each format
+        var frames = new Frames(result);
 
-            try {
-                synchronized (MUTEX) {
-                    session.sendMessage(new TextMessage(gson.toJson(result)));
-                }
-            } catch (Throwable t) {
-                removeClient(session.getId());
-                websocketLogger.error("Error update client, session id = " + session.getId()
-                    + ", " + RdLogger.self().getDescription(t));
-            }
+        for (var session : sessions.values()) {
+            updateClient(session, frames.get(session), key);
         }
     }
 
     private void updateClient(WebSocketSession session, SocketResult result) {
-        try {
-            synchronized (MUTEX) {
-                session.sendMessage(new TextMessage(gson.toJson(result)));
-            }
-        } catch (Throwable t) {
-            removeClient(session.getId());
-            websocketLogger.error("Error update client, session id = " + session.getId()
-                + ", " + RdLogger.self().getDescription(t));
-        }
-
+        updateClient(session, new Frames(result).get(session), null);
     }
 
     private void updateClient(WebSocketSession session, byte[] result) {
-        try {
-            synchronized (MUTEX) {
-                session.sendMessage(new BinaryMessage(result));
-            }
-        } catch (Throwable t) {
-            removeClient(session.getId());
-            websocketLogger.error("Error update client, session id = " + session.getId()
-                + ", " + RdLogger.self().getDescription(t));
-        }
+        updateClient(session, new BinaryMessage(result), null);
     }
 
+    /** queues the message of the session, the slow clients are disconnected by their queues */
+    private void updateClient(WebSocketSession session, WebSocketMessage<?> message, String key) {
+        var outbound = outbounds.get(session.getId());
+        if (outbound != null) outbound.send(message, key);
+    }
+
+    /**
+     * drops the queue of the failed session, the session is already closed by it,
+     * the login and the matches are cleaned by afterConnectionClosed
+     * */
     private void removeClient(String sessionId) {
-        sessions.remove(sessionId);
-        var account = logins.remove(sessionId);
-        if (account == null) return;
-        for (var match : gamesController.getGames()) {
-            if (match.getId() == account.getId()) {
-                gamesController.disconnect(account.getId(), match.getId());
-            }
-        }
+        var outbound = outbounds.remove(sessionId);
+        if (outbound != null) outbound.close();
     }
 
     private void updateOnline(Account account) {
@@ -696,74 +862,170 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
         }
     }
 
+    /**
+     * sends the changes of the match since the previous version to the entered players at once,
+     * the spectators get them from their own thread, nothing if the match is not changed
+     * */
     private void updateEnteredUsers(long matchId, SocketRequest req) {
-        var match = gamesController.getMatch(matchId);
-        if (match.getKey() != RequestStatus.DONE) {
-            websocketLogger.error("match not found to update entered, matchId = " + match);
-            return;
+        var delta = gamesController.getDelta(matchId);
+        if (delta == null) return;
+
+        var deltaRequest = new SocketRequest("/api/v1/games/delta");
+        deltaRequest.setSenderId(req.getSenderId());
+        // encoded once for all sessions
+        var frames = new Frames(new SocketResult(RequestStatus.UPDATE_FROM_SERVER, deltaRequest, delta));
+
+        for (long id : gamesController.getEnteredPlayers(matchId)) {
+            var sessions = getSession(id);
+            if (sessions.isEmpty()) {
+                gamesController.disconnect(id, matchId);
+            }
+
+            for (var session : sessions) {
+                updateClient(session, frames.get(session), null);
+            }
         }
 
-        for (var id : match.getValue().getEntered()) {
+        spectatorFanout.execute(() -> {
+            try {
+                updateSpectators(matchId, deltaRequest);
+            } catch (Throwable t) {
+                websocketLogger.error("updateSpectators - " + RdLogger.self().getDescription(t));
+            }
+        });
+    }
+
+    /**
+     * sends the changes since the version of the spectators to their sessions,
+     * the waiting changes of a match are sent together by the first of them
+     * */
+    private void updateSpectators(long matchId, SocketRequest deltaRequest) {
+        var delta = gamesController.getSpectatorDelta(matchId, SPECTATOR_CLOCK_TIME);
+        if (delta == null) return;
+        var watchers = gamesController.getWatcherIds(matchId);
+        if (watchers.isEmpty()) return;
+
+        var frames = new Frames(new SocketResult(RequestStatus.UPDATE_FROM_SERVER, deltaRequest, delta));
+        for (long id : watchers) {
             var sessions = getSession(id);
             if (sessions.isEmpty()) {
                 gamesController.disconnect(id, matchId);
             }
 
             for (var session : sessions) {
-                updateClient(session, new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
-                        gson.toJson(match.getValue()), req));
+                updateClient(session, frames.get(session), null);
             }
         }
+    }
 
+    /** sends the started match of the queue to the sessions of both players, they enter it as usual */
+    private void updatePaired(Match match) {
+        var frames = new Frames(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
+            new SocketRequest("/api/v1/games/queue"), match));
+        for (long id : new long[]{match.getWhitePlayerId(), match.getBlackPlayerId()}) {
+            for (var session : getSession(id)) {
+                updateClient(session, frames.get(session), null);
+            }
+        }
     }
 
-    public List<WebSocketSession> getSession(long accountId) {
-        return logins.entrySet().stream()
-                .filter(entry -> entry.getValue().getId() == accountId)
-                .map(entry -> sessions.get(entry.getKey()))
-                .collect(Collectors.toList());
+    /** sends the changed match of the list of matches to all clients */
+    private void updateGamesList(long matchId, SocketRequest req) {
+        var match = gamesController.getMatch(matchId);
+        if (match.getKey() != RequestStatus.DONE) return;
+        updateGamesList(match.getValue(), req);
     }
 
-    private void updateMainChatForClients(SocketRequest socketRequest) {
-        var pair = mainChatController.readAll();
-        updateOnline(pair.getValue().values());
-        updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
-                gson.toJson(pair), socketRequest));
+    /** @param match the match or its JSON */
+    private void updateGamesList(Object match, SocketRequest req) {
+        var listRequest = new SocketRequest("/api/v1/games/listUpdate");
+        listRequest.setSenderId(req.getSenderId());
+        // the clocks and the players of a match in the list, only the newest is needed
+        updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER, listRequest, match),
+            match instanceof Match ? getListKey(((Match) match).getId()) : null);
     }
 
-    private void launchParallel() {
+    /** removes the match from the list of matches of all clients */
+    private void removeFromGamesList(long matchId, SocketRequest req) {
+        var listRequest = new SocketRequest("/api/v1/games/listRemove");
+        listRequest.setSenderId(req.getSenderId());
+        updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER, String.valueOf(matchId), listRequest),
+            getListKey(matchId));
+    }
 
-        service.execute(() -> {
+    /** the removal and the updates of a match in the list replace each other */
+    private String getListKey(long matchId) {
+        return "/api/v1/games/list/" + matchId;
+    }
 
-            long lastUpdateAccounts = -1, lastUpdateMainChat = -1;
-            while (true) {
+    /** returns the logged in sessions of the account by the index of the logins */
+    public List<WebSocketSession> getSession(long accountId) {
+        List<WebSocketSession> result = new ArrayList<>();
+        for (String sessionId : accountSessions.getOrDefault(accountId, Collections.emptySet())) {
+            var session = sessions.get(sessionId);
+            if (session != null) result.add(session);
+        }
+        return result;
+    }
 
-                try {
+    private void addLogin(String sessionId, Account account) {
+        logins.put(sessionId, account);
+        accountSessions.compute(account.getId(), (id, ids) -> {
+            if (ids == null) ids = ConcurrentHashMap.newKeySet();
+            ids.add(sessionId);
+            return ids;
+        });
+    }
 
-                    // updates the state of the matches
-                    // synchronized
-                    // 700 milliseconds sleep
-                    gamesController.updateGames();
+    private Account removeLogin(String sessionId) {
+        var account = logins.remove(sessionId);
+        if (account != null) {
+            accountSessions.computeIfPresent(account.getId(), (id, ids) -> {
+                ids.remove(sessionId);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+        return account;
+    }
 
-                    // every 30 minutes
-                    if (System.currentTimeMillis() - lastUpdateAccounts > ACCOUNT_UPDATE_TIME) {
-                        accountController.update();
-                        lastUpdateAccounts = System.currentTimeMillis();
-                    }
+    private void updateMainChatForClients(SocketRequest socketRequest) {
+        var pair = mainChatController.readAll();
+        updateOnline(pair.getValue().values());
+        updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER, socketRequest, pair),
+            "/api/v1/mainChat/readAll");
+    }
 
-                    // every 1 minute
-                    if (System.currentTimeMillis() - lastUpdateMainChat > MAIN_CHAT_UPDATE_TIME) {
-                        mainChatController.update();
-                        lastUpdateMainChat = System.currentTimeMillis();
-                    }
+    private void launchParallel() {
 
-                } catch (Throwable t) {
-                    websocketLogger.error("launchParallel - " + RdLogger.self().getDescription(t));
-                }
+        // deletes the completed and inactive matches
+        scheduleMaintenance(gamesController::updateGames, GAMES_UPDATE_TIME);
+        // writes the ranks of the finished matches in one batch
+        scheduleMaintenance(accountController::flushRanks, RANKS_FLUSH_TIME);
+        // archives old messages of the main chat
+        scheduleMaintenance(mainChatController::update, MAIN_CHAT_UPDATE_TIME);
+        // the clocks of the running matches survive a restart
+        scheduleMaintenance(gamesController::journalClocks, JOURNAL_CLOCKS_TIME);
+        // drops the finished and removed matches from the journal
+        scheduleMaintenance(gamesController::compactJournal, JOURNAL_COMPACT_TIME);
+        // writes the finished games to the archive in one batch
+        scheduleMaintenance(gamesController::flushArchive, ARCHIVE_FLUSH_TIME);
+        // pairs the waiting players as their search windows widen
+        scheduleMaintenance(gamesController::updateQueues, QUEUES_UPDATE_TIME);
+    }
 
+    private void scheduleMaintenance(Runnable task, long periodMillis) {
+        maintenance.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                websocketLogger.error("launchParallel - " + RdLogger.self().getDescription(t));
             }
-        });
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
 
+    /** the games of a player are read by all, the games of all players only by the moderators */
+    private boolean canReadArchive(Account account, long playerId) {
+        return playerId != -1 || account.getType().ordinal() >= AccountType.MODERATOR.ordinal();
     }
 
     private void updateEnteredSessions(long accId, long matchId, String sessionId) {
@@ -790,8 +1052,8 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
     private void updateMainLobbyForClients() {
         List<LobbyMessage> lobby = mainChatController.readMainLobby();
         lobby.add(0, new LobbyMessage(-1, -1, String.valueOf(getOnline())));
-        updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER, gson.toJson(lobby),
-            new SocketRequest("/api/v1/mainChat/sendLobby")));
+        updateClients(new SocketResult(RequestStatus.UPDATE_FROM_SERVER,
+            new SocketRequest("/api/v1/mainChat/sendLobby"), lobby), "/api/v1/mainChat/readLobby");
     }
 
     private int getOnline() {
@@ -814,13 +1076,42 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
     }
 
     private List<Account> getLoginAccounts(List<Long> ids) {
+        Set<Long> entered = new HashSet<>(ids);
         List<Account> accounts = new ArrayList<>();
         for (Account account : logins.values()) {
-            if (ids.contains(account.getId())) {
+            if (entered.contains(account.getId())) {
                 accounts.add(account);
             }
 
         }
         return accounts;
     }
+
+    /** the messages of a result in the format of each session, each format is encoded once */
+    private final class Frames {
+
+        private final SocketResult result;
+        private TextMessage text;
+        /** the buffer of a binary message is consumed by sending, each session gets its own */
+        private byte[] binary;
+
+        private Frames(SocketResult result) {
+            this.result = result;
+        }
+
+        private synchronized WebSocketMessage<?> get(WebSocketSession session) {
+            if (binarySessions.contains(session.getId())) {
+                if (binary == null) binary = WireProtocol.encodeResult(result);
+                return new BinaryMessage(binary);
+            }
+
+            if (text == null) {
+                // the value is the result of JSON
+                var json = result.getValue() == null ? result : new SocketResult(result.getStatus(),
+                    gson.toJson(result.getValue()), null, result.getRequest(), result.getId());
+                text = new TextMessage(gson.toJson(json));
+            }
+            return text;
+        }
+    }
 }
@@ -5,95 +5,137 @@ import com.iapp.lib.util.Pair;
 import com.iapp.lib.web.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Account database management
  * @author Igor Ivanov
+ * The ready accounts are cached and read through, any change of an account invalidates it.
+ * The coins and ranks of the finished matches are written behind in batches.
+ * The tops are read from the leaderboards, which are loaded once and changed with each rank
  * */
 @Component
-public class AccountDAO {
+public class AccountDAO implements InitializingBean, DisposableBean {
 
     private static final Logger accountLogger = LoggerFactory.getLogger(AccountDAO.class);
 
+    /** the columns of AccountMapper, without the avatar, logins and punishments */
+    private static final String COLUMNS = "id, name, username, password, country, gender, quote,"
+        + " datebirth, type, coins, bullet, blitz, rapid, long, created";
+    /** the columns of AccountSummaryMapper, the ready account without the avatar */
+    private static final String SUMMARY_COLUMNS = COLUMNS + ", logins, punishments";
+    private static final int CACHE_SIZE = 10_000;
+    /** the cached accounts are reloaded after this time, in case the database is changed directly */
+    private static final long CACHE_TIME = 10 * 60 * 1000;
+    private static final String RANKS_UPDATE =
+        "UPDATE Account SET coins=?, bullet=?, blitz=?, rapid=?, long=? WHERE id=?";
+    /** the number of the accounts in a top */
+    private static final int TOP_SIZE = 50;
+    /** the rank of a new account */
+    private static final double START_RANK = 1_000;
+
     private final MetaDAO metaDAO;
     private final JdbcTemplate jdbcTemplate;
     private final BCryptPasswordEncoder cipher;
 
-    /** top lists in different rank modes */
-    private volatile List<Account> bulletTop = new ArrayList<>();
-    private volatile List<Account> blitzTop = new ArrayList<>();
-    private volatile List<Account> rapidTop = new ArrayList<>();
-    private volatile List<Account> longTop = new ArrayList<>();
+    /** the accounts by their places in the rank modes, without UNRANKED */
+    private final Map<RankType, Leaderboard> leaderboards = new EnumMap<>(RankType.class);
+
+    /** account id -> the time of loading and the ready account, never given out, only its copies */
+    private final Map<Long, Pair<Long, Account>> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Pair<Long, Account>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    /** incremented by each invalidation, a loading started before it is not cached */
+    private final AtomicLong invalidations = new AtomicLong();
 
-    public AccountDAO(JdbcTemplate jdbcTemplate) {
-        metaDAO = new MetaDAO(jdbcTemplate);
+    /** account id -> the coins and ranks not written yet, guarded by writeLock */
+    private final Map<Long, Account> pendingRanks = new LinkedHashMap<>();
+    /** the writes of the coins and ranks are ordered by this lock */
+    private final Object writeLock = new Object();
+
+    public AccountDAO(JdbcTemplate jdbcTemplate, MetaDAO metaDAO) {
+        this.metaDAO = metaDAO;
         this.jdbcTemplate = jdbcTemplate;
         cipher = new BCryptPasswordEncoder(12);
     }
 
-    /**
-     * update all tops from the database
-     * */
-    public void updateTop() {
-
-        bulletTop = jdbcTemplate.query("SELECT * FROM account ORDER BY bullet DESC FETCH FIRST 50 ROWS WITH TIES",
-                new AccountMapper());
-
-        blitzTop = jdbcTemplate.query("SELECT * FROM account ORDER BY blitz DESC FETCH FIRST 50 ROWS WITH TIES",
-                new AccountMapper());
-
-        rapidTop = jdbcTemplate.query("SELECT * FROM account ORDER BY rapid DESC FETCH FIRST 50 ROWS WITH TIES",
-                new AccountMapper());
+    /** loads the ranks of all accounts to the leaderboards, by one scan without the large columns */
+    @Override
+    public void afterPropertiesSet() {
+        for (RankType rankType : RankType.values()) {
+            if (rankType != RankType.UNRANKED) leaderboards.put(rankType, new Leaderboard());
+        }
 
-        longTop = jdbcTemplate.query("SELECT * FROM account ORDER BY long DESC FETCH FIRST 50 ROWS WITH TIES",
-                new AccountMapper());
+        List<Long> ids = new ArrayList<>();
+        List<double[]> rows = new ArrayList<>();
+        jdbcTemplate.query("SELECT id, bullet, blitz, rapid, long FROM Account", rs -> {
+            ids.add(rs.getLong("id"));
+            rows.add(new double[] {rs.getDouble("bullet"), rs.getDouble("blitz"),
+                rs.getDouble("rapid"), rs.getDouble("long")});
+        });
+
+        long[] loaded = new long[ids.size()];
+        for (int i = 0; i < loaded.length; i++) loaded[i] = ids.get(i);
+        RankType[] columns = {RankType.BULLET, RankType.BLITZ, RankType.RAPID, RankType.LONG};
+        for (int column = 0; column < columns.length; column++) {
+            double[] ranks = new double[loaded.length];
+            for (int i = 0; i < loaded.length; i++) ranks[i] = rows.get(i)[column];
+            leaderboards.get(columns[column]).load(loaded, ranks);
+        }
+        accountLogger.info("Loaded leaderboards, accounts = " + leaderboards.get(RankType.BULLET).size());
     }
 
-    /**
-     * Get the latest updated bullet mode top
-     * @see AccountDAO#updateTop()
-     * */
+    /** Get the current bullet mode top */
     public Pair<RequestStatus, List<Account>> getBulletTop() {
-        RequestStatus status = updateAccounts(bulletTop);
-        if (status != RequestStatus.DONE) return new Pair<>(status, null);
-        return new Pair<>(RequestStatus.DONE, bulletTop);
+        return getTop(RankType.BULLET, 1, TOP_SIZE);
     }
 
-    /**
-     * Get the latest updated blitz mode top
-     * @see AccountDAO#updateTop()
-     * */
+    /** Get the current blitz mode top */
     public Pair<RequestStatus, List<Account>> getBlitzTop() {
-        RequestStatus status = updateAccounts(blitzTop);
-        if (status != RequestStatus.DONE) return new Pair<>(status, null);
-        return new Pair<>(RequestStatus.DONE, blitzTop);
+        return getTop(RankType.BLITZ, 1, TOP_SIZE);
     }
 
-    /**
-     * Get the latest updated rapid mode top
-     * @see AccountDAO#updateTop()
-     * */
+    /** Get the current rapid mode top */
     public Pair<RequestStatus, List<Account>> getRapidTop() {
-        RequestStatus status = updateAccounts(rapidTop);
-        if (status != RequestStatus.DONE) return new Pair<>(status, null);
-        return new Pair<>(RequestStatus.DONE, rapidTop);
+        return getTop(RankType.RAPID, 1, TOP_SIZE);
+    }
+
+    /** Get the current long mode top */
+    public Pair<RequestStatus, List<Account>> getLongTop() {
+        return getTop(RankType.LONG, 1, TOP_SIZE);
     }
 
     /**
-     * Get the latest updated long mode top
-     * @see AccountDAO#updateTop()
+     * returns the place of the account in the rank mode from 1 and the accounts around it,
+     * the first of them is at the place - count or at the first place
+     * RequestStatus.NOT_FOUND - if there is no such account or the mode has no places
      * */
-    public Pair<RequestStatus, List<Account>> getLongTop() {
-        RequestStatus status = updateAccounts(longTop);
-        if (status != RequestStatus.DONE) return new Pair<>(status, null);
-        return new Pair<>(RequestStatus.DONE, longTop);
+    public Pair<RequestStatus, Pair<Long, List<Account>>> getPlace(RankType rankType, long id, int count) {
+        Leaderboard leaderboard = leaderboards.get(rankType);
+        long place = leaderboard != null ? leaderboard.getPlace(id) : -1;
+        if (place == -1) return new Pair<>(RequestStatus.NOT_FOUND, null);
+
+        long from = Math.max(1, place - count);
+        var around = getTop(rankType, from, (int) (place - from) + count + 1);
+        return new Pair<>(RequestStatus.DONE, new Pair<>(place, around.getValue()));
     }
 
     /**
@@ -101,11 +143,9 @@ public class AccountDAO {
      * contains an argument
      * */
     public Pair<RequestStatus, List<Account>> searchAccounts(String partName) {
-        List<Account> searched = jdbcTemplate.query("SELECT * FROM account WHERE username LIKE "
-                + String.format("'%%%s%%'", partName), new AccountMapper());
-        RequestStatus status = updateAccounts(searched);
-        if (status != RequestStatus.DONE) return new Pair<>(status, null);
-        return new Pair<>(status, searched);
+        List<Account> searched = jdbcTemplate.query("SELECT " + SUMMARY_COLUMNS + " FROM account WHERE username LIKE ?",
+                new AccountSummaryMapper(), "%" + partName + "%");
+        return new Pair<>(RequestStatus.DONE, searched);
     }
 
     /**
@@ -113,11 +153,24 @@ public class AccountDAO {
      * RequestStatus.DONE - if successful and value != null
      * */
     public Pair<RequestStatus, byte[]> getAvatar(long id) {
-        List<byte[]> result = metaDAO.getAvatar(id);
-        if (DataChecks.isBadList(result)) {
-            return new Pair<>(DataChecks.getBadStatus(result), null);
+        return metaDAO.getAvatar(id, false);
+    }
+
+    /**
+     * returns the avatar hash and the avatar or its thumbnail in the pair value,
+     * the avatar is null if the client already has the avatar with this hash
+     * @param knownHash - the hash of the avatar cached by the client, null if there is none
+     * */
+    public Pair<RequestStatus, Pair<String, byte[]>> getAvatar(long id, boolean thumbnail, String knownHash) {
+        Pair<RequestStatus, String> hash = metaDAO.getAvatarHash(id);
+        if (hash.getKey() != RequestStatus.DONE) return new Pair<>(hash.getKey(), null);
+        if (hash.getValue() != null && hash.getValue().equals(knownHash)) {
+            return new Pair<>(RequestStatus.DONE, new Pair<>(knownHash, null));
         }
-        return new Pair<>(RequestStatus.DONE, result.get(0));
+
+        Pair<RequestStatus, byte[]> avatar = metaDAO.getAvatar(hash.getValue(), thumbnail);
+        if (avatar.getKey() != RequestStatus.DONE) return new Pair<>(avatar.getKey(), null);
+        return new Pair<>(RequestStatus.DONE, new Pair<>(hash.getValue(), avatar.getValue()));
     }
 
     /**
@@ -142,7 +195,9 @@ public class AccountDAO {
             return RequestStatus.DENIED;
         }
 
-        return metaDAO.addPunishment(account.getId(), punishment);
+        RequestStatus status = metaDAO.addPunishment(account.getId(), punishment);
+        invalidate(account.getId());
+        return status;
     }
 
     /**
@@ -157,6 +212,7 @@ public class AccountDAO {
         if (!cipher.matches(password, account.getPassword())) return new Pair<>(RequestStatus.DENIED, null);
 
         RequestStatus status = metaDAO.addLogin(account.getId(), login);
+        invalidate(account.getId());
         if (status != RequestStatus.DONE) return new Pair<>(status, null);
 
         return getAccount(account.getId());
@@ -173,11 +229,96 @@ public class AccountDAO {
 
     /**
      * @param id - accountId
-     * returns a ready account
+     * returns a ready account, a copy of the cached one
      * */
     public Pair<RequestStatus, Account> getAccount(long id) {
-        List<Account> accounts = getServerAccount(id);
-        return updateGettingAccount(accounts);
+        Account account = getAccounts(List.of(id)).get(id);
+        if (account == null) return new Pair<>(RequestStatus.NOT_FOUND, null);
+        return new Pair<>(RequestStatus.DONE, account);
+    }
+
+    /**
+     * returns the ready accounts by ids, copies of the cached ones,
+     * all the others are loaded by one query
+     * @param ids - account ids, may repeat
+     * @return account id -> account, the not found ids are absent
+     * */
+    public Map<Long, Account> getAccounts(Collection<Long> ids) {
+        Map<Long, Account> accounts = new HashMap<>();
+        Set<Long> missed = new LinkedHashSet<>();
+        synchronized (cache) {
+            long now = System.currentTimeMillis();
+            for (long id : ids) {
+                if (accounts.containsKey(id)) continue;
+                Pair<Long, Account> cached = cache.get(id);
+                if (cached != null && now - cached.getKey() <= CACHE_TIME) {
+                    accounts.put(id, new Account(cached.getValue()));
+                } else {
+                    missed.add(id);
+                }
+            }
+        }
+        if (missed.isEmpty()) return accounts;
+
+        long version = invalidations.get();
+        List<Account> loaded = jdbcTemplate.query("SELECT " + SUMMARY_COLUMNS + " FROM Account WHERE id = ANY(?)",
+            ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", missed.toArray())),
+            new AccountSummaryMapper());
+
+        synchronized (writeLock) {
+            // the database is behind the finished matches
+            for (Account account : loaded) {
+                Account pending = pendingRanks.get(account.getId());
+                if (pending != null) copyRanks(pending, account);
+            }
+        }
+        synchronized (cache) {
+            boolean actual = version == invalidations.get();
+            long now = System.currentTimeMillis();
+            for (Account account : loaded) {
+                if (actual) cache.put(account.getId(), new Pair<>(now, new Account(account)));
+                accounts.put(account.getId(), account);
+            }
+        }
+        return accounts;
+    }
+
+    /**
+     * updates the coins and ranks after a match, the cache at once and the database
+     * with the next flush
+     * @see AccountDAO#flushRanks()
+     * */
+    public void updateRanks(Account account) {
+        synchronized (writeLock) {
+            pendingRanks.put(account.getId(), new Account(account));
+        }
+        updateLeaderboards(account);
+        synchronized (cache) {
+            // a loading in progress may have missed the pending ranks
+            invalidations.incrementAndGet();
+            Pair<Long, Account> cached = cache.get(account.getId());
+            if (cached != null) copyRanks(account, cached.getValue());
+        }
+    }
+
+    /** writes the pending coins and ranks in one batch */
+    public void flushRanks() {
+        synchronized (writeLock) {
+            if (pendingRanks.isEmpty()) return;
+
+            List<Object[]> batch = new ArrayList<>();
+            for (Account account : pendingRanks.values()) batch.add(getRanksArgs(account));
+            // the pending ranks are kept if the batch fails, the next flush repeats it
+            jdbcTemplate.batchUpdate(RANKS_UPDATE, batch);
+            pendingRanks.clear();
+            // a loading may have read the rows before the batch and find no pending ranks now
+            invalidations.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flushRanks();
     }
 
     /**
@@ -199,7 +340,7 @@ public class AccountDAO {
                 "", Gender.ND.toString(), "", 0,
                 AccountType.USER.toString(), 100, 1_000, 1_000,
                 1_000, 1_000, new byte[0], "[]", "[]", System.currentTimeMillis());
-
+        for (Leaderboard leaderboard : leaderboards.values()) leaderboard.put(newId, START_RANK);
 
         return RequestStatus.DONE;
     }
@@ -209,6 +350,15 @@ public class AccountDAO {
      * @param account - updated account
      * */
     public void updateServerAccount(Account account) {
+        synchronized (writeLock) {
+            flushRanks(account.getId());
+            writeServerAccount(account);
+        }
+        updateLeaderboards(account);
+        invalidate(account.getId());
+    }
+
+    private void writeServerAccount(Account account) {
         jdbcTemplate.update(
                 "UPDATE Account SET coins=?, bullet=?, blitz=?, rapid=?, long=?, name=?, username=?," +
                         " country=?, gender=?, quote=?, datebirth=? WHERE id=?",
@@ -239,6 +389,22 @@ public class AccountDAO {
         List<Account> found = getServerAccount(account.getId());
         if (DataChecks.isBadList(found)) return DataChecks.getBadStatus(found);
 
+        RequestStatus status;
+        synchronized (writeLock) {
+            // the pending ranks are older than the changes
+            flushRanks(account.getId());
+            status = writeAccount(account, sender, self);
+        }
+        // the ranks are written only by some roles
+        if (status == RequestStatus.DONE) {
+            List<Account> written = getServerAccount(account.getId());
+            if (!written.isEmpty()) updateLeaderboards(written.get(0));
+        }
+        invalidate(account.getId());
+        return status;
+    }
+
+    private RequestStatus writeAccount(Account account, AccountType sender, boolean self) {
         if (sender == AccountType.DEVELOPER) {
 
             if (self) {
@@ -371,6 +537,7 @@ public class AccountDAO {
             Punishment punishment = list.get(0);
             if (punishment.getId() == punishmentId) {
                 punishment.setActive(false);
+                invalidate(punishable.getId());
                 return RequestStatus.DONE;
             }
         }
@@ -383,6 +550,7 @@ public class AccountDAO {
             return RequestStatus.DENIED;
         }
         metaDAO.addPunishment(punishable.getId(), punishment);
+        invalidate(punishable.getId());
 
         return RequestStatus.DONE;
     }
@@ -394,7 +562,7 @@ public class AccountDAO {
      * @param name - account name
      * */
     public List<Account> getServerAccount(String name) {
-        return jdbcTemplate.query("SELECT * FROM ACCOUNT WHERE name=?",
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM ACCOUNT WHERE name=?",
             new Object[]{name}, new AccountMapper());
     }
 
@@ -405,58 +573,70 @@ public class AccountDAO {
      * @param id - account id
      * */
     public List<Account> getServerAccount(long id) {
-        return jdbcTemplate.query("SELECT * FROM ACCOUNT WHERE id=?",
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM ACCOUNT WHERE id=?",
             new Object[]{id}, new AccountMapper());
     }
 
     private long getNewID() {
-        return jdbcTemplate.query("SELECT * FROM Account ORDER BY id DESC LIMIT 1", new AccountMapper())
-                .stream().map(Account::getId).findFirst().orElse(-1L) + 1;
+        return jdbcTemplate.query("SELECT id FROM Account ORDER BY id DESC LIMIT 1",
+                (rs, rowNum) -> rs.getLong("id")).stream().findFirst().orElse(-1L) + 1;
     }
 
-    private Pair<RequestStatus, Account> updateGettingAccount(List<Account> accounts) {
-        if (DataChecks.isBadList(accounts)) return new Pair<>(DataChecks.getBadStatus(accounts), null);
-        Account account = accounts.get(0);
-
-        Pair<RequestStatus, Login> lastLogin = metaDAO.getLastLogin(account.getId());
-        if (lastLogin.getKey() != RequestStatus.DONE) return new Pair<>(lastLogin.getKey(), null);
-        Pair<RequestStatus, Set<Flag>> flags = metaDAO.getFlags(account.getId());
-        if (flags.getKey() != RequestStatus.DONE) return new Pair<>(flags.getKey(), null);
-
-        account.setLogin(lastLogin.getValue());
-        account.getFlags().addAll(flags.getValue());
-        account.setPassword("");
+    /** forgets the cached account, the next getting loads it */
+    private void invalidate(long id) {
+        synchronized (cache) {
+            invalidations.incrementAndGet();
+            cache.remove(id);
+        }
+    }
 
-        return new Pair<>(RequestStatus.DONE, account);
+    /** writes the pending ranks of the account, under writeLock */
+    private void flushRanks(long id) {
+        Account pending = pendingRanks.get(id);
+        if (pending == null) return;
+        jdbcTemplate.update(RANKS_UPDATE, getRanksArgs(pending));
+        pendingRanks.remove(id);
     }
 
-    private RequestStatus updateAccounts(List<Account> accounts) {
-        for (Account account : accounts) {
-            RequestStatus status = updateAccount(account);
-            if (status != RequestStatus.DONE) {
-                return status;
-            }
-        }
-        return RequestStatus.DONE;
+    private Object[] getRanksArgs(Account account) {
+        return new Object[] {account.getCoins(), account.getBullet(), account.getBlitz(),
+            account.getRapid(), account.getLongRank(), account.getId()};
     }
 
-    private RequestStatus updateAccount(Account account) {
-        Pair<RequestStatus, Login> lastLogin = metaDAO.getLastLogin(account.getId());
-        if (lastLogin.getKey() != RequestStatus.DONE) return lastLogin.getKey();
-        Pair<RequestStatus, Set<Flag>> flags = metaDAO.getFlags(account.getId());
-        if (flags.getKey() != RequestStatus.DONE) return flags.getKey();
+    private void copyRanks(Account from, Account to) {
+        to.setCoins(from.getCoins());
+        to.setBullet(from.getBullet());
+        to.setBlitz(from.getBlitz());
+        to.setRapid(from.getRapid());
+        to.setLongRank(from.getLongRank());
+    }
 
-        account.setLogin(lastLogin.getValue());
-        account.getFlags().clear();
-        account.getFlags().addAll(flags.getValue());
-        account.setPassword("");
+    private void updateLeaderboards(Account account) {
+        leaderboards.get(RankType.BULLET).put(account.getId(), account.getBullet());
+        leaderboards.get(RankType.BLITZ).put(account.getId(), account.getBlitz());
+        leaderboards.get(RankType.RAPID).put(account.getId(), account.getRapid());
+        leaderboards.get(RankType.LONG).put(account.getId(), account.getLongRank());
+    }
 
-        return RequestStatus.DONE;
+    /**
+     * the ready accounts from the place in the order of the leaderboard,
+     * which are read in one batch
+     * */
+    private Pair<RequestStatus, List<Account>> getTop(RankType rankType, long fromPlace, int count) {
+        List<Long> ids = leaderboards.get(rankType).getIds(fromPlace, count);
+        Map<Long, Account> found = getAccounts(ids);
+
+        List<Account> top = new ArrayList<>();
+        for (long id : ids) {
+            Account account = found.get(id);
+            if (account != null) top.add(account);
+        }
+        return new Pair<>(RequestStatus.DONE, top);
     }
 
     private boolean containsName(String name) {
-        List<Account> accounts = jdbcTemplate.query("SELECT * FROM ACCOUNT WHERE name=?",
-                new Object[]{name}, new AccountMapper());
+        List<Long> accounts = jdbcTemplate.query("SELECT id FROM ACCOUNT WHERE name=?",
+                new Object[]{name}, (rs, rowNum) -> rs.getLong("id"));
         return !accounts.isEmpty();
     }
 
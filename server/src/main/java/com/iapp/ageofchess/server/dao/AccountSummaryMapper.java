@@ -0,0 +1,43 @@
+package com.iapp.ageofchess.server.dao;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.iapp.lib.web.Account;
+import com.iapp.lib.web.Login;
+import com.iapp.lib.web.Punishment;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.lang.reflect.Type;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * converts the database representation of an account into a ready account,
+ * with the last login and the flags, without the password
+ * Doesn't take into account avatar, the logins and punishments columns are required
+ * */
+public class AccountSummaryMapper implements RowMapper<Account> {
+
+    private static final Type LOGINS = new TypeToken<List<Login>>() {}.getType();
+    private static final Type PUNISHMENTS = new TypeToken<List<Punishment>>() {}.getType();
+
+    private final AccountMapper accountMapper = new AccountMapper();
+    private final Gson gson = new Gson();
+
+    @Override
+    public Account mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Account account = accountMapper.mapRow(rs, rowNum);
+
+        List<Login> logins = gson.fromJson(rs.getString("logins"), LOGINS);
+        if (logins != null && !logins.isEmpty()) account.setLogin(logins.get(logins.size() - 1));
+
+        List<Punishment> punishments = gson.fromJson(rs.getString("punishments"), PUNISHMENTS);
+        if (punishments != null) {
+            for (Punishment punishment : punishments) account.getFlags().add(punishment.getType());
+        }
+        account.setPassword("");
+
+        return account;
+    }
+}
@@ -0,0 +1,34 @@
+package com.iapp.ageofchess.server.dao;
+
+import com.iapp.ageofchess.multiplayer.ArchivedGame;
+import com.iapp.lib.chess_engine.Result;
+import com.iapp.lib.web.RankType;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * completely converts the archived game representation
+ * from the database to an object, the moves are unpacked
+ * */
+public class ArchivedGameMapper implements RowMapper<ArchivedGame> {
+
+    @Override
+    public ArchivedGame mapRow(ResultSet rs, int rowNum) throws SQLException {
+        ArchivedGame game = new ArchivedGame();
+
+        game.setId(rs.getLong("id"));
+        game.setWhitePlayerId(rs.getLong("white_id"));
+        game.setBlackPlayerId(rs.getLong("black_id"));
+        game.setRankType(RankType.values()[rs.getShort("rank_type")]);
+        game.setResult(Result.values()[rs.getShort("result")]);
+        game.setFinishTime(rs.getLong("finished"));
+        game.setRankPlus(rs.getFloat("rank_plus"));
+        game.setRankMinus(rs.getFloat("rank_minus"));
+        game.setStartFen(rs.getString("start_fen"));
+        game.setMoves(PackedMoves.unpack(rs.getBytes("moves")));
+
+        return game;
+    }
+}
@@ -0,0 +1,21 @@
+package com.iapp.ageofchess.server.dao;
+
+/**
+ * Storage of the avatars by the hash of their content,
+ * the same image is stored once for all accounts
+ * @author Igor Ivanov
+ * */
+public interface AvatarStore {
+
+    /**
+     * stores the avatar and its thumbnail, nothing is written again for a known avatar
+     * @return the content hash of the avatar
+     * */
+    String put(byte[] avatar, byte[] thumbnail);
+
+    /** returns the avatar, null if there is no such hash */
+    byte[] get(String hash);
+
+    /** returns the thumbnail of the avatar, null if there is no such hash */
+    byte[] getThumbnail(String hash);
+}
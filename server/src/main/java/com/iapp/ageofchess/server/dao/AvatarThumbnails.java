@@ -0,0 +1,71 @@
+package com.iapp.ageofchess.server.dao;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Makes the small copies of the avatars for the lists, the chat and the tops
+ * @author Igor Ivanov
+ * */
+final class AvatarThumbnails {
+
+    /** the maximum width and height of a thumbnail */
+    private static final int THUMBNAIL_SIZE = 96;
+    /** the maximum width and height of an avatar, a larger one is not decoded */
+    static final int MAX_AVATAR_SIZE = 4096;
+
+    private AvatarThumbnails() {}
+
+    /**
+     * returns a PNG no larger than THUMBNAIL_SIZE,
+     * the avatar itself if it is already small or is not a readable image,
+     * null if the image is larger than MAX_AVATAR_SIZE
+     * */
+    static byte[] create(byte[] avatar) {
+        BufferedImage image;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(avatar))) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) return avatar;
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                // the size is in the header, a small file may declare a huge image
+                if (reader.getWidth(0) > MAX_AVATAR_SIZE || reader.getHeight(0) > MAX_AVATAR_SIZE) return null;
+                image = reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return avatar;
+        }
+        if (image == null) return avatar;
+
+        int max = Math.max(image.getWidth(), image.getHeight());
+        if (max <= THUMBNAIL_SIZE) return avatar;
+
+        int width = Math.max(1, image.getWidth() * THUMBNAIL_SIZE / max);
+        int height = Math.max(1, image.getHeight() * THUMBNAIL_SIZE / max);
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = thumbnail.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+
+        var out = new ByteArrayOutputStream();
+        try {
+            if (!ImageIO.write(thumbnail, "png", out)) return avatar;
+        } catch (IOException e) {
+            return avatar;
+        }
+        return out.size() < avatar.length ? out.toByteArray() : avatar;
+    }
+}
@@ -0,0 +1,89 @@
+package com.iapp.ageofchess.server.dao;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Avatar store in the local file system
+ * @author Igor Ivanov
+ * The files are named by the SHA-256 of the avatar and spread
+ * over the directories by its first two characters: ab/abcdef..., ab/abcdef....thumb
+ * A file is written to a temporary one and moved, so a reader never sees a part of it
+ * */
+@Component
+public class FileAvatarStore implements AvatarStore {
+
+    private static final String THUMBNAIL = ".thumb";
+
+    private final Path root;
+
+    public FileAvatarStore(@Value("${avatars.path:avatars}") String path) {
+        root = Paths.get(path);
+    }
+
+    @Override
+    public String put(byte[] avatar, byte[] thumbnail) {
+        String hash = hash(avatar);
+        write(getPath(hash, ""), avatar);
+        write(getPath(hash, THUMBNAIL), thumbnail);
+        return hash;
+    }
+
+    @Override
+    public byte[] get(String hash) {
+        return read(getPath(hash, ""));
+    }
+
+    @Override
+    public byte[] getThumbnail(String hash) {
+        return read(getPath(hash, THUMBNAIL));
+    }
+
+    private Path getPath(String hash, String suffix) {
+        if (!hash.matches("[0-9a-f]{64}")) throw new IllegalArgumentException("incorrect avatar hash " + hash);
+        return root.resolve(hash.substring(0, 2)).resolve(hash + suffix);
+    }
+
+    private void write(Path path, byte[] data) {
+        if (Files.exists(path)) return;
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            Files.write(temp, data);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("error write avatar " + path, e);
+        }
+    }
+
+    private byte[] read(Path path) {
+        try {
+            return Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("error read avatar " + path, e);
+        }
+    }
+
+    private String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hash = new StringBuilder(digest.length * 2);
+            for (byte b : digest) hash.append(String.format("%02x", b));
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.iapp.ageofchess.server.dao;
+
+import com.iapp.ageofchess.multiplayer.ArchivedGame;
+import com.iapp.lib.web.RankType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Database management for the finished games
+ * @author Igor Ivanov
+ * A game is one small row, the moves are packed by 2 bytes and the standard start position is not stored.
+ * The games are written behind in batches, they are read by pages from the newest ones by the primary key,
+ * the ids are given by a sequence at the writing, so they grow with the finish time
+ * */
+@Component
+public class GameArchiveDAO implements InitializingBean, DisposableBean {
+
+    private static final Logger archiveLogger = LoggerFactory.getLogger(GameArchiveDAO.class);
+
+    private static final String COLUMNS =
+        "id, white_id, black_id, finished, rank_plus, rank_minus, rank_type, result, start_fen, moves";
+    private static final String INSERT = "INSERT INTO ArchivedGame (" + COLUMNS + ") VALUES"
+        + " (nextval('archived_game_id_seq'), ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    /** the number of games read by one query of an export */
+    private static final int EXPORT_PAGE = 200;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    /** the games not written yet, guarded by itself */
+    private final List<ArchivedGame> pending = new ArrayList<>();
+
+    public GameArchiveDAO(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * creates the table, its sequence and indexes if they are missing,
+     * the fixed size columns go first, so a row has no padding
+     * */
+    @Override
+    public void afterPropertiesSet() {
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS archived_game_id_seq");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS ArchivedGame ("
+            + "id BIGINT PRIMARY KEY, white_id BIGINT NOT NULL, black_id BIGINT NOT NULL, finished BIGINT NOT NULL,"
+            + " rank_plus REAL NOT NULL, rank_minus REAL NOT NULL, rank_type SMALLINT NOT NULL,"
+            + " result SMALLINT NOT NULL, start_fen TEXT, moves BYTEA NOT NULL)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS archived_game_white_idx ON ArchivedGame (white_id, id)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS archived_game_black_idx ON ArchivedGame (black_id, id)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS archived_game_rank_idx ON ArchivedGame (rank_type, id)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS archived_game_finished_idx ON ArchivedGame (finished)");
+    }
+
+    /**
+     * archives the finished game with the next flush
+     * @see GameArchiveDAO#flushGames()
+     * */
+    public void archive(ArchivedGame game) {
+        synchronized (pending) {
+            pending.add(game);
+        }
+    }
+
+    /**
+     * writes the pending games in one batch, the matches are not blocked by the writing.
+     * The batch is one transaction, so a failed one is repeated without the duplicates
+     * */
+    public void flushGames() {
+        List<ArchivedGame> games;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            games = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        List<Object[]> batch = new ArrayList<>();
+        for (ArchivedGame game : games) batch.add(getArgs(game));
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(INSERT, batch));
+        } catch (RuntimeException e) {
+            // the next flush repeats the games
+            synchronized (pending) {
+                pending.addAll(0, games);
+            }
+            throw e;
+        }
+        archiveLogger.info("archived games, count = " + games.size());
+    }
+
+    @Override
+    public void destroy() {
+        flushGames();
+    }
+
+    /**
+     * reads a page of the games of the player preceding the game, from new to old
+     * @param playerId - -1 for the games of all players
+     * @param rankType - null for all rank types
+     * @param beforeId - the id of the oldest game already read, exclusive
+     * */
+    public List<ArchivedGame> readGames(long playerId, RankType rankType, long beforeId, int limit) {
+        return readGames(playerId, rankType, 0, Long.MAX_VALUE, beforeId, limit);
+    }
+
+    /**
+     * reads the games finished in the time range by pages, from new to old,
+     * only one page is in memory at a time
+     * @param fromTime - inclusive
+     * @param toTime - exclusive
+     * @param maxGames - the maximum number of the games
+     * */
+    public void exportGames(long playerId, RankType rankType, long fromTime, long toTime,
+                            int maxGames, Consumer<List<ArchivedGame>> onPage) {
+        long beforeId = Long.MAX_VALUE;
+        int count = 0;
+        while (count < maxGames) {
+            var page = readGames(playerId, rankType, fromTime, toTime, beforeId,
+                Math.min(EXPORT_PAGE, maxGames - count));
+            if (page.isEmpty()) return;
+
+            onPage.accept(page);
+            count += page.size();
+            beforeId = page.get(page.size() - 1).getId();
+        }
+    }
+
+    /**
+     * the games of a player are the union of the white and black ones,
+     * each part is read by its own index in the order of the ids
+     * */
+    private List<ArchivedGame> readGames(long playerId, RankType rankType, long fromTime, long toTime,
+                                         long beforeId, int limit) {
+        String filter = "id < ? AND finished >= ? AND finished < ?" + (rankType != null ? " AND rank_type = ?" : "");
+        List<Object> filterArgs = new ArrayList<>(List.of(beforeId, fromTime, toTime));
+        if (rankType != null) filterArgs.add((short) rankType.ordinal());
+
+        if (playerId == -1) {
+            List<Object> args = new ArrayList<>(filterArgs);
+            args.add(limit);
+            return jdbcTemplate.query("SELECT " + COLUMNS + " FROM ArchivedGame WHERE " + filter
+                + " ORDER BY id DESC LIMIT ?", new ArchivedGameMapper(), args.toArray());
+        }
+
+        List<Object> args = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            args.add(playerId);
+            args.addAll(filterArgs);
+            args.add(limit);
+        }
+        args.add(limit);
+        return jdbcTemplate.query(
+            "(SELECT " + COLUMNS + " FROM ArchivedGame WHERE white_id = ? AND " + filter + " ORDER BY id DESC LIMIT ?)"
+                + " UNION ALL (SELECT " + COLUMNS + " FROM ArchivedGame WHERE black_id = ? AND " + filter
+                + " ORDER BY id DESC LIMIT ?) ORDER BY id DESC LIMIT ?",
+            new ArchivedGameMapper(), args.toArray());
+    }
+
+    private Object[] getArgs(ArchivedGame game) {
+        return new Object[]{game.getWhitePlayerId(), game.getBlackPlayerId(), game.getFinishTime(),
+            (float) game.getRankPlus(), (float) game.getRankMinus(),
+            (short) game.getRankType().ordinal(), (short) game.getResult().ordinal(),
+            game.getStartFen(), PackedMoves.pack(game.getMoves())};
+    }
+}
@@ -6,34 +6,138 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Optional;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Match database management
  * @author Igor Ivanov
- * All matches are stored in RAM
+ * All matches are stored in RAM, by id and in the indexes by creator, by player and by state.
+ * The lists are read from the live maps in the order of creation, without copying all matches
  * */
 @Component
 public class GamesDAO {
 
     private final JdbcTemplate jdbcTemplate;
     private final Gson gson;
-    /** list of all created matches */
-    private final List<Match> fastGames = new CopyOnWriteArrayList<>();
+    /** all created matches by id */
+    private final ConcurrentNavigableMap<Long, Match> games = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastId = new AtomicLong(1);
+
+    /** creator id -> ids of the matches */
+    private final Map<Long, NavigableSet<Long>> byCreator = new ConcurrentHashMap<>();
+    /** player id -> ids of the joined matches */
+    private final Map<Long, NavigableSet<Long>> byPlayer = new ConcurrentHashMap<>();
+    /** state -> ids of the matches */
+    private final Map<MatchState, NavigableSet<Long>> byState = new ConcurrentHashMap<>();
+    /** match id -> its keys in the indexes, to remove it from the old ones */
+    private final Map<Long, IndexKeys> indexed = new ConcurrentHashMap<>();
 
     @Autowired
     public GamesDAO(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
         gson = new Gson();
+        for (MatchState state : MatchState.values()) byState.put(state, new ConcurrentSkipListSet<>());
     }
 
     /** creates a match */
     public Match createGame(Match match) {
+        return putGame(lastId.incrementAndGet(), match);
+    }
+
+    /**
+     * creates the match again with its id after a restart,
+     * the new matches get the next ids
+     * */
+    public Match restoreGame(long id, Match match) {
+        lastId.accumulateAndGet(id, Math::max);
+        return putGame(id, match);
+    }
+
+    /**
+     * updates the indexes of the match,
+     * call after changing its players or state
+     * */
+    public void updateGame(Match match) {
+        synchronized (match) {
+            if (!games.containsKey(match.getId())) return;
+
+            var keys = new IndexKeys(match.getWhitePlayerId(), match.getBlackPlayerId(), MatchState.of(match));
+            var old = indexed.put(match.getId(), keys);
+            if (keys.equals(old)) return;
+
+            if (old != null) removeIndexes(match.getId(), old);
+            if (keys.whiteId != -1) addId(byPlayer, keys.whiteId, match.getId());
+            if (keys.blackId != -1) addId(byPlayer, keys.blackId, match.getId());
+            byState.get(keys.state).add(match.getId());
+        }
+    }
+
+    /** deletes the match */
+    public void removeGame(long gameId) {
+        var match = games.remove(gameId);
+        if (match == null) return;
+
+        synchronized (match) {
+            var old = indexed.remove(gameId);
+            if (old != null) removeIndexes(gameId, old);
+            removeId(byCreator, match.getCreatorId(), gameId);
+        }
+    }
+
+    /** returns a list of all matches */
+    public List<Match> readGames() {
+        return new ArrayList<>(games.values());
+    }
+
+    /**
+     * returns a page of matches in the order of creation
+     * @param afterId the last id of the previous page, -1 for the first page
+     * */
+    public List<Match> readGames(long afterId, int limit) {
+        List<Match> page = new ArrayList<>();
+        for (Match match : games.tailMap(afterId, false).values()) {
+            if (page.size() >= limit) break;
+            page.add(match);
+        }
+        return page;
+    }
+
+    /**
+     * returns a page of matches in the state
+     * @param afterId the last id of the previous page, -1 for the first page
+     * */
+    public List<Match> readGames(MatchState state, long afterId, int limit) {
+        return getPage(byState.get(state), afterId, limit);
+    }
 
+    /** returns the matches created by the account */
+    public List<Match> readGamesByCreator(long creatorId) {
+        return getPage(byCreator.getOrDefault(creatorId, Collections.emptyNavigableSet()), -1, Integer.MAX_VALUE);
+    }
+
+    /** returns the matches joined by the account */
+    public List<Match> readGamesByPlayer(long playerId) {
+        return getPage(byPlayer.getOrDefault(playerId, Collections.emptyNavigableSet()), -1, Integer.MAX_VALUE);
+    }
+
+    /** returns a specific match */
+    public Optional<Match> getGame(long id) {
+        return Optional.ofNullable(games.get(id));
+    }
+
+    private Match putGame(long id, Match match) {
         var newMatch = new Match(
-                getNewID(),
+                id,
                 match.getName(),
                 match.getSponsored(),
                 match.getRankType(),
@@ -48,38 +152,69 @@ public class GamesDAO {
                 match.isRandom(),
                 match.getFen()
         );
-        fastGames.add(newMatch);
+        games.put(newMatch.getId(), newMatch);
+        addId(byCreator, newMatch.getCreatorId(), newMatch.getId());
+        updateGame(newMatch);
 
         return newMatch;
     }
 
-    /** deletes the match */
-    public void removeGame(long gameId) {
-        fastGames.removeIf(match -> match.getId() == gameId);
+    private List<Match> getPage(NavigableSet<Long> ids, long afterId, int limit) {
+        List<Match> page = new ArrayList<>();
+        for (long id : ids.tailSet(afterId, false)) {
+            if (page.size() >= limit) break;
+            // may be removed in parallel
+            var match = games.get(id);
+            if (match != null) page.add(match);
+        }
+        return page;
     }
 
-    /** returns a list of all matches */
-    public List<Match> readGames() {
-        return new CopyOnWriteArrayList<>(fastGames);
+    private void removeIndexes(long matchId, IndexKeys keys) {
+        if (keys.whiteId != -1) removeId(byPlayer, keys.whiteId, matchId);
+        if (keys.blackId != -1) removeId(byPlayer, keys.blackId, matchId);
+        byState.get(keys.state).remove(matchId);
     }
 
-    /** returns a specific match */
-    public Optional<Match> getGame(long id) {
-        for (var game : fastGames) {
-            if (game.getId() == id) {
-                return Optional.of(game);
-            }
-        }
-        return Optional.empty();
+    private void addId(Map<Long, NavigableSet<Long>> index, long key, long matchId) {
+        index.compute(key, (k, ids) -> {
+            if (ids == null) ids = new ConcurrentSkipListSet<>();
+            ids.add(matchId);
+            return ids;
+        });
+    }
+
+    private void removeId(Map<Long, NavigableSet<Long>> index, long key, long matchId) {
+        // the empty set is removed atomically, so a parallel add is not lost
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(matchId);
+            return ids.isEmpty() ? null : ids;
+        });
     }
 
-    private long getNewID() {
-        long max = 1;
-        for (var game : fastGames) {
-            if (game.getId() > max) {
-                max = game.getId();
-            }
+    /** the keys of a match in the indexes at the last update */
+    private static final class IndexKeys {
+
+        private final long whiteId, blackId;
+        private final MatchState state;
+
+        private IndexKeys(long whiteId, long blackId, MatchState state) {
+            this.whiteId = whiteId;
+            this.blackId = blackId;
+            this.state = state;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            IndexKeys keys = (IndexKeys) o;
+            return whiteId == keys.whiteId && blackId == keys.blackId && state == keys.state;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(whiteId) * 31 * 31 + Long.hashCode(blackId) * 31 + state.hashCode();
         }
-        return max + 1;
     }
 }
@@ -0,0 +1,97 @@
+package com.iapp.ageofchess.server.dao;
+
+import com.google.gson.Gson;
+import com.iapp.ageofchess.multiplayer.Match;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The state of a live match collected from the journal,
+ * enough to create the match again and to replay its moves
+ * @author Igor Ivanov
+ * @see MatchJournal
+ * */
+public class JournaledMatch {
+
+    private final long id;
+    /** the settings of the match at its creation, JSON */
+    private final String created;
+    private long whiteId = -1, blackId = -1;
+    private boolean started;
+    private final List<String> moves = new ArrayList<>();
+    private long timeByWhite, timeByBlack, timeByTurn;
+    private boolean alternately;
+
+    JournaledMatch(long id, String created) {
+        this.id = id;
+        this.created = created;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /** the settings of the match at its creation, the players and the state are not set */
+    public Match getCreated(Gson gson) {
+        return gson.fromJson(created, Match.class);
+    }
+
+    public long getWhiteId() {
+        return whiteId;
+    }
+
+    public long getBlackId() {
+        return blackId;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /** the moves in the fen format of MatchChessEngine, in order */
+    public List<String> getMoves() {
+        return Collections.unmodifiableList(moves);
+    }
+
+    public long getTimeByWhite() {
+        return timeByWhite;
+    }
+
+    public long getTimeByBlack() {
+        return timeByBlack;
+    }
+
+    public long getTimeByTurn() {
+        return timeByTurn;
+    }
+
+    public boolean isAlternately() {
+        return alternately;
+    }
+
+    String getCreatedJson() {
+        return created;
+    }
+
+    void addMove(String fenMove) {
+        moves.add(fenMove);
+    }
+
+    void setPlayers(long whiteId, long blackId) {
+        this.whiteId = whiteId;
+        this.blackId = blackId;
+    }
+
+    void setStarted(boolean started) {
+        this.started = started;
+    }
+
+    void setClocks(long timeByWhite, long timeByBlack, long timeByTurn, boolean alternately) {
+        this.timeByWhite = timeByWhite;
+        this.timeByBlack = timeByBlack;
+        this.timeByTurn = timeByTurn;
+        this.alternately = alternately;
+    }
+}
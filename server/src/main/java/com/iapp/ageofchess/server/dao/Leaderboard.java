@@ -0,0 +1,196 @@
+package com.iapp.ageofchess.server.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The accounts of one rank type ordered by their rank, from the best
+ * @author Igor Ivanov
+ * An indexable skip list: each link knows the number of the accounts it skips,
+ * so the place of an account and the account at a place are found in O(log n).
+ * The accounts with equal ranks are ordered by id
+ * */
+class Leaderboard {
+
+    private static final int MAX_LEVEL = 32;
+
+    /** guarded by this */
+    private final Node head = new Node(-1, 0, MAX_LEVEL);
+    private final Map<Long, Node> nodes = new HashMap<>();
+    private int level = 1;
+    private int size;
+
+    /**
+     * fills the empty leaderboard, the accounts are sorted once and linked from the first place,
+     * without searching the place of each
+     * */
+    synchronized void load(long[] ids, double[] ranks) {
+        if (size != 0) throw new IllegalStateException("the leaderboard is not empty");
+
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> ranks[a] != ranks[b]
+            ? Double.compare(ranks[b], ranks[a]) : Long.compare(ids[a], ids[b]));
+
+        Node[] last = new Node[MAX_LEVEL];
+        long[] lastPlaces = new long[MAX_LEVEL];
+        Arrays.fill(last, head);
+        for (int index : order) {
+            Node node = new Node(ids[index], ranks[index], randomLevel());
+            long place = ++size;
+            for (int i = 0; i < node.next.length; i++) {
+                last[i].next[i] = node;
+                last[i].span[i] = place - lastPlaces[i];
+                last[i] = node;
+                lastPlaces[i] = place;
+            }
+            level = Math.max(level, node.next.length);
+            nodes.put(node.id, node);
+        }
+        // the links to the end skip the rest
+        for (int i = 0; i < level; i++) last[i].span[i] = size - lastPlaces[i];
+    }
+
+    /** adds the account or moves it to the place of its new rank */
+    synchronized void put(long id, double rank) {
+        Node old = nodes.get(id);
+        if (old != null) {
+            if (old.rank == rank) return;
+            unlink(old);
+        }
+        nodes.put(id, link(id, rank));
+    }
+
+    synchronized void remove(long id) {
+        Node node = nodes.remove(id);
+        if (node != null) unlink(node);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /** returns the place of the account from 1, -1 if there is no such account */
+    synchronized long getPlace(long id) {
+        Node node = nodes.get(id);
+        if (node == null) return -1;
+
+        Node x = head;
+        long place = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && !isAfter(x.next[i], node.rank, node.id)) {
+                place += x.span[i];
+                x = x.next[i];
+            }
+            if (x == node) return place;
+        }
+        return -1;
+    }
+
+    /** returns the ids of the accounts from the place, in the order of their places */
+    synchronized List<Long> getIds(long fromPlace, int count) {
+        List<Long> ids = new ArrayList<>();
+        if (fromPlace < 1 || count <= 0) return ids;
+
+        Node x = head;
+        long traversed = 0;
+        for (int i = level - 1; i >= 0 && traversed != fromPlace; i--) {
+            while (x.next[i] != null && traversed + x.span[i] <= fromPlace) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+        }
+        if (traversed != fromPlace) return ids;
+
+        for (; x != null && ids.size() < count; x = x.next[0]) ids.add(x.id);
+        return ids;
+    }
+
+    /** the node goes after the place of the rank and id */
+    private static boolean isAfter(Node node, double rank, long id) {
+        return node.rank < rank || (node.rank == rank && node.id > id);
+    }
+
+    private Node link(long id, double rank) {
+        Node[] update = new Node[MAX_LEVEL];
+        long[] places = new long[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            places[i] = i == level - 1 ? 0 : places[i + 1];
+            while (x.next[i] != null && !isAfter(x.next[i], rank, id)) {
+                places[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        int nodeLevel = randomLevel();
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                places[i] = 0;
+                update[i] = head;
+                // the link of the head to the end skips all accounts
+                head.span[i] = size;
+            }
+            level = nodeLevel;
+        }
+
+        Node node = new Node(id, rank, nodeLevel);
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (places[0] - places[i]);
+            update[i].span[i] = places[0] - places[i] + 1;
+        }
+        for (int i = nodeLevel; i < level; i++) update[i].span[i]++;
+        size++;
+        return node;
+    }
+
+    private void unlink(Node node) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && x.next[i] != node && !isAfter(x.next[i], node.rank, node.id)) {
+                x = x.next[i];
+            }
+            if (x.next[i] == node) {
+                x.span[i] += node.span[i] - 1;
+                x.next[i] = node.next[i];
+            } else {
+                x.span[i]--;
+            }
+        }
+        size--;
+        while (level > 1 && head.next[level - 1] == null) {
+            head.span[level - 1] = 0;
+            level--;
+        }
+    }
+
+    /** each next level has a quarter of the nodes */
+    private static int randomLevel() {
+        int nodeLevel = 1;
+        while (nodeLevel < MAX_LEVEL && ThreadLocalRandom.current().nextInt(4) == 0) nodeLevel++;
+        return nodeLevel;
+    }
+
+    private static final class Node {
+
+        private final long id;
+        private final double rank;
+        private final Node[] next;
+        /** the number of the accounts passed by each link, the link to the end passes the rest */
+        private final long[] span;
+
+        private Node(long id, double rank, int level) {
+            this.id = id;
+            this.rank = rank;
+            next = new Node[level];
+            span = new long[level];
+        }
+    }
+}
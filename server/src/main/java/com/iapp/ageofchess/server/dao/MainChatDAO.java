@@ -2,24 +2,37 @@ package com.iapp.ageofchess.server.dao;
 
 import com.iapp.lib.web.Account;
 import com.iapp.lib.web.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
 /**
  * @author Igor Ivanov
  * @version 1.0
+ * The messages are read by pages from the newest ones by the primary key,
+ * the ids are given by a sequence, so they grow with the time.
+ * The old messages are moved to the MessageArchive table in batches
  * */
 @Component
-public class MainChatDAO {
+public class MainChatDAO implements InitializingBean {
+
+    private static final Logger mainChatLogger = LoggerFactory.getLogger(MainChatDAO.class);
 
-    /** the maximum number of elements stored in the database */
-    private static final int maxRows = 200;
     /** the maximum number of elements returned from the database */
     private static final int returnRows = 70;
+    /** the not pinned messages older than this time are archived */
+    private static final long RETENTION_TIME = 30L * 24 * 60 * 60 * 1000;
+    /** the number of messages archived by one statement, keeps the locks short */
+    private static final int ARCHIVE_BATCH = 500;
+    /** the maximum number of batches in one clearing, the rest is left for the next one */
+    private static final int MAX_ARCHIVE_BATCHES = 20;
     private final JdbcTemplate jdbcTemplate;
 
     @Autowired
@@ -28,28 +41,59 @@ public class MainChatDAO {
     }
 
     /**
-     * removes old messages from the database when the limit is exceeded
+     * creates the sequence, the index and the archive if they are missing,
+     * the sequence continues after the existing messages
+     * */
+    @Override
+    public void afterPropertiesSet() {
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS message_id_seq MINVALUE 0");
+        jdbcTemplate.queryForObject("SELECT setval('message_id_seq', GREATEST("
+            + "(SELECT COALESCE(MAX(id), 0) FROM Message), (SELECT last_value FROM message_id_seq)))", Long.class);
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS message_time_idx ON Message (time)");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS MessageArchive (LIKE Message INCLUDING ALL)");
+    }
+
+    /**
+     * moves the old messages to the archive in batches
      * */
     public void clearOldMessages() {
-        // TODO
-        //jdbcTemplate.update("DELETE FROM Message " +
-          //  "WHERE id < (SELECT MAX(id) - 200 FROM (SELECT * FROM Message) tmp)",
-            //maxRows);
+        long border = System.currentTimeMillis() - RETENTION_TIME;
+        int archived = 0;
+
+        for (int i = 0; i < MAX_ARCHIVE_BATCHES; i++) {
+            int moved = jdbcTemplate.update("WITH old AS (DELETE FROM Message WHERE id IN "
+                + "(SELECT id FROM Message WHERE time < ? AND NOT pinned ORDER BY time LIMIT ?) RETURNING *) "
+                + "INSERT INTO MessageArchive SELECT * FROM old", border, ARCHIVE_BATCH);
+            archived += moved;
+            if (moved < ARCHIVE_BATCH) break;
+        }
+
+        if (archived != 0) mainChatLogger.info("archived main chat messages, count = " + archived);
     }
 
     /** sends a message */
     public void send(Account account, String text) {
         jdbcTemplate.update("INSERT INTO Message VALUES" +
-                        "(?, ?, ?, ?, ?)",
-                getNewID(), false,
-                new Date().getTime(), text,
+                        "(nextval('message_id_seq'), ?, ?, ?, ?)",
+                false, new Date().getTime(), text,
                 account.getId());
     }
 
-    /** reads all messages */
+    /** reads the latest messages, from old to new */
     public List<Message> readMessages() {
-        return jdbcTemplate.query("SELECT * FROM Message LIMIT " + returnRows,
-            new MessageMapper());
+        return readBefore(Long.MAX_VALUE, returnRows);
+    }
+
+    /**
+     * reads a page of the messages preceding the message
+     * @param beforeId - the id of the oldest message already read, exclusive
+     * @return the messages from old to new
+     * */
+    public List<Message> readBefore(long beforeId, int limit) {
+        List<Message> messages = jdbcTemplate.query("SELECT * FROM Message WHERE id < ? ORDER BY id DESC LIMIT ?",
+            new MessageMapper(), beforeId, limit);
+        Collections.reverse(messages);
+        return messages;
     }
 
     /** get message by id */
@@ -62,9 +106,4 @@ public class MainChatDAO {
     public void removeMessage(long id) {
         jdbcTemplate.update("DELETE FROM Message WHERE id=?", id);
     }
-
-    private long getNewID() {
-        return jdbcTemplate.query("SELECT * FROM Message ORDER BY id DESC LIMIT 1", new MessageMapper())
-                .stream().map(Message::getId).findFirst().orElse(-1L) + 1;
-    }
 }
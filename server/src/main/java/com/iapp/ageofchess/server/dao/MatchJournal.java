@@ -0,0 +1,368 @@
+package com.iapp.ageofchess.server.dao;
+
+import com.google.gson.Gson;
+import com.iapp.ageofchess.multiplayer.Match;
+import com.iapp.lib.chess_engine.Result;
+import com.iapp.lib.web.WireReader;
+import com.iapp.lib.web.WireWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the live matches, they are restored from it after a restart
+ * @author Igor Ivanov
+ * The events are appended without waiting and written by one thread in batches,
+ * a batch is synced to the disk once for all its events (group commit).
+ * A record is [length][crc32][type, match id, data], a torn record at the end is cut off.
+ * The journal is compacted to one snapshot record per live match,
+ * the finished and removed matches are dropped
+ * */
+@Component
+public class MatchJournal implements DisposableBean {
+
+    private static final Logger journalLogger = LoggerFactory.getLogger(MatchJournal.class);
+
+    private static final int CREATE = 1, PLAYERS = 2, START = 3, MOVE = 4, CLOCK = 5, REMOVE = 6, SNAPSHOT = 7;
+    private static final int HEADER_SIZE = 8;
+    /** the maximum waiting of a sync, the state in memory is already changed anyway */
+    private static final long SYNC_TIMEOUT = 5_000;
+
+    private final Path path;
+    private final Gson gson = new Gson();
+
+    /** match id -> the state of the live match, guarded by this */
+    private final Map<Long, JournaledMatch> matches = new TreeMap<>();
+    /** the records not written yet, guarded by this */
+    private final Deque<byte[]> queue = new ArrayDeque<>();
+    /** completed when the queued records are synced */
+    private CompletableFuture<Void> queued = new CompletableFuture<>();
+    /** completed when the records being written are synced, null if none */
+    private CompletableFuture<Void> writing;
+    private boolean compactRequested;
+    private boolean closed;
+
+    /** accessed only by the writer */
+    private FileChannel channel;
+    private final Thread writer;
+
+    public MatchJournal(@Value("${journal.path:journal}") String directory) {
+        path = Paths.get(directory).resolve("matches.journal");
+        try {
+            Files.createDirectories(path.getParent());
+            long valid = readJournal();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (channel.size() > valid) {
+                journalLogger.warn("Cut off the torn end of the match journal, bytes = " + (channel.size() - valid));
+                channel.truncate(valid);
+            }
+            channel.position(valid);
+        } catch (IOException e) {
+            throw new UncheckedIOException("error open match journal " + path, e);
+        }
+
+        writer = new Thread(this::write, "match-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** returns the live matches read from the journal at the start, by id */
+    public synchronized List<JournaledMatch> getMatches() {
+        return new ArrayList<>(matches.values());
+    }
+
+    /** the match is created, its settings are stored */
+    public void create(Match match) {
+        append(new WireWriter().writeByte(CREATE).writeLong(match.getId()).writeString(gson.toJson(match)));
+    }
+
+    public void players(long matchId, long whiteId, long blackId) {
+        append(new WireWriter().writeByte(PLAYERS).writeLong(matchId).writeLong(whiteId).writeLong(blackId));
+    }
+
+    public void start(long matchId) {
+        append(new WireWriter().writeByte(START).writeLong(matchId));
+    }
+
+    /** the move is made, the clocks are stored after it and the match is dropped if it is finished */
+    public void move(Match match, String fenMove) {
+        append(writeClocks(new WireWriter().writeByte(MOVE).writeLong(match.getId()).writeString(fenMove), match)
+            .writeBoolean(match.getResult() != Result.NONE));
+    }
+
+    /** the clocks of the match, the match is dropped if it is finished */
+    public void clock(Match match) {
+        append(writeClocks(new WireWriter().writeByte(CLOCK).writeLong(match.getId()), match)
+            .writeBoolean(match.getResult() != Result.NONE));
+    }
+
+    public void remove(long matchId) {
+        append(new WireWriter().writeByte(REMOVE).writeLong(matchId));
+    }
+
+    /**
+     * waits until all events appended before are on the disk,
+     * the matches on the disk survive a crash
+     * */
+    public void sync() {
+        CompletableFuture<Void> future;
+        synchronized (this) {
+            future = !queue.isEmpty() ? queued : writing;
+        }
+        if (future == null) return;
+
+        try {
+            future.get(SYNC_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            journalLogger.error("Error sync match journal", e);
+        }
+    }
+
+    /** rewrites the journal with the snapshots of the live matches, in the thread of the journal */
+    public synchronized void compact() {
+        compactRequested = true;
+        notifyAll();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        writer.join(SYNC_TIMEOUT);
+    }
+
+    private void append(WireWriter record) {
+        byte[] data = record.toArray();
+        synchronized (this) {
+            if (closed) return;
+            apply(new WireReader(data, 0));
+            queue.add(data);
+            notifyAll();
+        }
+    }
+
+    private WireWriter writeClocks(WireWriter writer, Match match) {
+        return writer.writeLong(match.getTimeByWhite()).writeLong(match.getTimeByBlack())
+            .writeLong(match.getTimeByTurn()).writeBoolean(match.isAlternately());
+    }
+
+    /** changes the state of the matches by the record, guarded by this */
+    private void apply(WireReader reader) {
+        int type = reader.readByte();
+        long id = reader.readLong();
+        if (type == CREATE) {
+            matches.put(id, new JournaledMatch(id, reader.readString()));
+            return;
+        }
+        if (type == SNAPSHOT) {
+            var match = new JournaledMatch(id, reader.readString());
+            match.setPlayers(reader.readLong(), reader.readLong());
+            match.setStarted(reader.readBoolean());
+            for (long i = reader.readVarLong(); i > 0; i--) match.addMove(reader.readString());
+            readClocks(reader, match);
+            matches.put(id, match);
+            return;
+        }
+
+        var match = matches.get(id);
+        if (match == null) return;
+        switch (type) {
+            case PLAYERS:
+                match.setPlayers(reader.readLong(), reader.readLong());
+                break;
+            case START:
+                match.setStarted(true);
+                break;
+            case MOVE:
+                match.addMove(reader.readString());
+                readClocks(reader, match);
+                if (reader.readBoolean()) matches.remove(id);
+                break;
+            case CLOCK:
+                readClocks(reader, match);
+                if (reader.readBoolean()) matches.remove(id);
+                break;
+            case REMOVE:
+                matches.remove(id);
+                break;
+        }
+    }
+
+    private void readClocks(WireReader reader, JournaledMatch match) {
+        match.setClocks(reader.readLong(), reader.readLong(), reader.readLong(), reader.readBoolean());
+    }
+
+    private byte[] writeSnapshot(JournaledMatch match) {
+        var writer = new WireWriter()
+            .writeByte(SNAPSHOT)
+            .writeLong(match.getId())
+            .writeString(match.getCreatedJson())
+            .writeLong(match.getWhiteId())
+            .writeLong(match.getBlackId())
+            .writeBoolean(match.isStarted())
+            .writeVarLong(match.getMoves().size());
+        for (String move : match.getMoves()) writer.writeString(move);
+        return writer
+            .writeLong(match.getTimeByWhite())
+            .writeLong(match.getTimeByBlack())
+            .writeLong(match.getTimeByTurn())
+            .writeBoolean(match.isAlternately())
+            .toArray();
+    }
+
+    /** reads the existing journal into the matches, returns the length of its valid part */
+    private long readJournal() throws IOException {
+        if (!Files.exists(path)) return 0;
+
+        var buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        var crc = new CRC32();
+        synchronized (this) {
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    buffer.position(start);
+                    break;
+                }
+
+                byte[] data = new byte[length];
+                buffer.get(data);
+                crc.reset();
+                crc.update(data);
+                if ((int) crc.getValue() != checksum) {
+                    buffer.position(start);
+                    break;
+                }
+                apply(new WireReader(data, 0));
+            }
+            journalLogger.info("Read match journal, live matches = " + matches.size());
+        }
+        return buffer.position();
+    }
+
+    /** the thread of the journal, writes the queued records in batches */
+    private void write() {
+        while (true) {
+            List<byte[]> batch;
+            List<byte[]> snapshots = null;
+            CompletableFuture<Void> synced;
+            synchronized (this) {
+                while (queue.isEmpty() && !compactRequested && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (queue.isEmpty() && !compactRequested) break;
+
+                if (compactRequested) {
+                    compactRequested = false;
+                    // the snapshots already contain the queued records
+                    snapshots = new ArrayList<>();
+                    for (JournaledMatch match : matches.values()) snapshots.add(writeSnapshot(match));
+                }
+                batch = new ArrayList<>(queue);
+                queue.clear();
+                synced = queued;
+                writing = synced;
+                queued = new CompletableFuture<>();
+            }
+
+            try {
+                if (snapshots == null || !rewrite(snapshots)) writeRecords(channel, batch);
+                synced.complete(null);
+            } catch (Throwable t) {
+                journalLogger.error("Error write match journal", t);
+                synced.completeExceptionally(t);
+            }
+            synchronized (this) {
+                if (writing == synced) writing = null;
+            }
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            journalLogger.error("Error close match journal", e);
+        }
+    }
+
+    private void writeRecords(FileChannel channel, Collection<byte[]> records) throws IOException {
+        int size = 0;
+        for (byte[] record : records) size += HEADER_SIZE + record.length;
+
+        var buffer = ByteBuffer.allocate(size);
+        var crc = new CRC32();
+        for (byte[] record : records) {
+            crc.reset();
+            crc.update(record);
+            buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        channel.force(false);
+    }
+
+    /**
+     * replaces the journal by the snapshots, a crash leaves either the old or the new one
+     * @return false if the old journal is kept
+     * */
+    private boolean rewrite(List<byte[]> snapshots) {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var compacted = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeRecords(compacted, snapshots);
+        } catch (IOException e) {
+            journalLogger.error("Error compact match journal", e);
+            return false;
+        }
+
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            journalLogger.error("Error replace match journal", e);
+            return false;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            journalLogger.error("Error close match journal", e);
+        }
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("error open match journal " + path, e);
+        }
+        journalLogger.info("Compacted match journal, live matches = " + snapshots.size());
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+package com.iapp.ageofchess.server.dao;
+
+import com.iapp.ageofchess.multiplayer.Match;
+import com.iapp.lib.chess_engine.Result;
+
+/**
+ * The state of a match in the indexes of the matches
+ * @author Igor Ivanov
+ * @version 1.0
+ * */
+public enum MatchState {
+    OPEN,
+    STARTED,
+    FINISHED;
+
+    /** returns the current state of the match */
+    public static MatchState of(Match match) {
+        if (match.getResult() != Result.NONE) return FINISHED;
+        if (match.isStarted()) return STARTED;
+        return OPEN;
+    }
+}
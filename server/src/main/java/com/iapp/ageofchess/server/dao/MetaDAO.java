@@ -5,6 +5,7 @@ import com.google.gson.reflect.TypeToken;
 import com.iapp.lib.web.*;
 import com.iapp.lib.util.DataChecks;
 import com.iapp.lib.util.Pair;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
@@ -17,20 +18,30 @@ import java.util.stream.Collectors;
 /**
  * Database management for additional account data
  * @author Igor Ivanov
+ * The avatars are in the AvatarStore, the account has only the hash of its avatar.
+ * The avatars of the avatar column are moved to the store on the first reading
  * */
 @Component
-public class MetaDAO {
+public class MetaDAO implements InitializingBean {
 
     private final JdbcTemplate jdbcTemplate;
+    private final AvatarStore avatarStore;
     private final Gson gson;
     /** storage time of logins for an account */
     private static final long MAX_TIME_STORED_LOGIN = 24 * 60 * 60 * 1000;
 
-    public MetaDAO(JdbcTemplate jdbcTemplate) {
+    public MetaDAO(JdbcTemplate jdbcTemplate, AvatarStore avatarStore) {
         this.jdbcTemplate = jdbcTemplate;
+        this.avatarStore = avatarStore;
         gson = new Gson();
     }
 
+    /** creates the column of the avatar hashes if it is missing */
+    @Override
+    public void afterPropertiesSet() {
+        jdbcTemplate.execute("ALTER TABLE Account ADD COLUMN IF NOT EXISTS avatar_hash VARCHAR(64)");
+    }
+
     /**
      * processes the account and returns a short list of punishment types
      * */
@@ -81,10 +92,7 @@ public class MetaDAO {
      * update account avatar
      * */
     public RequestStatus updateAvatar(long accountId, byte[] avatar) {
-        jdbcTemplate.update("UPDATE Account SET avatar=? WHERE id=?",
-                avatar, accountId);
-
-        return RequestStatus.DONE;
+        return storeAvatar(accountId, avatar) != null ? RequestStatus.DONE : RequestStatus.INCORRECT_DATA;
     }
 
     /**
@@ -108,7 +116,7 @@ public class MetaDAO {
      * returns all logins for the entire specified time
      * */
     public List<List<Login>> getLogins(long accountId) {
-        return jdbcTemplate.query("SELECT * FROM Account WHERE id=?",
+        return jdbcTemplate.query("SELECT logins FROM Account WHERE id=?",
                 new Object[]{accountId},
                 (rs, rowNum) -> gson.fromJson(rs.getString("logins"),
                         new TypeToken<List<Login>>() {}.getType()));
@@ -118,7 +126,7 @@ public class MetaDAO {
      * returns all account punishments
      * */
     public List<List<Punishment>> getPunishments(long accountId) {
-        return jdbcTemplate.query("SELECT * FROM Account Where id=?",
+        return jdbcTemplate.query("SELECT punishments FROM Account WHERE id=?",
                 new Object[]{accountId},
                 (rs, rowNum) ->
                         gson.fromJson(rs.getString("punishments"),
@@ -126,12 +134,66 @@ public class MetaDAO {
     }
 
     /**
-     * returns account avatar
+     * returns the hash of the account avatar in the pair value,
+     * null if the account has no avatar
      * */
-    public List<byte[]> getAvatar(long accountId) {
-        return jdbcTemplate.query("SELECT * FROM Account Where id=?",
-                new Object[]{accountId},
-                (rs, rowNum) -> rs.getBytes("avatar"));
+    public Pair<RequestStatus, String> getAvatarHash(long accountId) {
+        List<Pair<String, Boolean>> general = jdbcTemplate.query(
+                "SELECT avatar_hash, length(avatar) > 0 AS legacy FROM Account WHERE id=?",
+                (rs, rowNum) -> new Pair<>(rs.getString("avatar_hash"), rs.getBoolean("legacy")),
+                accountId);
+        if (DataChecks.isBadList(general)) return new Pair<>(DataChecks.getBadStatus(general), null);
+
+        Pair<String, Boolean> hash = general.get(0);
+        if (hash.getKey() != null || !hash.getValue()) return new Pair<>(RequestStatus.DONE, hash.getKey());
+
+        // the avatar is still in the table
+        List<byte[]> avatar = jdbcTemplate.query("SELECT avatar FROM Account WHERE id=?",
+                (rs, rowNum) -> rs.getBytes("avatar"),
+                accountId);
+        if (DataChecks.isBadList(avatar)) return new Pair<>(DataChecks.getBadStatus(avatar), null);
+
+        String moved = storeAvatar(accountId, avatar.get(0));
+        if (moved == null) {
+            // a broken or too large avatar can not be shown, the account stays without avatar
+            jdbcTemplate.update("UPDATE Account SET avatar=? WHERE id=?", new byte[0], accountId);
+        }
+        return new Pair<>(RequestStatus.DONE, moved);
+    }
+
+    /**
+     * returns the account avatar or its thumbnail,
+     * an empty array if the account has no avatar
+     * */
+    public Pair<RequestStatus, byte[]> getAvatar(long accountId, boolean thumbnail) {
+        Pair<RequestStatus, String> hash = getAvatarHash(accountId);
+        if (hash.getKey() != RequestStatus.DONE) return new Pair<>(hash.getKey(), null);
+        return getAvatar(hash.getValue(), thumbnail);
+    }
+
+    /**
+     * returns the avatar or its thumbnail by the hash,
+     * an empty array for the null hash
+     * */
+    public Pair<RequestStatus, byte[]> getAvatar(String hash, boolean thumbnail) {
+        if (hash == null) return new Pair<>(RequestStatus.DONE, new byte[0]);
+        byte[] avatar = thumbnail ? avatarStore.getThumbnail(hash) : avatarStore.get(hash);
+        if (avatar == null) return new Pair<>(RequestStatus.NOT_FOUND, null);
+        return new Pair<>(RequestStatus.DONE, avatar);
+    }
+
+    /**
+     * puts the avatar and its thumbnail to the store and the hash to the account,
+     * returns the hash or null if the avatar is not a readable image
+     * */
+    private String storeAvatar(long accountId, byte[] avatar) {
+        byte[] thumbnail = AvatarThumbnails.create(avatar);
+        if (thumbnail == null) return null;
+
+        String hash = avatarStore.put(avatar, thumbnail);
+        jdbcTemplate.update("UPDATE Account SET avatar_hash=?, avatar=? WHERE id=?",
+                hash, new byte[0], accountId);
+        return hash;
     }
 
     private long getNewID(List<Punishment> punishments) {
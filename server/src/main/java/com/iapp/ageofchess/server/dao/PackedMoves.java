@@ -0,0 +1,44 @@
+package com.iapp.ageofchess.server.dao;
+
+import com.iapp.lib.chess_engine.Move;
+import com.iapp.lib.chess_engine.TypePiece;
+import com.iapp.lib.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The moves of an archived game, 2 bytes per move
+ * @author Igor Ivanov
+ * A move is from | to << 6 | promotion << 12, big-endian, a square is y * 8 + x.
+ * The promotion is the ordinal of the piece, 0 (the pawn) if there is none
+ * */
+final class PackedMoves {
+
+    private PackedMoves() {}
+
+    static byte[] pack(List<Pair<Move, TypePiece>> moves) {
+        byte[] packed = new byte[moves.size() * 2];
+        for (int i = 0; i < moves.size(); i++) {
+            Move move = moves.get(i).getKey();
+            TypePiece promotion = moves.get(i).getValue();
+            int value = (move.getPieceY() << 3 | move.getPieceX())
+                | (move.getMoveY() << 3 | move.getMoveX()) << 6
+                | (promotion == null ? 0 : promotion.ordinal()) << 12;
+            packed[i * 2] = (byte) (value >>> 8);
+            packed[i * 2 + 1] = (byte) value;
+        }
+        return packed;
+    }
+
+    static List<Pair<Move, TypePiece>> unpack(byte[] packed) {
+        List<Pair<Move, TypePiece>> moves = new ArrayList<>(packed.length / 2);
+        for (int i = 0; i + 1 < packed.length; i += 2) {
+            int value = (packed[i] & 0xFF) << 8 | packed[i + 1] & 0xFF;
+            int promotion = value >>> 12;
+            moves.add(new Pair<>(Move.valueOf(value & 7, value >>> 3 & 7, value >>> 6 & 7, value >>> 9 & 7),
+                promotion == 0 ? null : TypePiece.values()[promotion]));
+        }
+        return moves;
+    }
+}